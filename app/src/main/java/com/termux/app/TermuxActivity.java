@@ -254,6 +254,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
     private static final int CONTEXT_MENU_HELP_ID = 7;
     private static final int CONTEXT_MENU_SETTINGS_ID = 8;
     private static final int CONTEXT_MENU_REPORT_ID = 9;
+    private static final int CONTEXT_MENU_TOGGLE_RECORDING_ID = 11;
 
     private static final String ARG_TERMINAL_TOOLBAR_TEXT_INPUT = "terminal_toolbar_text_input";
     private static final String ARG_ACTIVITY_RECREATED = "activity_recreated";
@@ -1975,6 +1976,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         menu.add(Menu.NONE, CONTEXT_MENU_KILL_PROCESS_ID, Menu.NONE, getResources().getString(R.string.action_kill_process, getCurrentSession().getPid())).setEnabled(currentSession.isRunning());
         menu.add(Menu.NONE, CONTEXT_MENU_STYLING_ID, Menu.NONE, R.string.action_style_terminal);
         menu.add(Menu.NONE, CONTEXT_MENU_TOGGLE_KEEP_SCREEN_ON, Menu.NONE, R.string.action_toggle_keep_screen_on).setCheckable(true).setChecked(mPreferences.shouldKeepScreenOn());
+        menu.add(Menu.NONE, CONTEXT_MENU_TOGGLE_RECORDING_ID, Menu.NONE, R.string.action_toggle_recording).setCheckable(true).setChecked(currentSession.isRecording()).setEnabled(currentSession.isRunning());
         menu.add(Menu.NONE, CONTEXT_MENU_HELP_ID, Menu.NONE, R.string.action_open_help);
         menu.add(Menu.NONE, CONTEXT_MENU_SETTINGS_ID, Menu.NONE, R.string.action_open_settings);
         menu.add(Menu.NONE, CONTEXT_MENU_REPORT_ID, Menu.NONE, R.string.action_report_issue);
@@ -2016,6 +2018,9 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
             case CONTEXT_MENU_TOGGLE_KEEP_SCREEN_ON:
                 toggleKeepScreenOn();
                 return true;
+            case CONTEXT_MENU_TOGGLE_RECORDING_ID:
+                toggleSessionRecording(session);
+                return true;
             case CONTEXT_MENU_HELP_ID:
                 ActivityUtils.startActivity(this, new Intent(this, HelpActivity.class));
                 return true;
@@ -2085,6 +2090,32 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         }
     }
 
+    /** Start recording the output of a session to an asciicast file in the home directory, or stop recording it. */
+    private void toggleSessionRecording(TerminalSession session) {
+        if (session == null) return;
+        if (session.isRecording()) {
+            session.stopRecording();
+            showToast(getString(R.string.msg_recording_stopped), false);
+            return;
+        }
+
+        File file = new File(TermuxConstants.TERMUX_HOME_DIR_PATH, "termux-session-" + System.currentTimeMillis() + ".cast");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            session.startRecording(out);
+            showToast(getString(R.string.msg_recording_started, file.getAbsolutePath()), true);
+        } catch (IOException | IllegalStateException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start recording session to \"" + file + "\"", e);
+            showToast(getString(R.string.error_recording_failed, e.getMessage()), true);
+        }
+    }
+
     private void requestAutoFill() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             AutofillManager autofillManager = getSystemService(AutofillManager.class);
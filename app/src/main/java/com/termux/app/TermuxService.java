@@ -5,6 +5,7 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
@@ -14,6 +15,7 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -26,9 +28,12 @@ import com.termux.shared.termux.plugins.TermuxPluginUtils;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.net.uri.UriUtils;
 import com.termux.shared.errors.Errno;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.command.runner.app.AppShell;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 import com.termux.shared.termux.shell.TermuxShellUtils;
 import com.termux.shared.termux.TermuxConstants;
@@ -49,7 +54,10 @@ import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -105,6 +113,33 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
+    /** The time each session was last shown in {@link TermuxActivity}, or created if it has not been shown, see
+     * {@link #onTerminalSessionViewed(TerminalSession)}. */
+    private final HashMap<TerminalSession, Long> mTerminalSessionViewedTimes = new HashMap<>();
+    /** The session last shown in {@link TermuxActivity}, which is never trimmed by {@link #checkTerminalMemoryBudget(boolean)}. */
+    private TerminalSession mLastViewedTerminalSession;
+
+    /** Periodically hibernates sessions and checks the memory used by the sessions against the budget while the
+     * service is running. */
+    private final Runnable mTerminalMemoryBudgetChecker = new Runnable() {
+        @Override
+        public void run() {
+            hibernateTerminalSessions();
+            checkTerminalMemoryBudget(false);
+            mHandler.postDelayed(this, TERMINAL_MEMORY_BUDGET_CHECK_INTERVAL_MILLIS);
+        }
+    };
+
+    /** The basename of the directory in the cache directory in which sessions keep their transcript spill directories. */
+    private static final String TRANSCRIPT_SPILL_DIR_BASENAME = "transcript-spill";
+
+    /** The basename of the directory in the no backup files directory in which hibernated sessions keep their
+     * snapshots. Unlike the cache directory, the system does not delete its files while the app is running. */
+    private static final String HIBERNATED_SESSIONS_DIR_BASENAME = "hibernated-sessions";
+
+    /** The interval at which {@link #hibernateTerminalSessions()} and {@link #checkTerminalMemoryBudget(boolean)} are run. */
+    private static final long TERMINAL_MEMORY_BUDGET_CHECK_INTERVAL_MILLIS = 30_000;
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -117,9 +152,19 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         mShellManager = TermuxShellManager.getShellManager();
 
+        // Delete the transcript spills of sessions of a previous app process, which cannot be used anymore
+        Error error = FileUtils.deleteDirectoryFile("transcript spill directory", getTranscriptSpillDirectoryPath(), true);
+        if (error != null)
+            Logger.logErrorExtended(LOG_TAG, error.toString());
+        error = FileUtils.deleteDirectoryFile("hibernated sessions directory", getHibernatedSessionsDirectoryPath(), true);
+        if (error != null)
+            Logger.logErrorExtended(LOG_TAG, error.toString());
+
         runStartForeground();
 
         SystemEventReceiver.registerPackageUpdateEvents(this);
+
+        mHandler.postDelayed(mTerminalMemoryBudgetChecker, TERMINAL_MEMORY_BUDGET_CHECK_INTERVAL_MILLIS);
     }
 
     @SuppressLint("Wakelock")
@@ -169,6 +214,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     public void onDestroy() {
         Logger.logVerbose(LOG_TAG, "onDestroy");
 
+        mHandler.removeCallbacks(mTerminalMemoryBudgetChecker);
+
         TermuxShellUtils.clearTermuxTMPDIR(true);
 
         actionReleaseWakeLock(false);
@@ -182,6 +229,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         runStopForeground();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Release the memory background sessions do not need once the app is hidden or memory is running low
+        checkTerminalMemoryBudget(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         Logger.logVerbose(LOG_TAG, "onBind");
@@ -610,7 +665,18 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return null;
         }
 
+        newTermuxSession.getTerminalSession().setEmulatorThreadEnabled(mProperties.isUsingTerminalEmulatorThread());
+
+        // Keep the transcript rows which no longer fit in memory on disk if enabled
+        int transcriptSpillSize = mProperties.getTerminalTranscriptSpillSize();
+        if (transcriptSpillSize > 0) {
+            TerminalSession terminalSession = newTermuxSession.getTerminalSession();
+            terminalSession.setTranscriptSpill(new File(getTranscriptSpillDirectoryPath(), terminalSession.mHandle),
+                transcriptSpillSize * 1024L * 1024L);
+        }
+
         mShellManager.mTermuxSessions.add(newTermuxSession);
+        mTerminalSessionViewedTimes.put(newTermuxSession.getTerminalSession(), SystemClock.elapsedRealtime());
 
         // Remove the execution command from the pending plugin execution commands list since it has
         // now been processed
@@ -630,6 +696,101 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         return newTermuxSession;
     }
 
+    /** Get the path of the directory in which sessions keep their transcript spill directories. */
+    private String getTranscriptSpillDirectoryPath() {
+        return getCacheDir().getAbsolutePath() + "/" + TRANSCRIPT_SPILL_DIR_BASENAME;
+    }
+
+    /** Get the path of the directory in which hibernated sessions keep their snapshots. */
+    private String getHibernatedSessionsDirectoryPath() {
+        return getNoBackupFilesDir().getAbsolutePath() + "/" + HIBERNATED_SESSIONS_DIR_BASENAME;
+    }
+
+    /** This should be called when a session is shown in {@link TermuxActivity}, so that the least recently viewed
+     * sessions are trimmed first by {@link #checkTerminalMemoryBudget(boolean)}.
+     */
+    public synchronized void onTerminalSessionViewed(TerminalSession terminalSession) {
+        long now = SystemClock.elapsedRealtime();
+        // The session shown before has been shown until now
+        if (mLastViewedTerminalSession != null && mLastViewedTerminalSession != terminalSession)
+            mTerminalSessionViewedTimes.put(mLastViewedTerminalSession, now);
+        mTerminalSessionViewedTimes.put(terminalSession, now);
+        mLastViewedTerminalSession = terminalSession;
+    }
+
+    /**
+     * Hibernate the sessions which have not been shown in {@link TermuxActivity} for longer than the
+     * {@link TermuxPropertyConstants#KEY_TERMINAL_HIBERNATION_TIMEOUT} if set, so that their rows are kept in a file
+     * in the no backup files directory instead of in memory, see {@link TerminalSession#hibernate(File)}. The session last shown
+     * is never hibernated, and a session is rehydrated once it is shown again.
+     */
+    private synchronized void hibernateTerminalSessions() {
+        long timeout = mProperties.getTerminalHibernationTimeout() * 60 * 1000L;
+        if (timeout <= 0) return;
+
+        long now = SystemClock.elapsedRealtime();
+        for (TermuxSession termuxSession : mShellManager.mTermuxSessions) {
+            TerminalSession terminalSession = termuxSession.getTerminalSession();
+            if (terminalSession == mLastViewedTerminalSession || terminalSession.isHibernating() ||
+                now - getTerminalSessionViewedTime(terminalSession) < timeout)
+                continue;
+
+            terminalSession.hibernate(new File(getHibernatedSessionsDirectoryPath(), terminalSession.mHandle));
+        }
+    }
+
+    /**
+     * Keep the memory used by the sessions, see {@link TerminalSession#getMemoryUsage()}, under the
+     * {@link TermuxPropertyConstants#KEY_TERMINAL_MEMORY_BUDGET} if set, by compacting and then trimming the
+     * transcripts of background sessions, least recently viewed first. The session last shown in {@link TermuxActivity}
+     * is never compacted or trimmed. Trimmed transcript rows are kept on disk if the transcript spill is enabled,
+     * otherwise they are dropped.
+     *
+     * @param compact If the background sessions should be compacted even if the budget is not exceeded.
+     */
+    private synchronized void checkTerminalMemoryBudget(boolean compact) {
+        long budget = mProperties.getTerminalMemoryBudget() * 1024L * 1024L;
+        if (budget <= 0 && !compact) return;
+
+        long memoryUsage = 0;
+        List<TerminalSession> backgroundSessions = new ArrayList<>();
+        for (TermuxSession termuxSession : mShellManager.mTermuxSessions) {
+            TerminalSession terminalSession = termuxSession.getTerminalSession();
+            memoryUsage += terminalSession.getMemoryUsage();
+            if (terminalSession != mLastViewedTerminalSession)
+                backgroundSessions.add(terminalSession);
+        }
+
+        boolean overBudget = budget > 0 && memoryUsage > budget;
+        if (!overBudget && !compact) return;
+
+        Collections.sort(backgroundSessions, (session1, session2) ->
+            Long.compare(getTerminalSessionViewedTime(session1), getTerminalSessionViewedTime(session2)));
+
+        // Compacting keeps the whole transcript, so all background sessions are compacted before any is trimmed
+        long memoryUsageBefore = memoryUsage;
+        for (TerminalSession terminalSession : backgroundSessions) {
+            long sessionMemoryUsage = terminalSession.getMemoryUsage();
+            terminalSession.compact();
+            memoryUsage -= sessionMemoryUsage - terminalSession.getMemoryUsage();
+        }
+
+        for (TerminalSession terminalSession : backgroundSessions) {
+            if (budget <= 0 || memoryUsage <= budget) break;
+            long sessionMemoryUsage = terminalSession.getMemoryUsage();
+            terminalSession.trimTranscript(TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN);
+            memoryUsage -= sessionMemoryUsage - terminalSession.getMemoryUsage();
+        }
+
+        Logger.logDebug(LOG_TAG, "Reduced memory used by TermuxSessions from " + memoryUsageBefore / 1024 + " KiB to " +
+            memoryUsage / 1024 + " KiB" + (budget > 0 ? " with a budget of " + budget / 1024 + " KiB" : ""));
+    }
+
+    private long getTerminalSessionViewedTime(TerminalSession terminalSession) {
+        Long viewedTime = mTerminalSessionViewedTimes.get(terminalSession);
+        return viewedTime == null ? 0 : viewedTime;
+    }
+
     /** Remove a TermuxSession. */
     public synchronized int removeTermuxSession(TerminalSession sessionToRemove) {
         int index = getIndexOfSession(sessionToRemove);
@@ -654,6 +815,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
             mShellManager.mTermuxSessions.remove(termuxSession);
 
+            // The transcript is not shown anymore, so delete the rows kept on disk
+            termuxSession.getTerminalSession().closeTranscriptSpill();
+            termuxSession.getTerminalSession().closeSnapshot();
+
+            mTerminalSessionViewedTimes.remove(termuxSession.getTerminalSession());
+            if (mLastViewedTerminalSession == termuxSession.getTerminalSession())
+                mLastViewedTerminalSession = null;
+
             // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
             // activity in is foreground
             if (mTermuxTerminalSessionActivityClient != null)
@@ -25,6 +25,7 @@ import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.terminal.io.BellHandler;
 import com.termux.shared.logger.Logger;
 import com.termux.terminal.TerminalColors;
+import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 import com.termux.terminal.TextStyle;
@@ -295,6 +296,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
             notifyOfSessionChange();
         }
 
+        // Keep the shown session from being trimmed when over the memory budget
+        TermuxService service = mActivity.getTermuxService();
+        if (service != null)
+            service.onTerminalSessionViewed(session);
+
         // We call the following even when the session is already being displayed since config may
         // be stale, like current session not selected or scrolled to.
         checkAndScrollToSession(session);
@@ -502,8 +508,12 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
 
             TerminalColors.COLOR_SCHEME.updateWith(props);
             TerminalSession session = mActivity.getCurrentSession();
-            if (session != null && session.getEmulator() != null) {
-                session.getEmulator().mColors.reset();
+            TerminalEmulator emulator = session != null ? session.getEmulator() : null;
+            if (emulator != null) {
+                // The session may be parsing output into the emulator on its emulator thread:
+                synchronized (emulator) {
+                    emulator.mColors.reset();
+                }
             }
             updateBackgroundColor();
 
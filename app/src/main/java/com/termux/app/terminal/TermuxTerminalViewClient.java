@@ -134,6 +134,7 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
      */
     public void onReloadProperties() {
         setSessionShortcuts();
+        mActivity.getTerminalView().setMaxScreenUpdatesPerSecond(mActivity.getProperties().getTerminalMaxScreenUpdatesPerSecond());
     }
 
     /**
@@ -184,7 +185,10 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
         if (mActivity.getProperties().shouldOpenTerminalTranscriptURLOnClick()) {
             int[] columnAndRow = mActivity.getTerminalView().getColumnAndRow(e, true);
-            String wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
+            String wordAtTap;
+            synchronized (term) {
+                wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
+            }
             LinkedHashSet<CharSequence> urlSet = TermuxUrlUtils.extractUrls(wordAtTap);
 
             if (!urlSet.isEmpty()) {
@@ -671,7 +675,8 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
+        // Only the end of the transcript can be shared, so do not hold all of it in memory.
+        String transcriptText = ShellUtils.getTerminalSessionTranscriptTextTail(session, false, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
         if (transcriptText == null) return;
 
         // See https://github.com/termux/termux-app/issues/1166.
@@ -726,7 +731,9 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        final String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
+        // The report shown is truncated if longer than the limit anyways, so only keep the end of the transcript up to
+        // it, like when sharing it, instead of holding all of it in memory.
+        final String transcriptText = ShellUtils.getTerminalSessionTranscriptTextTail(session, false, ReportActivity.ACTIVITY_TEXT_SIZE_LIMIT_IN_BYTES);
         if (transcriptText == null) return;
 
         MessageDialogUtils.showMessage(mActivity, TermuxConstants.TERMUX_APP_NAME + " Report Issue",
@@ -0,0 +1,112 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an asciicast recording of a terminal session into a {@link TerminalEmulator} as fast as possible, so that
+ * parser changes can be measured against captures of real sessions, recorded with
+ * {@link TerminalSession#startRecording(java.io.OutputStream)} or asciinema, instead of only synthetic workloads.
+ *
+ * - {@link #replay} includes reading the recording with an {@link AsciicastPlayer}.
+ * - {@link #appendOutput} only appends the output events, which are decoded up front, and resizes the emulator.
+ *
+ * The capture is passed with {@code -PjmhCapture=<path>}, and without it a capture of the workloads in
+ * {@link TerminalWorkload} is recorded with an {@link AsciicastRecorder}.
+ */
+@State(Scope.Thread)
+public class AsciicastReplayBenchmark {
+
+    @Param({""})
+    public String capture;
+
+    private String mRecording;
+    private int mColumns;
+    private int mRows;
+    private TerminalEmulator mEmulator;
+    /** The output events as bytes, and the resize events as int[] {columns, rows}. */
+    private final List<Object> mEvents = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mRecording = capture.isEmpty() ? recordWorkloads(120, 40)
+            : new String(Files.readAllBytes(Paths.get(capture)), StandardCharsets.UTF_8);
+
+        AsciicastPlayer player = new AsciicastPlayer(new StringReader(mRecording));
+        mColumns = player.getColumns();
+        mRows = player.getRows();
+        long outputBytes = 0;
+        while (player.nextEvent()) {
+            if (player.getEventType().equals("o")) {
+                byte[] bytes = player.getEventData().getBytes(StandardCharsets.UTF_8);
+                mEvents.add(bytes);
+                outputBytes += bytes.length;
+            } else if (player.getEventType().equals("r")) {
+                String[] size = player.getEventData().split("x");
+                mEvents.add(new int[]{Integer.parseInt(size[0]), Integer.parseInt(size[1])});
+            }
+        }
+        System.out.println("\nReplaying " + mEvents.size() + " events with " + outputBytes + " bytes of output");
+
+        mEmulator = new TerminalEmulator(new TerminalEmulatorBenchmark.DiscardingTerminalOutput(), mColumns, mRows,
+            TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, new TerminalEmulatorBenchmark.SilentTerminalSessionClient());
+    }
+
+    /** Record the workloads as the chunks {@link TerminalSession} reads, with a resize between each workload. */
+    private static String recordWorkloads(int columns, int rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (AsciicastRecorder recorder = new AsciicastRecorder(out, columns, rows)) {
+            for (TerminalWorkload workload : TerminalWorkload.values()) {
+                byte[] bytes = workload.generate(columns, rows, TerminalEmulatorBenchmark.WORKLOAD_BYTES);
+                for (int offset = 0; offset < bytes.length; offset += TerminalEmulatorBenchmark.CHUNK_BYTES)
+                    recorder.recordOutput(bytes, offset, Math.min(TerminalEmulatorBenchmark.CHUNK_BYTES, bytes.length - offset));
+                recorder.recordResize(columns, rows);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TerminalEmulator replay() throws IOException, InterruptedException {
+        mEmulator.resize(mColumns, mRows);
+        new AsciicastPlayer(new StringReader(mRecording)).play(mEmulator, 0);
+        return mEmulator;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TerminalEmulator appendOutput() {
+        mEmulator.resize(mColumns, mRows);
+        for (Object event : mEvents) {
+            if (event instanceof byte[]) {
+                byte[] bytes = (byte[]) event;
+                mEmulator.append(bytes, bytes.length);
+            } else {
+                int[] size = (int[]) event;
+                mEmulator.resize(size[0], size[1]);
+            }
+        }
+        return mEmulator;
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transfer of bytes through a {@link ByteQueue} from a producer thread, which writes chunks like the
+ * thread reading from the pty in {@link TerminalSession} does, to the benchmark thread reading them.
+ */
+@State(Scope.Thread)
+public class ByteQueueBenchmark {
+
+    static final int TRANSFER_BYTES = 1024 * 1024;
+
+    @Param({"4096", "65536"})
+    public int capacity;
+
+    @Param({"4096"})
+    public int chunkBytes;
+
+    private ByteQueue mQueue;
+    private Thread mProducer;
+    private byte[] mReadBuffer;
+    private long mChecksum;
+    private final ByteQueue.Sink mSink = (buffer, offset, length) -> mChecksum += buffer[offset + length - 1];
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final ByteQueue queue = mQueue = new ByteQueue(capacity);
+        mReadBuffer = new byte[chunkBytes];
+        mProducer = new Thread(() -> {
+            byte[] chunk = new byte[chunkBytes];
+            while (queue.write(chunk, 0, chunk.length)) {
+                // Keep writing until the queue is closed.
+            }
+        });
+        mProducer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        mQueue.close();
+        mProducer.join();
+    }
+
+    /** Reports ns/byte. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(TRANSFER_BYTES)
+    public int transfer() {
+        int totalRead = 0;
+        while (totalRead < TRANSFER_BYTES)
+            totalRead += mQueue.read(mReadBuffer, true);
+        return totalRead;
+    }
+
+    /** Reports ns/byte when the bytes are consumed in place like {@link TerminalSession} parses them. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(TRANSFER_BYTES)
+    public long transferInPlace() {
+        int totalRead = 0;
+        while (totalRead < TRANSFER_BYTES)
+            totalRead += mQueue.read(mSink, chunkBytes, true);
+        return mChecksum;
+    }
+
+}
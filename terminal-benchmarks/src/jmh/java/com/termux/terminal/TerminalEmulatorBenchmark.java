@@ -0,0 +1,124 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TerminalEmulator#append(byte[], int)} for the workloads in {@link TerminalWorkload}.
+ *
+ * - {@link #throughput} reports the number of bytes parsed per second in its {@code bytes} and
+ *   {@code megabytes} secondary results.
+ * - {@link #timePerByte} reports ns/byte, and with the gc profiler enabled its
+ *   {@code gc.alloc.rate.norm} result is the number of bytes allocated per input byte.
+ */
+@State(Scope.Thread)
+public class TerminalEmulatorBenchmark {
+
+    static final int WORKLOAD_BYTES = 256 * 1024;
+    /** The size of the chunks {@link TerminalSession} passes to the emulator. */
+    static final int CHUNK_BYTES = 4096;
+
+    @Param({"ASCII_LOG_FLOOD", "SGR_LS_COLOR", "CJK_EMOJI", "SCROLL_REGION", "FULL_SCREEN_REPAINT"})
+    public TerminalWorkload workload;
+
+    @Param({"120"})
+    public int columns;
+
+    @Param({"40"})
+    public int rows;
+
+    private TerminalEmulator mEmulator;
+    private byte[][] mChunks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mEmulator = new TerminalEmulator(new DiscardingTerminalOutput(), columns, rows,
+            TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, new SilentTerminalSessionClient());
+
+        byte[] bytes = workload.generate(columns, rows, WORKLOAD_BYTES);
+        mChunks = new byte[WORKLOAD_BYTES / CHUNK_BYTES][];
+        for (int i = 0; i < mChunks.length; i++) {
+            mChunks[i] = new byte[CHUNK_BYTES];
+            System.arraycopy(bytes, i * CHUNK_BYTES, mChunks[i], 0, CHUNK_BYTES);
+        }
+    }
+
+    private void appendWorkload() {
+        for (byte[] chunk : mChunks)
+            mEmulator.append(chunk, chunk.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public TerminalEmulator throughput(ByteCounter counter) {
+        appendWorkload();
+        counter.bytes += WORKLOAD_BYTES;
+        counter.megabytes += WORKLOAD_BYTES / (1024d * 1024d);
+        return mEmulator;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(WORKLOAD_BYTES)
+    public TerminalEmulator timePerByte() {
+        appendWorkload();
+        return mEmulator;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounter {
+        public long bytes;
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            megabytes = 0;
+        }
+    }
+
+    static final class DiscardingTerminalOutput extends TerminalOutput {
+        @Override public void write(byte[] data, int offset, int count) {}
+        @Override public void titleChanged(String oldTitle, String newTitle) {}
+        @Override public void onCopyTextToClipboard(String text) {}
+        @Override public void onPasteTextFromClipboard() {}
+        @Override public void onBell() {}
+        @Override public void onColorsChanged() {}
+    }
+
+    /** A non-null client so that the emulator does not log through {@code android.util.Log}. */
+    static final class SilentTerminalSessionClient implements TerminalSessionClient {
+        @Override public void onTextChanged(TerminalSession changedSession) {}
+        @Override public void onTitleChanged(TerminalSession changedSession) {}
+        @Override public void onSessionFinished(TerminalSession finishedSession) {}
+        @Override public void onCopyTextToClipboard(TerminalSession session, String text) {}
+        @Override public void onPasteTextFromClipboard(TerminalSession session) {}
+        @Override public void onBell(TerminalSession session) {}
+        @Override public void onColorsChanged(TerminalSession session) {}
+        @Override public void onTerminalCursorStateChange(boolean state) {}
+        @Override public void setTerminalShellPid(TerminalSession session, int pid) {}
+        @Override public Integer getTerminalCursorStyle() { return null; }
+        @Override public void logError(String tag, String message) {}
+        @Override public void logWarn(String tag, String message) {}
+        @Override public void logInfo(String tag, String message) {}
+        @Override public void logDebug(String tag, String message) {}
+        @Override public void logVerbose(String tag, String message) {}
+        @Override public void logStackTraceWithMessage(String tag, String message, Exception e) {}
+        @Override public void logStackTrace(String tag, Exception e) {}
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a {@link TerminalSearch} through a full transcript of {@link TerminalWorkload#ASCII_LOG_FLOOD} server logs,
+ * for a query which only matches a single row at the top of the transcript.
+ */
+@State(Scope.Thread)
+public class TerminalSearchBenchmark {
+
+    @Param({"false", "true"})
+    public boolean regex;
+
+    private TerminalEmulator mEmulator;
+    private TerminalSearch mSearch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int columns = 120, rows = 40;
+        mEmulator = new TerminalEmulator(new TerminalEmulatorBenchmark.DiscardingTerminalOutput(), columns, rows,
+            TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX, new TerminalEmulatorBenchmark.SilentTerminalSessionClient());
+
+        byte[] error = "[JioTV Go] 2024/05/01 00:00:00 ERROR upstream connect timeout\r\n".getBytes(StandardCharsets.UTF_8);
+        mEmulator.append(error, error.length);
+        byte[] logs = TerminalWorkload.ASCII_LOG_FLOOD.generate(columns, rows, 1024 * 1024);
+        while (mEmulator.getScreen().getActiveTranscriptRows() < TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX - rows - 1)
+            mEmulator.append(logs, logs.length);
+
+        mSearch = new TerminalSearch(regex ? "ERROR .*timeout" : "upstream connect", regex, false);
+    }
+
+    /** Reports the time to search backward from the bottom of the screen to the top of the transcript. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean findPrevious() {
+        return mSearch.find(mEmulator.getScreen(), Integer.MAX_VALUE, 0, false);
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Synthetic but realistic terminal output streams used by the benchmarks. Every workload is
+ * generated from a fixed seed so that runs are comparable, and is padded with NUL bytes (which the
+ * emulator ignores) to exactly the requested size so that results can be normalized per byte.
+ */
+public enum TerminalWorkload {
+
+    /** Plain log lines like the ones printed by the jiotv_go server. */
+    ASCII_LOG_FLOOD {
+        @Override
+        void write(Output out, Random random, int columns, int rows) {
+            String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN"};
+            String[] paths = {"/live/%d.m3u8", "/live/%d/segment_%05d.ts", "/epg/%d/0", "/render.m3u8?auth=%d&seg=%05d"};
+            while (!out.isFull()) {
+                String path = String.format(paths[random.nextInt(paths.length)], 100 + random.nextInt(900), random.nextInt(100000));
+                out.print(String.format("[JioTV Go] 2024/05/%02d %02d:%02d:%02d %s %s %s %d %.3fms 192.168.%d.%d\r\n",
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+                    levels[random.nextInt(levels.length)], random.nextBoolean() ? "GET" : "HEAD", path,
+                    random.nextInt(10) == 0 ? 404 : 200, random.nextDouble() * 100, random.nextInt(256), random.nextInt(256)));
+            }
+        }
+    },
+
+    /** SGR heavy output like `ls --color=always` in a directory of mixed file types. */
+    SGR_LS_COLOR {
+        @Override
+        void write(Output out, Random random, int columns, int rows) {
+            String[] colors = {"01;34", "01;32", "01;36", "00", "01;31", "01;35", "40;33;01", "38;5;208", "38;2;255;128;0"};
+            String[] names = {"bin", "build.gradle", "lib", "jiotv_go", "README.md", "libtermux.so", "usr", "tmp", "archive.tar.gz", "icon.png"};
+            while (!out.isFull()) {
+                int column = 0;
+                while (true) {
+                    String name = names[random.nextInt(names.length)] + random.nextInt(100);
+                    if (column + name.length() + 2 > columns) break;
+                    out.print("\033[0m\033[" + colors[random.nextInt(colors.length)] + "m" + name + "\033[0m  ");
+                    column += name.length() + 2;
+                }
+                out.print("\r\n");
+            }
+        }
+    },
+
+    /** Wide east asian characters, combining characters and emoji outside the BMP. */
+    CJK_EMOJI {
+        @Override
+        void write(Output out, Random random, int columns, int rows) {
+            String[] words = {"电视节目", "チャンネル", "한국어", "हिन्दी", "தமிழ்", "📺", "🇮🇳", "é", "ASCII", "👍🏽"};
+            while (!out.isFull()) {
+                StringBuilder line = new StringBuilder();
+                int wordCount = 4 + random.nextInt(8);
+                for (int i = 0; i < wordCount; i++)
+                    line.append(words[random.nextInt(words.length)]).append(' ');
+                out.print(line.append("\r\n").toString());
+            }
+        }
+    },
+
+    /** Scrolling inside a scroll region with a fixed status line, like vim or htop do. */
+    SCROLL_REGION {
+        @Override
+        void write(Output out, Random random, int columns, int rows) {
+            out.print("\033[H\033[2J\033[2;" + (rows - 1) + "r");
+            int line = 0;
+            while (!out.isFull()) {
+                // Scroll the region up with linefeeds at its bottom, and sometimes down with reverse index at its top.
+                if (random.nextInt(8) == 0) {
+                    out.print("\033[2;1H\033M\033[33m" + line + "\033[0m ~");
+                } else {
+                    out.print("\033[" + (rows - 1) + ";1H\n\033[33m" + String.format("%5d", line) + "\033[0m ");
+                    out.print(randomText(random, columns - 8));
+                }
+                out.print("\033[" + rows + ";1H\033[7m-- INSERT -- line " + line + "\033[K\033[0m");
+                line++;
+            }
+            out.print("\033[r");
+        }
+    },
+
+    /** Cursor addressed repaints of the whole screen with changing colors, like a full screen TUI does. */
+    FULL_SCREEN_REPAINT {
+        @Override
+        void write(Output out, Random random, int columns, int rows) {
+            while (!out.isFull()) {
+                out.print("\033[?25l\033[H");
+                for (int row = 1; row <= rows; row++) {
+                    out.print("\033[" + row + ";1H\033[" + (30 + random.nextInt(8)) + ";" + (40 + random.nextInt(8)) + "m");
+                    out.print(randomText(random, columns / 2));
+                    out.print("\033[1;38;5;" + random.nextInt(256) + "m");
+                    out.print(randomText(random, columns / 4));
+                    out.print("\033[0m\033[K");
+                }
+                out.print("\033[?25h");
+            }
+        }
+    };
+
+    abstract void write(Output out, Random random, int columns, int rows);
+
+    /** Generate exactly {@code size} bytes of this workload for a terminal of the given size. */
+    public byte[] generate(int columns, int rows, int size) {
+        Output out = new Output(size);
+        write(out, new Random(42), columns, rows);
+        return out.toByteArray();
+    }
+
+    static String randomText(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            int value = random.nextInt(40);
+            text[i] = value < 26 ? (char) ('a' + value) : value < 36 ? (char) ('0' + value - 26) : ' ';
+        }
+        return new String(text);
+    }
+
+    static final class Output {
+        private final int mSize;
+        private final ByteArrayOutputStream mBytes;
+
+        Output(int size) {
+            mSize = size;
+            mBytes = new ByteArrayOutputStream(size + 1024);
+        }
+
+        boolean isFull() {
+            return mBytes.size() >= mSize;
+        }
+
+        void print(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            mBytes.write(bytes, 0, bytes.length);
+        }
+
+        /** Truncate at the last complete line, or escape sequence, and pad with NUL to the exact size. */
+        byte[] toByteArray() {
+            byte[] bytes = mBytes.toByteArray();
+            int end = Math.min(bytes.length, mSize);
+            if (end < bytes.length) {
+                while (end > 0 && bytes[end - 1] != '\n' && bytes[end - 1] != 'm' && bytes[end - 1] != 'K') end--;
+            }
+            byte[] result = new byte[mSize];
+            System.arraycopy(bytes, 0, result, 0, end);
+            return result;
+        }
+    }
+
+}
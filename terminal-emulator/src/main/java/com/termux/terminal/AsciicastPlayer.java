@@ -0,0 +1,259 @@
+package com.termux.terminal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replays a recording in the asciicast v2 format, as written by an {@link AsciicastRecorder} or by asciinema, into a
+ * {@link TerminalEmulator}, either with the timing of the recording or as fast as possible.
+ * <p>
+ * Only the parts of the format needed for replaying are parsed: the width and height of the header, and the time, type
+ * and data of each event. Output events of type "o" are appended to the emulator and resize events of type "r" resize
+ * it, while other events, like input, are skipped by {@link #play(TerminalEmulator, double)}.
+ */
+public final class AsciicastPlayer {
+
+    private final BufferedReader mReader;
+    private final int mColumns;
+    private final int mRows;
+
+    private String mLine;
+    /** The position in {@link #mLine} being parsed. */
+    private int mPosition;
+    private final StringBuilder mStringBuilder = new StringBuilder();
+
+    private double mEventTime;
+    private String mEventType;
+    private String mEventData;
+
+    /** Start replaying a recording, reading its header. */
+    public AsciicastPlayer(Reader reader) throws IOException {
+        mReader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+        mLine = mReader.readLine();
+        if (mLine == null) throw new IOException("Missing asciicast header");
+
+        int columns = -1, rows = -1, version = -1;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                final String key = readString();
+                expect(':');
+                switch (key) {
+                    case "version":
+                        version = (int) readNumber();
+                        break;
+                    case "width":
+                        columns = (int) readNumber();
+                        break;
+                    case "height":
+                        rows = (int) readNumber();
+                        break;
+                    default:
+                        skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        if (version != 2) throw new IOException("Unsupported asciicast version: " + version);
+        if (columns < 1 || rows < 1) throw new IOException("Invalid asciicast size: " + columns + "x" + rows);
+        mColumns = columns;
+        mRows = rows;
+    }
+
+    /** The number of columns of the terminal at the start of the recording. */
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /** The number of rows of the terminal at the start of the recording. */
+    public int getRows() {
+        return mRows;
+    }
+
+    /** Read the next event, returning false at the end of the recording. */
+    public boolean nextEvent() throws IOException {
+        do {
+            mLine = mReader.readLine();
+            if (mLine == null) return false;
+            mPosition = 0;
+            skipWhitespace();
+        } while (mPosition == mLine.length());
+
+        expect('[');
+        mEventTime = readNumber();
+        expect(',');
+        mEventType = readString();
+        expect(',');
+        mEventData = readString();
+        expect(']');
+        return true;
+    }
+
+    /** The time of the current event in seconds since the start of the recording. */
+    public double getEventTime() {
+        return mEventTime;
+    }
+
+    /** The type of the current event, like "o" for output and "r" for resize. */
+    public String getEventType() {
+        return mEventType;
+    }
+
+    /** The data of the current event, like the output text or the "COLSxROWS" size to resize to. */
+    public String getEventData() {
+        return mEventData;
+    }
+
+    /** Apply the current event to an emulator, returning false if it is not an output or resize event. */
+    public boolean applyEvent(TerminalEmulator emulator) throws IOException {
+        switch (mEventType) {
+            case "o":
+                final byte[] bytes = mEventData.getBytes(StandardCharsets.UTF_8);
+                synchronized (emulator) {
+                    emulator.append(bytes, bytes.length);
+                }
+                return true;
+            case "r":
+                final int separator = mEventData.indexOf('x');
+                try {
+                    final int columns = Integer.parseInt(mEventData.substring(0, separator));
+                    final int rows = Integer.parseInt(mEventData.substring(separator + 1));
+                    synchronized (emulator) {
+                        emulator.resize(columns, rows);
+                    }
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    throw new IOException("Invalid asciicast resize: " + mEventData);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Apply the remaining events to an emulator, which should have the size of {@link #getColumns()} and
+     * {@link #getRows()} at the start of the recording.
+     *
+     * @param speed how many times faster than recorded to replay the events, or 0 to replay them as fast as possible.
+     */
+    public void play(TerminalEmulator emulator, double speed) throws IOException, InterruptedException {
+        final long startNanos = System.nanoTime();
+        while (nextEvent()) {
+            if (speed > 0) {
+                final long delayMillis = ((long) (mEventTime / speed * 1_000_000_000L) - (System.nanoTime() - startNanos)) / 1_000_000;
+                if (delayMillis > 0) Thread.sleep(delayMillis);
+            }
+            applyEvent(emulator);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mLine.length() && Character.isWhitespace(mLine.charAt(mPosition))) mPosition++;
+    }
+
+    /** Skip whitespace and the specified char if it follows, returning if it did. */
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (mPosition < mLine.length() && mLine.charAt(mPosition) == c) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws IOException {
+        if (!consume(c)) throw syntaxError("'" + c + "'");
+    }
+
+    private IOException syntaxError(String expected) {
+        return new IOException("Invalid asciicast line, expected " + expected + " at " + mPosition + ": " + mLine);
+    }
+
+    private double readNumber() throws IOException {
+        skipWhitespace();
+        final int start = mPosition;
+        while (mPosition < mLine.length() && "+-.0123456789eE".indexOf(mLine.charAt(mPosition)) != -1) mPosition++;
+        try {
+            return Double.parseDouble(mLine.substring(start, mPosition));
+        } catch (NumberFormatException e) {
+            mPosition = start;
+            throw syntaxError("number");
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        final StringBuilder builder = mStringBuilder;
+        builder.setLength(0);
+        final String line = mLine;
+        while (true) {
+            int start = mPosition;
+            while (mPosition < line.length() && line.charAt(mPosition) != '"' && line.charAt(mPosition) != '\\') mPosition++;
+            builder.append(line, start, mPosition);
+            if (mPosition == line.length()) throw syntaxError("'\"'");
+            if (line.charAt(mPosition++) == '"') return builder.toString();
+
+            if (mPosition == line.length()) throw syntaxError("escape");
+            final char escaped = line.charAt(mPosition++);
+            switch (escaped) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    try {
+                        builder.append((char) Integer.parseInt(line.substring(mPosition, mPosition + 4), 16));
+                    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                        throw syntaxError("unicode escape");
+                    }
+                    mPosition += 4;
+                    break;
+                default:
+                    // Quote, backslash and slash:
+                    builder.append(escaped);
+            }
+        }
+    }
+
+    /** Skip a value of any type in the header. */
+    private void skipValue() throws IOException {
+        skipWhitespace();
+        if (mPosition == mLine.length()) throw syntaxError("value");
+        final char c = mLine.charAt(mPosition);
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            final char end = (c == '{') ? '}' : ']';
+            mPosition++;
+            if (consume(end)) return;
+            do {
+                if (c == '{') {
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+            } while (consume(','));
+            expect(end);
+        } else if (mLine.startsWith("true", mPosition) || mLine.startsWith("null", mPosition)) {
+            mPosition += 4;
+        } else if (mLine.startsWith("false", mPosition)) {
+            mPosition += 5;
+        } else {
+            readNumber();
+        }
+    }
+
+}
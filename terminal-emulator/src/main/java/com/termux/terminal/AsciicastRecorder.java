@@ -0,0 +1,152 @@
+package com.termux.terminal;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records the output of a terminal session with timestamps in the asciicast v2 format of asciinema, see
+ * https://docs.asciinema.org/manual/asciicast/v2/, which can be replayed by an {@link AsciicastPlayer}.
+ * <p>
+ * The recording starts with a header line with the size of the terminal, followed by a line for each chunk of output
+ * and each resize, like {@code [1.234567, "o", "text"]} and {@code [2.5, "r", "80x24"]}. The output is decoded as UTF-8,
+ * where a sequence split between chunks is kept until the next chunk, and invalid bytes are recorded as U+FFFD.
+ * <p>
+ * Lines are buffered and flushed at most once a second, so that recording heavy output does not need a write for each
+ * chunk, and on {@link #close()}. The methods may be called from different threads.
+ */
+public final class AsciicastRecorder implements Closeable {
+
+    /** The maximum time between flushes of the recorded lines. */
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final Writer mWriter;
+    private final long mStartNanos;
+    private long mLastFlushNanos;
+    private boolean mClosed;
+
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** The output to decode, which keeps the start of a UTF-8 sequence split between chunks. */
+    private final ByteBuffer mDecoderInput = ByteBuffer.allocate(4096);
+    private final CharBuffer mDecoderOutput = CharBuffer.allocate(4096);
+
+    /**
+     * Start a recording of a terminal with the specified size.
+     *
+     * @param out     the stream to write the recording to, which is closed by {@link #close()}.
+     * @param columns the number of columns of the terminal.
+     * @param rows    the number of rows of the terminal.
+     */
+    public AsciicastRecorder(OutputStream out, int columns, int rows) throws IOException {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+        mStartNanos = mLastFlushNanos = System.nanoTime();
+        mWriter.write("{\"version\": 2, \"width\": " + columns + ", \"height\": " + rows
+            + ", \"timestamp\": " + System.currentTimeMillis() / 1000 + ", \"env\": {\"TERM\": \"xterm-256color\"}}\n");
+        mWriter.flush();
+    }
+
+    /** Record output of the process as it is passed to the terminal. */
+    public synchronized void recordOutput(byte[] data, int offset, int length) throws IOException {
+        if (mClosed) return;
+        final long nanos = System.nanoTime();
+        startEvent(nanos, 'o');
+        while (length > 0) {
+            final int bytesToDecode = Math.min(length, mDecoderInput.remaining());
+            mDecoderInput.put(data, offset, bytesToDecode);
+            offset += bytesToDecode;
+            length -= bytesToDecode;
+
+            mDecoderInput.flip();
+            mDecoder.decode(mDecoderInput, mDecoderOutput, false);
+            // An incomplete sequence at the end is left in the input until more bytes are put after it:
+            mDecoderInput.compact();
+            mDecoderOutput.flip();
+            writeEscaped(mDecoderOutput);
+            mDecoderOutput.clear();
+        }
+        endEvent(nanos);
+    }
+
+    /** Record that the terminal has been resized. */
+    public synchronized void recordResize(int columns, int rows) throws IOException {
+        if (mClosed) return;
+        final long nanos = System.nanoTime();
+        startEvent(nanos, 'r');
+        mWriter.write(columns + "x" + rows);
+        endEvent(nanos);
+    }
+
+    /** Flush the recorded lines and close the stream. Lines recorded after this are ignored. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        mWriter.close();
+    }
+
+    /** Write the start of an event line up to the opening quote of its data. */
+    private void startEvent(long nanos, char type) throws IOException {
+        final long micros = (nanos - mStartNanos) / 1000;
+        final String fraction = Long.toString(1_000_000 + micros % 1_000_000);
+        mWriter.write('[');
+        mWriter.write(Long.toString(micros / 1_000_000));
+        mWriter.write('.');
+        mWriter.write(fraction, 1, 6);
+        mWriter.write(", \"");
+        mWriter.write(type);
+        mWriter.write("\", \"");
+    }
+
+    private void endEvent(long nanos) throws IOException {
+        mWriter.write("\"]\n");
+        if (nanos - mLastFlushNanos >= FLUSH_INTERVAL_NANOS) {
+            mWriter.flush();
+            mLastFlushNanos = nanos;
+        }
+    }
+
+    /** Write chars as the contents of a JSON string. */
+    private void writeEscaped(CharBuffer chars) throws IOException {
+        final char[] text = chars.array();
+        final int end = chars.limit();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            final char c = text[i];
+            if (c >= ' ' && c != '"' && c != '\\') continue;
+            mWriter.write(text, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    mWriter.write("\\\"");
+                    break;
+                case '\\':
+                    mWriter.write("\\\\");
+                    break;
+                case '\n':
+                    mWriter.write("\\n");
+                    break;
+                case '\r':
+                    mWriter.write("\\r");
+                    break;
+                case '\t':
+                    mWriter.write("\\t");
+                    break;
+                default:
+                    mWriter.write("\\u00");
+                    mWriter.write(Character.forDigit(c >> 4, 16));
+                    mWriter.write(Character.forDigit(c & 0xF, 16));
+            }
+        }
+        mWriter.write(text, start, end - start);
+    }
+
+}
@@ -1,58 +1,107 @@
 package com.termux.terminal;
 
-/** A circular byte buffer allowing one producer and one consumer thread. */
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A circular byte buffer allowing one producer and one consumer thread.
+ * <p/>
+ * The buffer is lock-free: the producer only advances {@link #mTail} and the consumer only advances {@link #mHead}, so
+ * that neither has to acquire a monitor to transfer bytes. A thread which has to wait for the other one parks itself
+ * after publishing itself in {@link #mWaitingReader} or {@link #mWaitingWriter}, and is unparked by the other thread
+ * once it has made progress.
+ * <p/>
+ * Besides copying bytes in and out, the producer may let a {@link Source} fill the buffer in place, and the consumer
+ * may let a {@link Sink} consume the buffer in place, so that bytes only have to be copied once on their way through.
+ */
 final class ByteQueue {
 
     private final byte[] mBuffer;
-    private int mHead;
-    private int mStoredBytes;
-    private boolean mOpen = true;
+    /** The total number of bytes read, only written by the consumer. */
+    private volatile long mHead;
+    /** The total number of bytes written, only written by the producer. */
+    private volatile long mTail;
+    private volatile boolean mOpen = true;
+    /** If the producer has written its last bytes, see {@link #finish()}. */
+    private volatile boolean mFinished;
+    /** The consumer if it is waiting for bytes to be written, or null. */
+    private volatile Thread mWaitingReader;
+    /** The producer if it is waiting for bytes to be read, or null. */
+    private volatile Thread mWaitingWriter;
 
     public ByteQueue(int size) {
         mBuffer = new byte[size];
     }
 
-    public synchronized void close() {
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    public void close() {
         mOpen = false;
-        notify();
+        LockSupport.unpark(mWaitingReader);
+        LockSupport.unpark(mWaitingWriter);
     }
 
-    public synchronized int read(byte[] buffer, boolean block) {
-        while (mStoredBytes == 0 && mOpen) {
-            if (block) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    // Ignore.
-                }
-            } else {
-                return 0;
-            }
-        }
-        if (!mOpen) return -1;
-
-        int totalRead = 0;
-        int bufferLength = mBuffer.length;
-        boolean wasFull = bufferLength == mStoredBytes;
-        int length = buffer.length;
-        int offset = 0;
-        while (length > 0 && mStoredBytes > 0) {
-            int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
-            int bytesToCopy = Math.min(length, oneRun);
-            System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
-            mHead += bytesToCopy;
-            if (mHead >= bufferLength) mHead = 0;
-            mStoredBytes -= bytesToCopy;
-            length -= bytesToCopy;
-            offset += bytesToCopy;
-            totalRead += bytesToCopy;
-        }
-        if (wasFull) notify();
-        return totalRead;
+    /**
+     * Let the consumer know that the producer has written its last bytes. Unlike after {@link #close()}, the consumer
+     * still reads the bytes written before, and only then is the queue closed for it.
+     */
+    public void finish() {
+        mFinished = true;
+        LockSupport.unpark(mWaitingReader);
+    }
+
+    public int read(byte[] buffer, boolean block) {
+        return read(buffer, 0, buffer.length, block);
+    }
+
+    /**
+     * Read up to length bytes into a buffer starting at an offset.
+     * <p/>
+     * Returns the number of bytes read, 0 if the queue is empty and not blocking, or -1 if the queue has been closed or
+     * finished and read to the end.
+     */
+    public int read(byte[] buffer, int offset, int length, boolean block) {
+        final long head = mHead;
+        final long tail = awaitReadable(head, block);
+        if (tail < 0) return -1;
+
+        final int bufferLength = mBuffer.length;
+        final int bytesToRead = (int) Math.min(length, tail - head);
+        if (bytesToRead == 0) return 0;
+        final int start = (int) (head % bufferLength);
+        final int firstRun = Math.min(bytesToRead, bufferLength - start);
+        System.arraycopy(mBuffer, start, buffer, offset, firstRun);
+        if (firstRun < bytesToRead) System.arraycopy(mBuffer, 0, buffer, offset + firstRun, bytesToRead - firstRun);
+        advanceHead(head + bytesToRead);
+        return bytesToRead;
+    }
+
+    /**
+     * Pass up to length bytes to a sink without copying them out of the queue. The sink is called with at most two runs
+     * of the buffer of the queue, which the producer does not overwrite until the sink has returned.
+     * <p/>
+     * Returns the number of bytes read, 0 if the queue is empty and not blocking, or -1 if the queue has been closed or
+     * finished and read to the end.
+     */
+    public int read(Sink sink, int length, boolean block) {
+        final long head = mHead;
+        final long tail = awaitReadable(head, block);
+        if (tail < 0) return -1;
+
+        final int bufferLength = mBuffer.length;
+        final int bytesToRead = (int) Math.min(length, tail - head);
+        if (bytesToRead == 0) return 0;
+        final int start = (int) (head % bufferLength);
+        final int firstRun = Math.min(bytesToRead, bufferLength - start);
+        sink.accept(mBuffer, start, firstRun);
+        if (firstRun < bytesToRead) sink.accept(mBuffer, 0, bytesToRead - firstRun);
+        advanceHead(head + bytesToRead);
+        return bytesToRead;
     }
 
     /**
-     * Attempt to write the specified portion of the provided buffer to the queue.
+     * Attempt to write the specified portion of the provided buffer to the queue, blocking while the queue is full.
      * <p/>
      * Returns whether the output was totally written, false if it was closed before.
      */
@@ -64,45 +113,101 @@ final class ByteQueue {
         }
 
         final int bufferLength = mBuffer.length;
+        long tail = mTail;
+        while (lengthToWrite > 0) {
+            final long head = awaitWritable(tail);
+            if (head < 0) return false;
 
-        synchronized (this) {
-            while (lengthToWrite > 0) {
-                while (bufferLength == mStoredBytes && mOpen) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        // Ignore.
-                    }
-                }
-                if (!mOpen) return false;
-                final boolean wasEmpty = mStoredBytes == 0;
-                int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
-                lengthToWrite -= bytesToWriteBeforeWaiting;
-
-                while (bytesToWriteBeforeWaiting > 0) {
-                    int tail = mHead + mStoredBytes;
-                    int oneRun;
-                    if (tail >= bufferLength) {
-                        // Buffer: [.............]
-                        // ________________H_______T
-                        // =>
-                        // Buffer: [.............]
-                        // ___________T____H
-                        // onRun= _____----_
-                        tail = tail - bufferLength;
-                        oneRun = mHead - tail;
-                    } else {
-                        oneRun = bufferLength - tail;
-                    }
-                    int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
-                    System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
-                    offset += bytesToCopy;
-                    bytesToWriteBeforeWaiting -= bytesToCopy;
-                    mStoredBytes += bytesToCopy;
-                }
-                if (wasEmpty) notify();
-            }
+            final int bytesToWrite = (int) Math.min(lengthToWrite, bufferLength - (tail - head));
+            final int start = (int) (tail % bufferLength);
+            final int firstRun = Math.min(bytesToWrite, bufferLength - start);
+            System.arraycopy(buffer, offset, mBuffer, start, firstRun);
+            if (firstRun < bytesToWrite) System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToWrite - firstRun);
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
+            tail += bytesToWrite;
+            advanceTail(tail);
         }
         return true;
     }
+
+    /**
+     * Let a source write up to length bytes directly into the free space of the queue, blocking while the queue is full.
+     * The source is called once with a single run of the buffer of the queue, so it may write less than length bytes
+     * when the free space wraps around.
+     * <p/>
+     * Returns the number of bytes written, or -1 if the queue has been closed or the source has reached its end.
+     */
+    public int write(Source source, int length) {
+        if (length <= 0) throw new IllegalArgumentException("length <= 0");
+
+        final long tail = mTail;
+        final long head = awaitWritable(tail);
+        if (head < 0) return -1;
+
+        final int bufferLength = mBuffer.length;
+        final int start = (int) (tail % bufferLength);
+        final int bytesToWrite = (int) Math.min(Math.min(length, bufferLength - (tail - head)), bufferLength - start);
+        final int bytesWritten = source.read(mBuffer, start, bytesToWrite);
+        if (bytesWritten <= 0) return -1;
+        advanceTail(tail + bytesWritten);
+        return bytesWritten;
+    }
+
+    /**
+     * Wait until there are bytes after head, and return the tail, or -1 if the queue has been closed or finished without
+     * bytes after head.
+     */
+    private long awaitReadable(long head, boolean block) {
+        while (mOpen) {
+            // Read the tail after the finished flag, so that the last bytes written before finishing are seen:
+            final boolean finished = mFinished;
+            final long tail = mTail;
+            if (tail != head) return tail;
+            if (finished) return -1;
+            if (!block) return tail;
+            mWaitingReader = Thread.currentThread();
+            // Check again after publishing the waiting reader, since the producer may not have seen it:
+            if (mTail == head && mOpen && !mFinished) LockSupport.park(this);
+            mWaitingReader = null;
+        }
+        return -1;
+    }
+
+    /** Wait until there is free space after tail, and return the head, or -1 if the queue has been closed. */
+    private long awaitWritable(long tail) {
+        final int bufferLength = mBuffer.length;
+        long head = mHead;
+        while (tail - head == bufferLength && mOpen) {
+            mWaitingWriter = Thread.currentThread();
+            // Check again after publishing the waiting writer, since the consumer may not have seen it:
+            if (tail - mHead == bufferLength && mOpen) LockSupport.park(this);
+            mWaitingWriter = null;
+            head = mHead;
+        }
+        return mOpen ? head : -1;
+    }
+
+    private void advanceHead(long head) {
+        mHead = head;
+        Thread waitingWriter = mWaitingWriter;
+        if (waitingWriter != null) LockSupport.unpark(waitingWriter);
+    }
+
+    private void advanceTail(long tail) {
+        mTail = tail;
+        Thread waitingReader = mWaitingReader;
+        if (waitingReader != null) LockSupport.unpark(waitingReader);
+    }
+
+    /** Consumes bytes in place in the buffer of a {@link ByteQueue}. */
+    interface Sink {
+        void accept(byte[] buffer, int offset, int length);
+    }
+
+    /** Produces bytes in place in the buffer of a {@link ByteQueue}. */
+    interface Source {
+        /** Write up to length bytes into a buffer starting at an offset, and return the number written, or -1 at the end. */
+        int read(byte[] buffer, int offset, int length);
+    }
 }
@@ -0,0 +1,268 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The compact contents of a {@link TerminalRow} which has scrolled into the transcript, which are not modified while
+ * the row is in the transcript. See {@link TerminalRow#freeze()}. Once the row has been dropped from the transcript, it
+ * is reused for a row which scrolls into the transcript, see {@link #set(TerminalRow)}.
+ * <p>
+ * Trailing spaces are not stored, the text is stored as latin-1 bytes when possible and the styles
+ * are run-length encoded, since most rows only have a few runs of cells with the same style.
+ * <p>
+ * A signature of the pairs of adjacent chars in the text is kept, with which a {@link TerminalSearch} skips rows
+ * which cannot contain a match without reading their text.
+ * <p>
+ * A frozen row can be written to and read back from a {@link ByteBuffer}, which is how a {@link TranscriptSpill}
+ * keeps rows on disk, see {@link #writeTo(ByteBuffer, boolean)}.
+ */
+final class FrozenTerminalRow {
+
+    private static final byte[] NO_TEXT = new byte[0];
+
+    /** The layout of a row written by {@link #writeTo(ByteBuffer, boolean)}, which is followed by the text and the runs. */
+    private static final int SIGNATURE_LOW_OFFSET = 0, SIGNATURE_HIGH_OFFSET = 8, COLUMNS_OFFSET = 16,
+        SPACE_USED_OFFSET = 18, FLAGS_OFFSET = 20, TEXT_LENGTH_OFFSET = 21, RUN_COUNT_OFFSET = 23, HEADER_SIZE = 25;
+    private static final int FLAG_LINE_WRAP = 1, FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS = 2, FLAG_LATIN1 = 4;
+
+    /** The number of columns of the row. */
+    private int mColumns;
+    /** The number of java chars used by the text of the row, including trailing spaces. */
+    private short mSpaceUsed;
+    /** See {@link TerminalRow#mHasNonOneWidthOrSurrogateChars}. */
+    private boolean mHasNonOneWidthOrSurrogateChars;
+    /** The text without trailing spaces as latin-1 chars, or null if {@link #mText} is used. */
+    private byte[] mLatin1Text;
+    /** The text without trailing spaces if it contains chars outside of latin-1, or null. */
+    private char[] mText;
+    /** The number of chars of the text in {@link #mLatin1Text} or {@link #mText}, which may be longer if reused. */
+    private int mTextLength;
+    /** The style of each run of cells with the same style. See {@link TextStyle}. */
+    private long[] mRunStyles;
+    /** The column after the last cell of each run of {@link #mRunStyles}. */
+    private short[] mRunEnds;
+    /** The number of runs in {@link #mRunStyles}, which may be longer if reused. */
+    private int mRunCount;
+    /** The low and high half of the bigram signature of the text, see {@link TerminalSearch#bigramBit(char, char)}. */
+    private long mSignatureLow, mSignatureHigh;
+
+    FrozenTerminalRow(TerminalRow row) {
+        set(row);
+    }
+
+    /**
+     * Set the contents to those of a row, reusing the arrays of this row where they are large enough. This must only be
+     * done for a row which is no longer used, as one which has been dropped from the transcript.
+     */
+    void set(TerminalRow row) {
+        final char[] text = row.mText;
+        mColumns = row.getColumns();
+        mSpaceUsed = (short) row.getSpaceUsed();
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+
+        int length = mSpaceUsed;
+        while (length > 0 && text[length - 1] == ' ') length--;
+
+        boolean latin1 = true;
+        for (int i = 0; i < length; i++) {
+            if (text[i] > 0xFF) {
+                latin1 = false;
+                break;
+            }
+        }
+        if (latin1) {
+            byte[] latin1Text = mLatin1Text;
+            if (latin1Text == null || latin1Text.length < length) latin1Text = (length == 0) ? NO_TEXT : new byte[length];
+            for (int i = 0; i < length; i++)
+                latin1Text[i] = (byte) text[i];
+            mLatin1Text = latin1Text;
+            mText = null;
+        } else {
+            if (mText == null || mText.length < length) mText = new char[length];
+            System.arraycopy(text, 0, mText, 0, length);
+            mLatin1Text = null;
+        }
+        mTextLength = length;
+
+        long signatureLow = 0, signatureHigh = 0;
+        for (int i = 1; i < length; i++) {
+            int bit = TerminalSearch.bigramBit(text[i - 1], text[i]);
+            if (bit < 64) signatureLow |= 1L << bit;
+            else signatureHigh |= 1L << bit;
+        }
+        mSignatureLow = signatureLow;
+        mSignatureHigh = signatureHigh;
+
+        int runs = 0;
+        for (int column = 0; column < mColumns; column = row.getStyleRunEnd(column)) runs++;
+        if (mRunStyles == null || mRunStyles.length < runs) {
+            mRunStyles = new long[runs];
+            mRunEnds = new short[runs];
+        }
+        mRunCount = runs;
+        for (int column = 0, run = 0; column < mColumns; run++) {
+            mRunStyles[run] = row.getStyle(column);
+            column = row.getStyleRunEnd(column);
+            mRunEnds[run] = (short) column;
+        }
+    }
+
+    /** Construct a row written by {@link #writeTo(ByteBuffer, boolean)} at the position of a buffer. */
+    private FrozenTerminalRow(ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int flags = buffer.get(start + FLAGS_OFFSET);
+        final int textLength = buffer.getShort(start + TEXT_LENGTH_OFFSET);
+        final int runs = buffer.getShort(start + RUN_COUNT_OFFSET);
+        mColumns = buffer.getShort(start + COLUMNS_OFFSET);
+        mSpaceUsed = buffer.getShort(start + SPACE_USED_OFFSET);
+        mHasNonOneWidthOrSurrogateChars = (flags & FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS) != 0;
+        mSignatureLow = buffer.getLong(start + SIGNATURE_LOW_OFFSET);
+        mSignatureHigh = buffer.getLong(start + SIGNATURE_HIGH_OFFSET);
+
+        buffer.position(start + HEADER_SIZE);
+        if ((flags & FLAG_LATIN1) != 0) {
+            mLatin1Text = (textLength == 0) ? NO_TEXT : new byte[textLength];
+            buffer.get(mLatin1Text);
+            mText = null;
+        } else {
+            mLatin1Text = null;
+            mText = new char[textLength];
+            buffer.asCharBuffer().get(mText);
+            buffer.position(buffer.position() + 2 * textLength);
+        }
+        mTextLength = textLength;
+        mRunCount = runs;
+        mRunStyles = new long[runs];
+        buffer.asLongBuffer().get(mRunStyles);
+        buffer.position(buffer.position() + 8 * runs);
+        mRunEnds = new short[runs];
+        buffer.asShortBuffer().get(mRunEnds);
+        buffer.position(buffer.position() + 2 * runs);
+    }
+
+    /**
+     * Read a row written by {@link #writeTo(ByteBuffer, boolean)} at the position of a buffer, and advance the
+     * position past it. The line wrap of the row is available through {@link #readLineWrap(ByteBuffer, int)}.
+     */
+    static FrozenTerminalRow readFrom(ByteBuffer buffer) {
+        return new FrozenTerminalRow(buffer);
+    }
+
+    /** The number of bytes {@link #writeTo(ByteBuffer, boolean)} writes. */
+    int getWrittenSize() {
+        final int textBytes = (mLatin1Text != null) ? mTextLength : 2 * mTextLength;
+        return HEADER_SIZE + textBytes + 10 * mRunCount;
+    }
+
+    /** Write the row and its line wrap at the position of a buffer, and advance the position past it. */
+    void writeTo(ByteBuffer buffer, boolean lineWrap) {
+        int flags = lineWrap ? FLAG_LINE_WRAP : 0;
+        if (mHasNonOneWidthOrSurrogateChars) flags |= FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS;
+        if (mLatin1Text != null) flags |= FLAG_LATIN1;
+
+        final int start = buffer.position();
+        buffer.putLong(start + SIGNATURE_LOW_OFFSET, mSignatureLow);
+        buffer.putLong(start + SIGNATURE_HIGH_OFFSET, mSignatureHigh);
+        buffer.putShort(start + COLUMNS_OFFSET, (short) mColumns);
+        buffer.putShort(start + SPACE_USED_OFFSET, mSpaceUsed);
+        buffer.put(start + FLAGS_OFFSET, (byte) flags);
+        buffer.putShort(start + TEXT_LENGTH_OFFSET, (short) mTextLength);
+        buffer.putShort(start + RUN_COUNT_OFFSET, (short) mRunCount);
+
+        buffer.position(start + HEADER_SIZE);
+        if (mLatin1Text != null) {
+            buffer.put(mLatin1Text, 0, mTextLength);
+        } else {
+            buffer.asCharBuffer().put(mText, 0, mTextLength);
+            buffer.position(buffer.position() + 2 * mTextLength);
+        }
+        buffer.asLongBuffer().put(mRunStyles, 0, mRunCount);
+        buffer.position(buffer.position() + 8 * mRunCount);
+        buffer.asShortBuffer().put(mRunEnds, 0, mRunCount);
+        buffer.position(buffer.position() + 2 * mRunCount);
+    }
+
+    /** The line wrap of a row written by {@link #writeTo(ByteBuffer, boolean)} at an index of a buffer. */
+    static boolean readLineWrap(ByteBuffer buffer, int index) {
+        return (buffer.get(index + FLAGS_OFFSET) & FLAG_LINE_WRAP) != 0;
+    }
+
+    /** The low and high bits of the bigram signature of a row written by {@link #writeTo(ByteBuffer, boolean)} at an index of a buffer. */
+    static long readSignatureLow(ByteBuffer buffer, int index) {
+        return buffer.getLong(index + SIGNATURE_LOW_OFFSET);
+    }
+
+    static long readSignatureHigh(ByteBuffer buffer, int index) {
+        return buffer.getLong(index + SIGNATURE_HIGH_OFFSET);
+    }
+
+    /** If a row written by {@link #writeTo(ByteBuffer, boolean)} at an index of a buffer only contains spaces. */
+    static boolean isBlank(ByteBuffer buffer, int index) {
+        return buffer.getShort(index + TEXT_LENGTH_OFFSET) == 0;
+    }
+
+    /** An estimate of the heap memory in bytes used by this row, see {@link TerminalRow#getMemoryUsage()}. */
+    long getMemoryUsage() {
+        long size = TerminalRow.OBJECT_SIZE + TerminalRow.getArraySize(mRunStyles.length, 8)
+            + TerminalRow.getArraySize(mRunEnds.length, 2);
+        if (mText != null) size += TerminalRow.getArraySize(mText.length, 2);
+        // The empty text is shared by all blank rows:
+        if (mLatin1Text != null && mLatin1Text != NO_TEXT) size += TerminalRow.getArraySize(mLatin1Text.length, 1);
+        return size;
+    }
+
+    int getColumns() {
+        return mColumns;
+    }
+
+    int getSpaceUsed() {
+        return mSpaceUsed;
+    }
+
+    boolean hasNonOneWidthOrSurrogateChars() {
+        return mHasNonOneWidthOrSurrogateChars;
+    }
+
+    /** The number of java chars used by the text of the row without trailing spaces. */
+    int getLengthWithoutTrailingSpaces() {
+        return mTextLength;
+    }
+
+    /** If the row only contains spaces, see {@link TerminalRow#isBlank()}. */
+    boolean isBlank() {
+        return mTextLength == 0;
+    }
+
+    /** The low and high bits of the bigram signature of the text, see {@link TerminalSearch#bigramBit(char, char)}. */
+    long getSignatureLow() {
+        return mSignatureLow;
+    }
+
+    long getSignatureHigh() {
+        return mSignatureHigh;
+    }
+
+    /** Copy the {@link #getSpaceUsed()} java chars of the text to the start of an array. */
+    void copyTextTo(char[] text) {
+        copyTextTo(text, 0);
+    }
+
+    /** Copy the {@link #getSpaceUsed()} java chars of the text to an array starting at an offset. */
+    void copyTextTo(char[] text, int offset) {
+        final int length = mTextLength;
+        if (mLatin1Text != null) {
+            for (int i = 0; i < length; i++)
+                text[offset + i] = (char) (mLatin1Text[i] & 0xFF);
+        } else {
+            System.arraycopy(mText, 0, text, offset, length);
+        }
+        Arrays.fill(text, offset + length, offset + mSpaceUsed, ' ');
+    }
+
+    /** Set the styles of a row with {@link #getColumns()} columns to the styles of this row. */
+    void copyStylesTo(TerminalRow row) {
+        row.setStyleRuns(mRunStyles, mRunEnds, mRunCount);
+    }
+
+}
@@ -35,6 +35,15 @@ final class JNI {
      */
     public static native int waitFor(int processId);
 
+    /**
+     * Read up to length bytes from a file descriptor directly into a buffer starting at an offset, without copying them
+     * through a native buffer. Blocks until bytes are available.
+     *
+     * @return the number of bytes read, or -1 at end of file or if the read failed, like with EIO on a pty master
+     * after all processes have closed the slave.
+     */
+    public static native int read(int fileDescriptor, byte[] buffer, int offset, int length);
+
     /** Close a file descriptor through the close(2) system call. */
     public static native void close(int fileDescriptor);
 
@@ -1,5 +1,13 @@
 package com.termux.terminal;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -7,6 +15,17 @@ import java.util.Arrays;
  * history.
  * <p>
  * See {@link #externalToInternalRow(int)} for how to map from logical screen rows to array indices.
+ * <p>
+ * Rows which scroll into the transcript are frozen to keep memory usage low, see {@link TerminalRow#freeze()}.
+ * They are thawed again when they become part of the screen, and are read through temporary thawed
+ * copies, see {@link #allocateFullLineIfNecessary(int)}.
+ * <p>
+ * Rows which are no longer used, like the ones replaced by frozen rows, are kept in a pool and reused instead of
+ * allocating new rows, see {@link #obtainRow(long)}. Likewise frozen rows dropped from a full transcript are reused for
+ * the rows which scroll into it, see {@link #freezeRow(int)}.
+ * <p>
+ * Transcript rows which no longer fit in the circular buffer may be kept on disk by a {@link TranscriptSpill}, in which
+ * case they are part of the transcript above the rows in memory, see {@link #getRow(int)}.
  */
 public final class TerminalBuffer {
 
@@ -20,6 +39,37 @@ public final class TerminalBuffer {
     /** The index in the circular buffer where the visible screen starts. */
     private int mScreenFirstRow = 0;
 
+    /** Thawed copies of frozen transcript rows, reused in a round-robin fashion. */
+    private TerminalRow[] mThawedRows = new TerminalRow[0];
+    /** The frozen contents each row in {@link #mThawedRows} is a copy of. */
+    private FrozenTerminalRow[] mThawedRowSources = new FrozenTerminalRow[0];
+    /** The index in {@link #mThawedRows} to use for the next row to thaw. */
+    private int mNextThawedRow;
+
+    /** The oldest transcript rows which have not been reflowed yet after the number of columns changed, or null. */
+    private TranscriptReflow mPendingReflow;
+
+    /** Unused rows with {@link #mColumns} columns which are not frozen, to be reused by {@link #obtainRow(long)}. */
+    private TerminalRow[] mRecycledRows = new TerminalRow[0];
+    /** The number of rows in {@link #mRecycledRows}. */
+    private int mRecycledRowCount;
+    /**
+     * Frozen rows with {@link #mColumns} columns which have been dropped from the transcript, to be reused for the rows
+     * which scroll into the transcript by {@link #freezeRow(int)}, so that scrolling does not allocate once the
+     * transcript is full.
+     */
+    private TerminalRow[] mRecycledFrozenRows = new TerminalRow[0];
+    /** The number of rows in {@link #mRecycledFrozenRows}. */
+    private int mRecycledFrozenRowCount;
+
+    /** The rows of the screen which have changed since they were last drawn. */
+    final TerminalDamage mDamage;
+
+    /** The transcript rows above the rows in memory, or null if they are dropped. */
+    TranscriptSpill mSpill;
+    /** If rows should be dropped instead of spilled, while the rows are reflowed. */
+    private boolean mSpillSuspended;
+
     /**
      * Create a transcript screen.
      *
@@ -33,6 +83,7 @@ public final class TerminalBuffer {
         mTotalRows = totalRows;
         mScreenRows = screenRows;
         mLines = new TerminalRow[totalRows];
+        mDamage = new TerminalDamage(columns, screenRows);
 
         blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
     }
@@ -49,6 +100,41 @@ public final class TerminalBuffer {
         return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true).trim();
     }
 
+    /**
+     * Write the text of the transcript and screen to a writer in chunks, without holding all of it in memory. The text
+     * is the same as returned by {@link #getTranscriptText()}, {@link #getTranscriptTextWithoutJoinedLines()} or
+     * {@link #getTranscriptTextWithFullLinesJoined()}, depending on the lines joined. The writer is flushed but not
+     * closed.
+     *
+     * @param writer         the writer to write the text to.
+     * @param joinBackLines  if rows which were wrapped should be joined with the next row.
+     * @param joinFullLines  if rows whose text fills all columns should be joined with the next row.
+     */
+    public void writeTranscriptText(Writer writer, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        final int firstRow = -getActiveTranscriptRows();
+        // The blank rows at the end are left out, so that the writer only has to hold back the spaces of the last row:
+        int lastRow = mScreenRows - 1;
+        while (lastRow >= firstRow && getRow(lastRow).isBlank()) lastRow--;
+
+        TranscriptWriter transcriptWriter = new TranscriptWriter(writer);
+        if (lastRow >= firstRow)
+            appendSelectedText(transcriptWriter, 0, firstRow, mColumns, lastRow, joinBackLines, joinFullLines);
+        transcriptWriter.finish();
+    }
+
+    /** Write the text of the transcript and screen encoded in UTF-8, see {@link #writeTranscriptText(Writer, boolean, boolean)}. */
+    public void writeTranscriptText(OutputStream out, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        writeTranscriptText(new OutputStreamWriter(out, StandardCharsets.UTF_8), joinBackLines, joinFullLines);
+    }
+
+    /**
+     * Write the text of the transcript and screen encoded in UTF-8 to a channel, like a {@link java.nio.channels.FileChannel},
+     * see {@link #writeTranscriptText(Writer, boolean, boolean)}.
+     */
+    public void writeTranscriptText(WritableByteChannel channel, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        writeTranscriptText(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), joinBackLines, joinFullLines);
+    }
+
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
         return getSelectedText(selX1, selY1, selX2, selY2, true);
     }
@@ -59,6 +145,20 @@ public final class TerminalBuffer {
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
         final StringBuilder builder = new StringBuilder();
+        appendSelectedText(builder::append, selX1, selY1, selX2, selY2, joinBackLines, joinFullLines);
+        return builder.toString();
+    }
+
+    /** Receives the text of rows from {@link #appendSelectedText}, with line breaks as single '\n' chars. */
+    interface TextSink<E extends Exception> {
+        void append(char[] text, int offset, int length) throws E;
+    }
+
+    private static final char[] NEWLINE = {'\n'};
+
+    /** Pass the text of the selection, see {@link #getSelectedText(int, int, int, int, boolean, boolean)}, to a sink row by row. */
+    private <E extends Exception> void appendSelectedText(TextSink<E> sink, int selX1, int selY1, int selX2, int selY2,
+                                                          boolean joinBackLines, boolean joinFullLines) throws E {
         final int columns = mColumns;
 
         if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
@@ -73,7 +173,7 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            TerminalRow lineObject = getRow(row);
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
@@ -96,13 +196,12 @@ public final class TerminalBuffer {
 
             int len = lastPrintingCharIndex - x1Index + 1;
             if (lastPrintingCharIndex != -1 && len > 0)
-                builder.append(line, x1Index, len);
+                sink.append(line, x1Index, len);
 
             boolean lineFillsWidth = lastPrintingCharIndex == x2Index - 1;
             if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth)
-                && row < selY2 && row < mScreenRows - 1) builder.append('\n');
+                && row < selY2 && row < mScreenRows - 1) sink.append(NEWLINE, 0, 1);
         }
-        return builder.toString();
     }
 
     public String getWordAtLocation(int x, int y) {
@@ -144,12 +243,43 @@ public final class TerminalBuffer {
         return text.substring(x1 + 1, x2);
     }
 
+    /** The number of rows in the transcript, including the ones kept on disk by {@link #mSpill}. */
     public int getActiveTranscriptRows() {
-        return mActiveTranscriptRows;
+        return (mSpill == null) ? mActiveTranscriptRows : mActiveTranscriptRows + mSpill.getRows();
     }
 
     public int getActiveRows() {
-        return mActiveTranscriptRows + mScreenRows;
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    /** Set the spill to keep the transcript rows which no longer fit in memory in, or null to drop them. */
+    void setTranscriptSpill(TranscriptSpill spill) {
+        mSpill = spill;
+    }
+
+    /**
+     * Get a row for reading, like {@link #allocateFullLineIfNecessary(int)} does for the rows in memory. Rows kept on
+     * disk by a {@link TranscriptSpill} are read from it and have the current number of columns, where rows from before
+     * the number of columns changed are cut off or padded with spaces instead of being reflowed.
+     *
+     * @param externalRow a row in the external coordinate system, see {@link #externalToInternalRow(int)}, which may
+     *                    also be one of the {@link #getActiveTranscriptRows()} rows above the rows in memory.
+     */
+    public TerminalRow getRow(int externalRow) {
+        final int spilledRow = getSpilledRowIndex(externalRow);
+        if (spilledRow != -1) return mSpill.getRow(spilledRow, mColumns);
+        return allocateFullLineIfNecessary(externalToInternalRow(externalRow));
+    }
+
+    /** The index in {@link #mSpill} of a row above the rows in memory, or -1 if the row is in memory. */
+    int getSpilledRowIndex(int externalRow) {
+        if (mSpill == null || externalRow >= -mActiveTranscriptRows) return -1;
+        return mSpill.getRows() + mActiveTranscriptRows + externalRow;
+    }
+
+    /** Keep a row which is dropped from the top of the transcript in {@link #mSpill}, if any. */
+    void spillRow(TerminalRow row) {
+        if (mSpill != null && !mSpillSuspended) mSpill.append(row);
     }
 
     /**
@@ -181,26 +311,34 @@ public final class TerminalBuffer {
     }
 
     public void setLineWrap(int row) {
+        reflowPendingRows(row);
         mLines[externalToInternalRow(row)].mLineWrap = true;
     }
 
     public boolean getLineWrap(int row) {
+        if (getSpilledRowIndex(row) != -1) return getRow(row).mLineWrap;
+        reflowPendingRows(row);
         return mLines[externalToInternalRow(row)].mLineWrap;
     }
 
     public void clearLineWrap(int row) {
+        reflowPendingRows(row);
         mLines[externalToInternalRow(row)].mLineWrap = false;
     }
 
     /**
      * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
      * change or the rows expand (that is, it only works when shrinking the number of rows).
+     * <p>
+     * If the number of columns changes, only the rows of the screen and the rows just above it are reflowed right
+     * away. The older transcript rows are reflowed lazily when they are accessed, see {@link TranscriptReflow}.
      *
      * @param newColumns The number of columns the screen should have.
      * @param newRows    The number of rows the screen should have.
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        mDamage.resize(newColumns, newRows);
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == mColumns && newRows <= mTotalRows) {
             // Fast resize where just the rows changed.
@@ -217,10 +355,12 @@ public final class TerminalBuffer {
             } else if (shiftDownOfTopRow < 0) {
                 // Negative shift down = expanding. Only move screen up if there is transcript to show:
                 int actualShift = Math.max(shiftDownOfTopRow, -mActiveTranscriptRows);
+                reflowPendingRows(actualShift);
                 if (shiftDownOfTopRow != actualShift) {
                     // The new lines revealed by the resizing are not all from the transcript. Blank the below ones.
-                    for (int i = 0; i < actualShift - shiftDownOfTopRow; i++)
-                        allocateFullLineIfNecessary((mScreenFirstRow + mScreenRows + i) % mTotalRows).clear(currentStyle);
+                    for (int i = 0; i < actualShift - shiftDownOfTopRow; i++) {
+                        clearRow((mScreenFirstRow + mScreenRows + i) % mTotalRows, currentStyle);
+                    }
                     shiftDownOfTopRow = actualShift;
                 }
             }
@@ -230,148 +370,209 @@ public final class TerminalBuffer {
             mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
             cursor[1] -= shiftDownOfTopRow;
             mScreenRows = newRows;
+
+            // Rows that scrolled into the transcript are frozen, and rows revealed from it thawed:
+            for (int i = 1; i <= Math.min(shiftDownOfTopRow, mActiveTranscriptRows); i++)
+                freezeRow(externalToInternalRow(-i));
+            for (int i = 0; i < mScreenRows; i++)
+                thawRow(externalToInternalRow(i));
         } else {
-            // Copy away old state and update new:
-            TerminalRow[] oldLines = mLines;
-            mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                mLines[i] = new TerminalRow(newColumns, currentStyle);
-
-            final int oldActiveTranscriptRows = mActiveTranscriptRows;
-            final int oldScreenFirstRow = mScreenFirstRow;
+            // Gather the old rows in order from the top, including the ones which have not been reflowed yet:
             final int oldScreenRows = mScreenRows;
-            final int oldTotalRows = mTotalRows;
+            final int pendingRows = (mPendingReflow == null) ? 0 : mPendingReflow.getPendingRows();
+            final int pendingOldRows = (mPendingReflow == null) ? 0 : mPendingReflow.getOldRowCount();
+            final TerminalRow[] oldRows = new TerminalRow[pendingOldRows + mActiveTranscriptRows - pendingRows + oldScreenRows];
+            int oldRowCount = 0;
+            if (mPendingReflow != null) oldRowCount = mPendingReflow.copyOldRowsTo(oldRows);
+            for (int externalOldRow = pendingRows - mActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++)
+                oldRows[oldRowCount++] = mLines[externalToInternalRow(externalOldRow)];
+            final int oldCursorRow = oldRowCount - oldScreenRows + cursor[1];
+            final int oldCursorColumn = cursor[0];
+
             mTotalRows = newTotalRows;
             mScreenRows = newRows;
-            mActiveTranscriptRows = mScreenFirstRow = 0;
-            mColumns = newColumns;
-
-            int newCursorRow = -1;
-            int newCursorColumn = -1;
-            int oldCursorRow = cursor[1];
-            int oldCursorColumn = cursor[0];
-            boolean newCursorPlaced = false;
-
-            int currentOutputExternalRow = 0;
-            int currentOutputExternalColumn = 0;
-
-            // Loop over every character in the initial state.
-            // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
-            // keep track how many blank lines we have skipped if we later on find a non-blank line.
-            int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-
-                TerminalRow oldLine = oldLines[internalOldRow];
-                boolean cursorAtThisRow = externalOldRow == oldCursorRow;
-                // The cursor may only be on a non-null line, which we should not skip:
-                if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
-                    skippedBlankLines++;
-                    continue;
-                } else if (skippedBlankLines > 0) {
-                    // After skipping some blank lines we encounter a non-blank line. Insert the skipped blank lines.
-                    for (int i = 0; i < skippedBlankLines; i++) {
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
-                    skippedBlankLines = 0;
-                }
+            mPendingReflow = null;
+            if (mColumns != newColumns) {
+                mColumns = newColumns;
+                clearRecycledRows();
+            }
 
-                int lastNonSpaceIndex = 0;
-                boolean justToCursor = false;
-                if (cursorAtThisRow || oldLine.mLineWrap) {
-                    // Take the whole line, either because of cursor on it, or if line wrapping.
-                    lastNonSpaceIndex = oldLine.getSpaceUsed();
-                    if (cursorAtThisRow) justToCursor = true;
-                } else {
-                    for (int i = 0; i < oldLine.getSpaceUsed(); i++)
-                        // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
-                        if (oldLine.mText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
-                            lastNonSpaceIndex = i + 1;
+            // Reflow the rows of the screen and a screen of rows above it right away, and the older rows lazily
+            // when they are accessed. Reflow more rows if they do not fill the screen, as the older rows would
+            // then be shown on it.
+            int rowsToReflow = oldScreenRows + newRows;
+            int start;
+            // Rows scrolled out of a reflow are not spilled, as the reflow may be retried with more rows:
+            mSpillSuspended = true;
+            while (true) {
+                start = Math.max(0, oldRowCount - rowsToReflow);
+                while (start > 0 && !TranscriptReflow.endsLogicalLine(oldRows[start - 1])) start--;
+                if (reflowRows(oldRows, start, oldRowCount, oldCursorRow, oldCursorColumn, cursor, currentStyle) || start == 0) break;
+                rowsToReflow *= 2;
+            }
+            mSpillSuspended = false;
+
+            if (start > 0) {
+                TranscriptReflow reflow = new TranscriptReflow(this, oldRows, 0, start, mColumns, currentStyle);
+                // The pending rows go above the reflowed transcript, and the oldest ones are dropped if it is full:
+                int transcriptRowsLeft = mTotalRows - mScreenRows - mActiveTranscriptRows;
+                if (reflow.getPendingRows() > transcriptRowsLeft) reflow.dropTopRows(reflow.getPendingRows() - transcriptRowsLeft);
+                if (reflow.getPendingRows() > 0) {
+                    mActiveTranscriptRows += reflow.getPendingRows();
+                    mPendingReflow = reflow;
                 }
+            }
+            clearThawedRows();
+        }
 
-                int currentOldCol = 0;
-                long styleAtCol = 0;
-                for (int i = 0; i < lastNonSpaceIndex; i++) {
-                    // Note that looping over java character, not cells.
-                    char c = oldLine.mText[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
-                    int displayWidth = WcWidth.width(codePoint);
-                    // Use the last style if this is a zero-width character:
-                    if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
-
-                    // Line wrap as necessary:
-                    if (currentOutputExternalColumn + displayWidth > mColumns) {
-                        setLineWrap(currentOutputExternalRow);
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            if (newCursorPlaced) newCursorRow--;
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
+        // Handle cursor scrolling off screen:
+        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+    }
+
+    /**
+     * Reflow old rows, which may have another number of columns, into this buffer after clearing it.
+     *
+     * @param oldRows   The old rows, which must start at the top of the old transcript or after a row for which
+     *                  {@link TranscriptReflow#endsLogicalLine(TerminalRow)} is true.
+     * @param cursor    Set to the (column, row) location of the cursor.
+     * @return If the reflowed rows filled the screen.
+     */
+    private boolean reflowRows(TerminalRow[] oldRows, int start, int end, int oldCursorRow, int oldCursorColumn, int[] cursor, long currentStyle) {
+        mLines = new TerminalRow[mTotalRows];
+        mActiveTranscriptRows = mScreenFirstRow = 0;
+        // Only the screen rows are allocated up front, the transcript is filled by scrolling them into it:
+        for (int i = 0; i < mScreenRows; i++)
+            mLines[i] = obtainRow(currentStyle);
+        int scrolledRows = 0;
 
-                    int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
-                    int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
-                    setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
-
-                    if (displayWidth > 0) {
-                        if (oldCursorRow == externalOldRow && oldCursorColumn == currentOldCol) {
-                            newCursorColumn = currentOutputExternalColumn;
-                            newCursorRow = currentOutputExternalRow;
-                            newCursorPlaced = true;
-                        }
-                        currentOldCol += displayWidth;
-                        currentOutputExternalColumn += displayWidth;
-                        if (justToCursor && newCursorPlaced) break;
+        int newCursorRow = -1;
+        int newCursorColumn = -1;
+        boolean newCursorPlaced = false;
+
+        int currentOutputExternalRow = 0;
+        int currentOutputExternalColumn = 0;
+
+        // Loop over every character in the initial state.
+        // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
+        // keep track how many blank lines we have skipped if we later on find a non-blank line.
+        int skippedBlankLines = 0;
+        for (int oldRow = start; oldRow < end; oldRow++) {
+            TerminalRow oldLine = oldRows[oldRow];
+            if (oldLine != null && oldLine.isFrozen()) oldLine = getThawedCopy(oldLine);
+            boolean cursorAtThisRow = oldRow == oldCursorRow;
+            // The cursor may only be on a non-null line, which we should not skip:
+            if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
+                skippedBlankLines++;
+                continue;
+            } else if (skippedBlankLines > 0) {
+                // After skipping some blank lines we encounter a non-blank line. Insert the skipped blank lines.
+                for (int i = 0; i < skippedBlankLines; i++) {
+                    if (currentOutputExternalRow == mScreenRows - 1) {
+                        if (newCursorPlaced) newCursorRow--;
+                        scrollDownOneLine(0, mScreenRows, currentStyle);
+                        scrolledRows++;
+                    } else {
+                        currentOutputExternalRow++;
                     }
+                    currentOutputExternalColumn = 0;
                 }
-                // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
-                if (externalOldRow != (oldScreenRows - 1) && !oldLine.mLineWrap) {
+                skippedBlankLines = 0;
+            }
+
+            int lastNonSpaceIndex = 0;
+            boolean justToCursor = false;
+            if (cursorAtThisRow || oldLine.mLineWrap) {
+                // Take the whole line, either because of cursor on it, or if line wrapping.
+                lastNonSpaceIndex = oldLine.getSpaceUsed();
+                if (cursorAtThisRow) justToCursor = true;
+            } else {
+                for (int i = 0; i < oldLine.getSpaceUsed(); i++)
+                    // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
+                    if (oldLine.mText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
+                        lastNonSpaceIndex = i + 1;
+            }
+
+            int currentOldCol = 0;
+            long styleAtCol = 0;
+            for (int i = 0; i < lastNonSpaceIndex; i++) {
+                // Note that looping over java character, not cells.
+                char c = oldLine.mText[i];
+                int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
+                int displayWidth = WcWidth.width(codePoint);
+                // Use the last style if this is a zero-width character:
+                if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
+
+                // Line wrap as necessary:
+                if (currentOutputExternalColumn + displayWidth > mColumns) {
+                    setLineWrap(currentOutputExternalRow);
                     if (currentOutputExternalRow == mScreenRows - 1) {
                         if (newCursorPlaced) newCursorRow--;
                         scrollDownOneLine(0, mScreenRows, currentStyle);
+                        scrolledRows++;
                     } else {
                         currentOutputExternalRow++;
                     }
                     currentOutputExternalColumn = 0;
                 }
-            }
 
-            cursor[0] = newCursorColumn;
-            cursor[1] = newCursorRow;
+                int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
+                int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
+                setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
+
+                if (displayWidth > 0) {
+                    if (oldCursorRow == oldRow && oldCursorColumn == currentOldCol) {
+                        newCursorColumn = currentOutputExternalColumn;
+                        newCursorRow = currentOutputExternalRow;
+                        newCursorPlaced = true;
+                    }
+                    currentOldCol += displayWidth;
+                    currentOutputExternalColumn += displayWidth;
+                    if (justToCursor && newCursorPlaced) break;
+                }
+            }
+            // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
+            if (oldRow != end - 1 && !oldLine.mLineWrap) {
+                if (currentOutputExternalRow == mScreenRows - 1) {
+                    if (newCursorPlaced) newCursorRow--;
+                    scrollDownOneLine(0, mScreenRows, currentStyle);
+                    scrolledRows++;
+                } else {
+                    currentOutputExternalRow++;
+                }
+                currentOutputExternalColumn = 0;
+            }
         }
 
-        // Handle cursor scrolling off screen:
-        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+        cursor[0] = newCursorColumn;
+        cursor[1] = newCursorRow;
+        return scrolledRows + currentOutputExternalRow + 1 >= mScreenRows;
     }
 
     /**
-     * Block copy lines and associated metadata from one location to another in the circular buffer, taking wraparound
-     * into account.
+     * Block copy lines and associated metadata down in the circular buffer, taking wraparound into account. The lines
+     * which are overwritten are put back above the block.
      *
      * @param srcInternal The first line to be copied.
      * @param len         The number of lines to be copied.
+     * @param lines       The number of lines to copy them down by.
      */
-    private void blockCopyLinesDown(int srcInternal, int len) {
+    private void blockCopyLinesDown(int srcInternal, int len, int lines) {
         if (len == 0) return;
-        int totalRows = mTotalRows;
+        // Rotate the block together with the lines below it, without allocating, by reversing them all and then the
+        // two parts on their own:
+        reverseLines(srcInternal, len + lines);
+        reverseLines(srcInternal, lines);
+        reverseLines(srcInternal + lines, len);
+    }
 
-        int start = len - 1;
-        // Save away line to be overwritten:
-        TerminalRow lineToBeOverWritten = mLines[(srcInternal + start + 1) % totalRows];
-        // Do the copy from bottom to top.
-        for (int i = start; i >= 0; --i)
-            mLines[(srcInternal + i + 1) % totalRows] = mLines[(srcInternal + i) % totalRows];
-        // Put back overwritten line, now above the block:
-        mLines[(srcInternal) % totalRows] = lineToBeOverWritten;
+    private void reverseLines(int startInternal, int count) {
+        final TerminalRow[] lines = mLines;
+        final int totalRows = mTotalRows;
+        for (int i = startInternal, j = startInternal + count - 1; i < j; i++, j--) {
+            final TerminalRow line = lines[i % totalRows];
+            lines[i % totalRows] = lines[j % totalRows];
+            lines[j % totalRows] = line;
+        }
     }
 
     /**
@@ -382,27 +583,75 @@ public final class TerminalBuffer {
      * @param style        the style for the newly exposed line.
      */
     public void scrollDownOneLine(int topMargin, int bottomMargin, long style) {
-        if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
-            throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
+        scrollDown(topMargin, bottomMargin, 1, style);
+    }
 
-        // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
-        blockCopyLinesDown(mScreenFirstRow, topMargin);
-        // Copy the fixed mScreenRows-bottomMargin lines one line down so that they remain on screen in same
-        // position:
-        blockCopyLinesDown(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin);
+    /**
+     * Scroll the screen down a number of lines, as that many calls to {@link #scrollDownOneLine(int, int, long)} would,
+     * but moving the fixed lines above and below the margins once for all of them.
+     *
+     * @param topMargin    First line that is scrolled.
+     * @param bottomMargin One line after the last line that is scrolled.
+     * @param lines        the number of lines to scroll.
+     * @param style        the style for the newly exposed lines.
+     */
+    public void scrollDown(int topMargin, int bottomMargin, int lines, long style) {
+        if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows || lines < 0)
+            throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", lines=" + lines + ", mScreenRows=" + mScreenRows);
+
+        // Lines are scrolled in batches of at most the lines between the margins, so that lines revealed by a batch
+        // are blanked before they scroll into the transcript, and of at most the transcript size, so that only rows
+        // which were already in the transcript are dropped from it:
+        final int maxBatchLines = Math.max(1, Math.min(bottomMargin - topMargin, mTotalRows - mScreenRows));
+        while (lines > 0) {
+            final int batchLines = Math.min(lines, maxBatchLines);
+            scrollDownBatch(topMargin, bottomMargin, batchLines, style);
+            lines -= batchLines;
+        }
+    }
+
+    private void scrollDownBatch(int topMargin, int bottomMargin, int lines, long style) {
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        final int droppedRows = Math.max(0, mActiveTranscriptRows + lines - maxTranscriptRows);
+
+        // The oldest transcript rows are dropped if the transcript gets full, unless they have not been reflowed yet,
+        // in which case the old rows are spilled by the pending reflow instead:
+        for (int i = 0; i < droppedRows && i < mActiveTranscriptRows; i++) {
+            TerminalRow oldestRow = mLines[externalToInternalRow(i - mActiveTranscriptRows)];
+            if (oldestRow != null) spillRow(oldestRow);
+        }
+
+        // Copy the fixed topMargin lines down so that they remain on screen in same position:
+        blockCopyLinesDown(mScreenFirstRow, topMargin, lines);
+        // Copy the fixed mScreenRows-bottomMargin lines down so that they remain on screen in same position:
+        blockCopyLinesDown(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin, lines);
 
         // Update the screen location in the ring buffer:
-        mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
+        mScreenFirstRow = (mScreenFirstRow + lines) % mTotalRows;
         // Note that the history has grown if not already full:
-        if (mActiveTranscriptRows < mTotalRows - mScreenRows) mActiveTranscriptRows++;
-
-        // Blank the newly revealed line above the bottom margin:
-        int blankRow = externalToInternalRow(bottomMargin - 1);
-        if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
+        if (droppedRows == 0) {
+            mActiveTranscriptRows += lines;
         } else {
-            mLines[blankRow].clear(style);
+            mActiveTranscriptRows = maxTranscriptRows;
+            if (mPendingReflow != null) {
+                // The oldest transcript rows, which have not been reflowed yet, are dropped:
+                mPendingReflow.dropTopRows(droppedRows);
+                if (mPendingReflow.getPendingRows() <= 0) mPendingReflow = null;
+            }
         }
+
+        // Freeze the rows which scrolled into the transcript, so that the newly revealed lines can reuse them:
+        final int scrolledRows = Math.min(lines, mActiveTranscriptRows);
+        for (int row = 1; row <= scrolledRows; row++)
+            freezeRow(externalToInternalRow(-row));
+
+        // Blank the newly revealed lines above the bottom margin:
+        for (int row = bottomMargin - lines; row < bottomMargin; row++)
+            clearRow(externalToInternalRow(row), style);
+
+        // The rows between the margins have moved up:
+        mDamage.damageRows(topMargin, bottomMargin);
+        mDamage.scrolled(lines);
     }
 
     /**
@@ -426,6 +675,7 @@ public final class TerminalBuffer {
             int y2 = copyingUp ? y : (h - (y + 1));
             TerminalRow sourceRow = allocateFullLineIfNecessary(externalToInternalRow(sy + y2));
             allocateFullLineIfNecessary(externalToInternalRow(dy + y2)).copyInterval(sourceRow, sx, sx + w, dx);
+            mDamage.damage(dy + y2, dx - 1, dx + w + 1);
         }
     }
 
@@ -439,20 +689,182 @@ public final class TerminalBuffer {
             throw new IllegalArgumentException(
                 "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
         }
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++)
-                setChar(sx + x, sy + y, val, style);
+        if (w <= 0) return;
+        for (int y = sy; y < sy + h; y++) {
+            // A wide char at either end of the block may be cleared, as by setChar():
+            mDamage.damage(y, sx - 1, sx + w + 1);
+            allocateFullLineIfNecessary(externalToInternalRow(y)).fill(sx, sx + w, val, style);
+        }
     }
 
+    /**
+     * Get the row at an index in the circular buffer, allocating it if necessary.
+     *
+     * If the row is a frozen transcript row, a thawed copy of it is returned instead. The copy must
+     * not be modified, and is only guaranteed to stay valid until {@link #mScreenRows} other frozen
+     * rows have been read.
+     */
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        TerminalRow line = mLines[row];
+        if (line == null && mPendingReflow != null) {
+            reflowPendingRows(internalToExternalRow(row));
+            line = mLines[row];
+        }
+        if (line == null) return mLines[row] = obtainRow(0);
+        return line.isFrozen() ? getThawedCopy(line) : line;
+    }
+
+    /** The inverse of {@link #externalToInternalRow(int)}. */
+    private int internalToExternalRow(int internalRow) {
+        int externalRow = internalRow - mScreenFirstRow;
+        if (externalRow >= mScreenRows) return externalRow - mTotalRows;
+        return (externalRow < mScreenRows - mTotalRows) ? (externalRow + mTotalRows) : externalRow;
+    }
+
+    /** Reflow the pending transcript rows from the bottom until the specified external row has been reflowed. */
+    private void reflowPendingRows(int externalRow) {
+        while (mPendingReflow != null && externalRow < mPendingReflow.getPendingRows() - mActiveTranscriptRows) {
+            mPendingReflow.reflowLastLine();
+            if (mPendingReflow.getPendingRows() <= 0) mPendingReflow = null;
+        }
+    }
+
+    /** Set a row reflowed by {@link #mPendingReflow}, where index 0 is the top row of the transcript. */
+    void setReflowedRow(int index, TerminalRow row) {
+        mLines[externalToInternalRow(index - mActiveTranscriptRows)] = row;
+    }
+
+    /** Get an unused row from the pool, or allocate a new one, and clear it with the specified style. */
+    private TerminalRow obtainRow(long style) {
+        if (mRecycledRowCount == 0) return new TerminalRow(mColumns, style);
+        TerminalRow row = mRecycledRows[--mRecycledRowCount];
+        mRecycledRows[mRecycledRowCount] = null;
+        row.clear(style);
+        row.mLineWrap = false;
+        return row;
+    }
+
+    /** Put a row which is no longer used into the pool, unless the pool already holds a screen of rows. */
+    private void recycleRow(TerminalRow row) {
+        if (row.isFrozen() || row.getColumns() != mColumns || mRecycledRowCount >= mScreenRows) return;
+        if (mRecycledRowCount == mRecycledRows.length)
+            mRecycledRows = Arrays.copyOf(mRecycledRows, Math.min(mScreenRows, Math.max(8, 2 * mRecycledRowCount)));
+        mRecycledRows[mRecycledRowCount++] = row;
+    }
+
+    /**
+     * Put a frozen row which is no longer used into the pool of frozen rows, unless the pool already holds a screen of
+     * rows, and forget its thawed copy as its contents will change.
+     */
+    private void recycleFrozenRow(TerminalRow row) {
+        if (row.getColumns() != mColumns || mRecycledFrozenRowCount >= mScreenRows) return;
+        final FrozenTerminalRow frozen = row.getFrozen();
+        for (int i = 0; i < mThawedRowSources.length; i++)
+            if (mThawedRowSources[i] == frozen) mThawedRowSources[i] = null;
+        if (mRecycledFrozenRowCount == mRecycledFrozenRows.length)
+            mRecycledFrozenRows = Arrays.copyOf(mRecycledFrozenRows, Math.min(mScreenRows, Math.max(8, 2 * mRecycledFrozenRowCount)));
+        mRecycledFrozenRows[mRecycledFrozenRowCount++] = row;
+    }
+
+    private void clearRecycledRows() {
+        mRecycledRows = new TerminalRow[0];
+        mRecycledRowCount = 0;
+        mRecycledFrozenRows = new TerminalRow[0];
+        mRecycledFrozenRowCount = 0;
+    }
+
+    /**
+     * Blank the row at an index in the circular buffer, reusing a row from the pool if it is frozen, in which case the
+     * frozen row is no longer used and put into the pool of frozen rows.
+     */
+    private void clearRow(int row, long style) {
+        TerminalRow line = mLines[row];
+        if (line == null || line.isFrozen()) {
+            if (line != null) recycleFrozenRow(line);
+            mLines[row] = obtainRow(style);
+        } else {
+            line.clear(style);
+        }
+    }
+
+    /**
+     * Replace the row at an index in the circular buffer with a frozen copy, reusing a frozen row from the pool if any,
+     * and put the row into the pool.
+     */
+    private void freezeRow(int row) {
+        TerminalRow line = mLines[row];
+        if (line == null || line.isFrozen()) return;
+        if (mRecycledFrozenRowCount == 0) {
+            mLines[row] = line.freeze();
+        } else {
+            final TerminalRow frozen = mRecycledFrozenRows[--mRecycledFrozenRowCount];
+            mRecycledFrozenRows[mRecycledFrozenRowCount] = null;
+            frozen.refreeze(line);
+            mLines[row] = frozen;
+        }
+        recycleRow(line);
+    }
+
+    /** Replace the frozen row at an index in the circular buffer with a thawed row from the pool. */
+    private void thawRow(int row) {
+        TerminalRow line = mLines[row];
+        if (line == null || !line.isFrozen()) return;
+        TerminalRow thawed = obtainRow(0);
+        thawed.thawFrom(line.getFrozen());
+        thawed.mLineWrap = line.mLineWrap;
+        mLines[row] = thawed;
+    }
+
+    /** Get a thawed copy of a frozen row, see {@link #allocateFullLineIfNecessary(int)}. */
+    TerminalRow getThawedCopy(TerminalRow frozenLine) {
+        final FrozenTerminalRow frozen = frozenLine.getFrozen();
+        TerminalRow copy = null;
+        for (int i = 0; i < mThawedRowSources.length; i++) {
+            if (mThawedRowSources[i] == frozen) {
+                copy = mThawedRows[i];
+                break;
+            }
+        }
+
+        if (copy == null) {
+            if (mThawedRows.length < mScreenRows) {
+                mThawedRows = Arrays.copyOf(mThawedRows, mScreenRows);
+                mThawedRowSources = Arrays.copyOf(mThawedRowSources, mScreenRows);
+            }
+            int index = mNextThawedRow;
+            mNextThawedRow = (mNextThawedRow + 1) % mThawedRows.length;
+            copy = mThawedRows[index];
+            if (copy == null || copy.getColumns() != frozen.getColumns())
+                copy = mThawedRows[index] = new TerminalRow(frozen.getColumns(), 0);
+            copy.thawFrom(frozen);
+            mThawedRowSources[index] = frozen;
+        }
+
+        copy.mLineWrap = frozenLine.mLineWrap;
+        return copy;
+    }
+
+    /** Drop the thawed copies of frozen rows, so that they can be garbage collected. */
+    private void clearThawedRows() {
+        mThawedRows = new TerminalRow[0];
+        mThawedRowSources = new FrozenTerminalRow[0];
+        mNextThawedRow = 0;
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
         if (row  < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
             throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
-        row = externalToInternalRow(row);
-        allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
+        // A wide char can overwrite the cell after it, and the start of a wide char is cleared when overwriting its end:
+        mDamage.damage(row, column - 1, column + 2);
+        allocateFullLineIfNecessary(externalToInternalRow(row)).setChar(column, codePoint, style);
+    }
+
+    /** Set a run of printable ASCII chars on a row. See {@link TerminalRow#setAsciiChars(int, byte[], int, int, long)}. */
+    public void setAsciiChars(int column, int row, byte[] text, int offset, int length, long style) {
+        if (row  < 0 || row >= mScreenRows || column < 0 || column + length > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setAsciiChars(): row=" + row + ", column=" + column + ", length=" + length + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        mDamage.damage(row, column - 1, column + length + 1);
+        allocateFullLineIfNecessary(externalToInternalRow(row)).setAsciiChars(column, text, offset, length, style);
     }
 
     public long getStyleAt(int externalRow, int column) {
@@ -466,7 +878,10 @@ public final class TerminalBuffer {
             TerminalRow line = mLines[externalToInternalRow(y)];
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
             int endOfLine = (rectangular || y + 1 == bottom) ? right : rightMargin;
-            for (int x = startOfLine; x < endOfLine; x++) {
+            mDamage.damage(y, startOfLine, endOfLine);
+            // Update a run of cells with the same style at a time.
+            for (int x = startOfLine, runEnd; x < endOfLine; x = runEnd) {
+                runEnd = Math.min(line.getStyleRunEnd(x), endOfLine);
                 long currentStyle = line.getStyle(x);
                 int foreColor = TextStyle.decodeForeColor(currentStyle);
                 int backColor = TextStyle.decodeBackColor(currentStyle);
@@ -479,11 +894,141 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.setStyles(x, runEnd, TextStyle.encode(foreColor, backColor, effect));
             }
         }
     }
 
+    /**
+     * An estimate of the heap memory in bytes used by this buffer: the rows of the screen and the transcript, thawed
+     * copies of frozen rows, unused rows in the pool, old rows which have not been reflowed yet and rows cached by
+     * {@link #mSpill}. See {@link TerminalRow#getMemoryUsage()}.
+     */
+    public long getMemoryUsage() {
+        long size = TerminalRow.getArraySize(mLines.length, 4);
+        for (int i = -mActiveTranscriptRows; i < mScreenRows; i++) {
+            TerminalRow line = mLines[externalToInternalRow(i)];
+            if (line != null) size += line.getMemoryUsage();
+        }
+        size += TerminalRow.getArraySize(mThawedRows.length, 4) + TerminalRow.getArraySize(mThawedRowSources.length, 4);
+        for (TerminalRow row : mThawedRows)
+            if (row != null) size += row.getMemoryUsage();
+        size += TerminalRow.getArraySize(mRecycledRows.length, 4);
+        for (int i = 0; i < mRecycledRowCount; i++) size += mRecycledRows[i].getMemoryUsage();
+        size += TerminalRow.getArraySize(mRecycledFrozenRows.length, 4);
+        for (int i = 0; i < mRecycledFrozenRowCount; i++) size += mRecycledFrozenRows[i].getMemoryUsage();
+        if (mPendingReflow != null) size += mPendingReflow.getMemoryUsage();
+        if (mSpill != null) size += mSpill.getMemoryUsage();
+        return size;
+    }
+
+    /**
+     * Release memory which is not needed to keep the contents of the buffer: transcript rows which are not frozen are
+     * frozen, and the thawed copies of frozen rows, the pool of unused rows and the rows cached by {@link #mSpill} are
+     * dropped. They are allocated again as needed.
+     */
+    public void compact() {
+        for (int i = 1; i <= mActiveTranscriptRows; i++) freezeRow(externalToInternalRow(-i));
+        clearThawedRows();
+        clearRecycledRows();
+        if (mSpill != null) mSpill.clearCachedRows();
+    }
+
+    /**
+     * Drop the oldest transcript rows in memory so that at most the specified number of them are left. The dropped rows
+     * are kept in {@link #mSpill} if there is one, like rows scrolled out of a full transcript.
+     */
+    public void trimTranscript(int maxRows) {
+        final int dropRows = mActiveTranscriptRows - Math.max(0, maxRows);
+        if (dropRows <= 0) return;
+
+        // The pending rows are at the top of the transcript, and are all released before any row below them is
+        // dropped as they end with a logical line, so the rows are spilled in order:
+        if (mPendingReflow != null) {
+            mPendingReflow.dropTopRows(Math.min(dropRows, mPendingReflow.getPendingRows()));
+            if (mPendingReflow.getPendingRows() <= 0) mPendingReflow = null;
+        }
+        for (int i = 0; i < dropRows; i++) {
+            final int row = externalToInternalRow(i - mActiveTranscriptRows);
+            if (mLines[row] != null) spillRow(mLines[row]);
+            mLines[row] = null;
+        }
+        mActiveTranscriptRows -= dropRows;
+        clearThawedRows();
+        // A view may be showing the transcript:
+        mDamage.damageAll();
+    }
+
+    /** The number of bytes {@link #writeSnapshot(ByteBuffer)} writes. */
+    int getSnapshotSize() {
+        int size = 8 + ((mPendingReflow == null) ? 16 : mPendingReflow.getSnapshotSize());
+        for (int row = getPendingReflowRows() - mActiveTranscriptRows; row < mScreenRows; row++)
+            size += getSnapshotRow(externalToInternalRow(row)).getWrittenSize();
+        return size;
+    }
+
+    /** The number of top transcript rows which have not been reflowed yet after a resize. */
+    private int getPendingReflowRows() {
+        return (mPendingReflow == null) ? 0 : mPendingReflow.getPendingRows();
+    }
+
+    /**
+     * Write the number of transcript rows in memory, the internal row of the top of the screen, the transcript rows
+     * which have not been reflowed yet and the other rows of the transcript and the screen at the position of a buffer,
+     * see {@link TerminalSnapshot}. The rows in {@link #mSpill} are kept there. The rows are restored at the same
+     * internal rows, as which rows are revealed when the screen of the alternate buffer is resized depends on them.
+     */
+    void writeSnapshot(ByteBuffer snapshot) {
+        snapshot.putInt(mActiveTranscriptRows);
+        snapshot.putInt(mScreenFirstRow);
+        if (mPendingReflow == null) {
+            TranscriptReflow.writeEmptySnapshot(snapshot);
+        } else {
+            mPendingReflow.writeSnapshot(snapshot);
+        }
+        for (int row = getPendingReflowRows() - mActiveTranscriptRows; row < mScreenRows; row++) {
+            final int internalRow = externalToInternalRow(row);
+            getSnapshotRow(internalRow).writeTo(snapshot, mLines[internalRow].mLineWrap);
+        }
+    }
+
+    /** The frozen contents of a row for a snapshot, where a row which is not frozen is copied. */
+    private FrozenTerminalRow getSnapshotRow(int internalRow) {
+        TerminalRow line = mLines[internalRow];
+        if (line == null) line = allocateFullLineIfNecessary(internalRow);
+        return line.isFrozen() ? line.getFrozen() : new FrozenTerminalRow(line);
+    }
+
+    /** Drop the rows after a snapshot of them has been written, leaving a blank screen without transcript rows in memory. */
+    void clearForSnapshot() {
+        Arrays.fill(mLines, null);
+        mActiveTranscriptRows = mScreenFirstRow = 0;
+        mPendingReflow = null;
+        clearThawedRows();
+        clearRecycledRows();
+        if (mSpill != null) mSpill.clearCachedRows();
+        blockSet(0, 0, mColumns, mScreenRows, ' ', TextStyle.NORMAL);
+    }
+
+    /** Restore the rows written by {@link #writeSnapshot(ByteBuffer)} at the position of a buffer, which must have the same size. */
+    void readSnapshot(ByteBuffer snapshot) {
+        final int transcriptRows = snapshot.getInt();
+        final int screenFirstRow = snapshot.getInt();
+        Arrays.fill(mLines, null);
+        clearThawedRows();
+        mActiveTranscriptRows = transcriptRows;
+        mScreenFirstRow = screenFirstRow;
+        mPendingReflow = TranscriptReflow.readSnapshot(this, snapshot, mColumns);
+        for (int row = getPendingReflowRows() - transcriptRows; row < mScreenRows; row++) {
+            final boolean lineWrap = FrozenTerminalRow.readLineWrap(snapshot, snapshot.position());
+            final int internalRow = externalToInternalRow(row);
+            mLines[internalRow] = TerminalRow.frozen(FrozenTerminalRow.readFrom(snapshot), lineWrap);
+            // The rows of the screen are modified in place:
+            if (row >= 0) thawRow(internalRow);
+        }
+        mDamage.damageAll();
+    }
+
     public void clearTranscript() {
         if (mScreenFirstRow < mActiveTranscriptRows) {
             Arrays.fill(mLines, mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows, null);
@@ -492,6 +1037,11 @@ public final class TerminalBuffer {
             Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
         }
         mActiveTranscriptRows = 0;
+        mPendingReflow = null;
+        if (mSpill != null) mSpill.clear();
+        clearThawedRows();
+        // A view may be showing the transcript:
+        mDamage.damageAll();
     }
 
 }
@@ -0,0 +1,125 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The rows of the screen of a {@link TerminalBuffer} which have changed since the damage was last cleared, so that a
+ * view only needs to redraw those. See {@link TerminalEmulator#getDamage()}.
+ * <p>
+ * Each damaged row has a span of damaged columns. The whole screen is damaged when it is resized or its appearance
+ * changes, e.g. by switching to the alternate buffer or changing colors.
+ */
+public final class TerminalDamage {
+
+    /** The damaged rows, which are only used if not {@link #mFullDamage}. */
+    private final BitSet mDamagedRows = new BitSet();
+    /** The first damaged column (inclusive) and the last damaged column (exclusive) of each damaged row. */
+    private int[] mStartColumns, mEndColumns;
+    private int mColumns, mRows;
+    /** If all of the screen is damaged. */
+    private boolean mFullDamage;
+    /** The number of rows which have scrolled into the transcript. */
+    private int mScrolledRows;
+
+    TerminalDamage(int columns, int rows) {
+        resize(columns, rows);
+    }
+
+    /** Set the size of the screen, which damages all of it. */
+    void resize(int columns, int rows) {
+        mColumns = columns;
+        mRows = rows;
+        mStartColumns = new int[rows];
+        mEndColumns = new int[rows];
+        mDamagedRows.clear();
+        mFullDamage = true;
+    }
+
+    /** Damage the columns from startColumn (inclusive) to endColumn (exclusive) of a row, which are clipped to the screen. */
+    void damage(int row, int startColumn, int endColumn) {
+        if (mFullDamage || row < 0 || row >= mRows) return;
+        if (startColumn < 0) startColumn = 0;
+        if (endColumn > mColumns) endColumn = mColumns;
+        if (startColumn >= endColumn) return;
+        if (mDamagedRows.get(row)) {
+            if (startColumn < mStartColumns[row]) mStartColumns[row] = startColumn;
+            if (endColumn > mEndColumns[row]) mEndColumns[row] = endColumn;
+        } else {
+            mDamagedRows.set(row);
+            mStartColumns[row] = startColumn;
+            mEndColumns[row] = endColumn;
+        }
+    }
+
+    /** Damage all columns of the rows from startRow (inclusive) to endRow (exclusive). */
+    void damageRows(int startRow, int endRow) {
+        if (mFullDamage) return;
+        if (startRow < 0) startRow = 0;
+        if (endRow > mRows) endRow = mRows;
+        if (startRow >= endRow) return;
+        mDamagedRows.set(startRow, endRow);
+        Arrays.fill(mStartColumns, startRow, endRow, 0);
+        Arrays.fill(mEndColumns, startRow, endRow, mColumns);
+    }
+
+    /** Damage all of the screen. */
+    void damageAll() {
+        mFullDamage = true;
+    }
+
+    /** Record that rows have scrolled into the transcript. The scrolled rows must be damaged separately. */
+    void scrolled(int rows) {
+        mScrolledRows += rows;
+    }
+
+    /** Clear all damage. */
+    void clear() {
+        mDamagedRows.clear();
+        mFullDamage = false;
+        mScrolledRows = 0;
+    }
+
+    /** If nothing has been damaged. */
+    public boolean isEmpty() {
+        return !mFullDamage && mDamagedRows.isEmpty();
+    }
+
+    /** If all of the screen is damaged, in which case all rows are damaged from the first to the last column. */
+    public boolean isFullDamage() {
+        return mFullDamage;
+    }
+
+    public boolean isRowDamaged(int row) {
+        if (row < 0 || row >= mRows) return false;
+        return mFullDamage || mDamagedRows.get(row);
+    }
+
+    /** Get the first damaged row starting at the specified row, or -1 if there is none. */
+    public int nextDamagedRow(int row) {
+        if (row < 0) row = 0;
+        if (row >= mRows) return -1;
+        if (mFullDamage) return row;
+        int next = mDamagedRows.nextSetBit(row);
+        return (next >= mRows) ? -1 : next;
+    }
+
+    /** The first damaged column of a damaged row. */
+    public int getDamagedStartColumn(int row) {
+        return mFullDamage ? 0 : mStartColumns[row];
+    }
+
+    /** The column after the last damaged column of a damaged row. */
+    public int getDamagedEndColumn(int row) {
+        return mFullDamage ? mColumns : mEndColumns[row];
+    }
+
+    /**
+     * The number of rows which have scrolled into the transcript. The rows which were scrolled on the screen are
+     * damaged, but a view showing rows of the transcript has to redraw all of them since they have moved.
+     */
+    public int getScrolledRows() {
+        return mScrolledRows;
+    }
+
+}
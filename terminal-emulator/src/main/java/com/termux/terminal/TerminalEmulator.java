@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import android.util.Base64;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
@@ -79,6 +81,81 @@ public final class TerminalEmulator {
     private static final int ESC_CSI_SINGLE_QUOTE = 18;
     /** Escape processing: CSI ! */
     private static final int ESC_CSI_EXCLAMATION = 19;
+    /** The number of escape states, which index {@link #ESCAPE_ACTIONS} together with an ASCII char. */
+    private static final int ESC_STATES = ESC_CSI_EXCLAMATION + 1;
+
+    /** Escape action: Process the char with {@link #processCodePoint(int)}, for chars without a faster action. */
+    private static final byte ACTION_DISPATCH = 0;
+    /** Escape action: Write a run of printable ASCII chars with {@link #emitAsciiRun(byte[], int, int)}. */
+    private static final byte ACTION_PRINT = 1;
+    /** Escape action: Ignore the char and stay in the current state, as for NUL. */
+    private static final byte ACTION_IGNORE = 2;
+    /** Escape action: Collect a run of parameter digits and separators, see {@link #collectParameters(byte[], int, int)}. */
+    private static final byte ACTION_COLLECT_PARAMETERS = 3;
+    /** Escape action: Collect a run of chars of an OSC string, see {@link #collectOscString(byte[], int, int)}. */
+    private static final byte ACTION_COLLECT_OSC = 4;
+    /** Escape action: Start a new escape sequence on ESC. */
+    private static final byte ACTION_START_SEQUENCE = 5;
+    /** Escape action: Continue the sequence in the state of {@link #ESCAPE_TRANSITIONS}. */
+    private static final byte ACTION_TRANSITION = 6;
+    /** Escape action: Like {@link #ACTION_TRANSITION}, but to a state collecting a string in {@link #mOSCOrDeviceControlArgs}. */
+    private static final byte ACTION_TRANSITION_TO_STRING = 7;
+
+    /**
+     * The action of {@link #append(byte[], int, int)} for an ASCII char in an escape state, at index
+     * {@code (state << 7) | char}, in the style of the state machine of the DEC VT500 parser. The chars which make up
+     * most escape sequences, like printable chars, parameters, OSC strings and intermediate chars, are handled by the
+     * append loop directly, while the remaining chars, like the final char of a CSI sequence, are dispatched once per
+     * sequence to {@link #processCodePoint(int)}. The actions must have the same effect as processing the char there.
+     */
+    private static final byte[] ESCAPE_ACTIONS = new byte[ESC_STATES << 7];
+    /** The next state for {@link #ACTION_TRANSITION} and {@link #ACTION_TRANSITION_TO_STRING}, at the same index. */
+    private static final byte[] ESCAPE_TRANSITIONS = new byte[ESC_STATES << 7];
+
+    static {
+        for (int state = 0; state < ESC_STATES; state++) {
+            setEscapeAction(state, 0, ACTION_IGNORE, state);
+            // ESC is ignored in device control strings, since it may be part of the string terminator:
+            if (state == ESC_P) setEscapeAction(state, 27, ACTION_IGNORE, state);
+            else if (state == ESC_OSC) setEscapeAction(state, 27, ACTION_TRANSITION, ESC_OSC_ESC);
+            else setEscapeAction(state, 27, ACTION_START_SEQUENCE, ESC);
+        }
+        for (int c = 32; c < 127; c++)
+            setEscapeAction(ESC_NONE, c, ACTION_PRINT, ESC_NONE);
+
+        for (int state : new int[]{ESC_CSI, ESC_CSI_QUESTIONMARK, ESC_CSI_BIGGERTHAN}) {
+            for (int c = '0'; c <= '9'; c++)
+                setEscapeAction(state, c, ACTION_COLLECT_PARAMETERS, state);
+            setEscapeAction(state, ';', ACTION_COLLECT_PARAMETERS, state);
+        }
+
+        // The C0 controls handled by processCodePoint() end or are executed within an OSC string, the rest are collected:
+        for (int c = 1; c < 128; c++) {
+            if (c != 7 && (c < 8 || c > 15) && c != 24 && c != 26 && c != 27)
+                setEscapeAction(ESC_OSC, c, ACTION_COLLECT_OSC, ESC_OSC);
+        }
+
+        setEscapeAction(ESC, '#', ACTION_TRANSITION, ESC_POUND);
+        setEscapeAction(ESC, '(', ACTION_TRANSITION, ESC_SELECT_LEFT_PAREN);
+        setEscapeAction(ESC, ')', ACTION_TRANSITION, ESC_SELECT_RIGHT_PAREN);
+        setEscapeAction(ESC, '[', ACTION_TRANSITION, ESC_CSI);
+        setEscapeAction(ESC, ']', ACTION_TRANSITION_TO_STRING, ESC_OSC);
+        setEscapeAction(ESC, 'P', ACTION_TRANSITION_TO_STRING, ESC_P);
+        setEscapeAction(ESC_CSI, '!', ACTION_TRANSITION, ESC_CSI_EXCLAMATION);
+        setEscapeAction(ESC_CSI, '"', ACTION_TRANSITION, ESC_CSI_DOUBLE_QUOTE);
+        setEscapeAction(ESC_CSI, '\'', ACTION_TRANSITION, ESC_CSI_SINGLE_QUOTE);
+        setEscapeAction(ESC_CSI, '$', ACTION_TRANSITION, ESC_CSI_DOLLAR);
+        setEscapeAction(ESC_CSI, '*', ACTION_TRANSITION, ESC_CSI_ARGS_ASTERIX);
+        setEscapeAction(ESC_CSI, ' ', ACTION_TRANSITION, ESC_CSI_ARGS_SPACE);
+        setEscapeAction(ESC_CSI, '?', ACTION_TRANSITION, ESC_CSI_QUESTIONMARK);
+        setEscapeAction(ESC_CSI, '>', ACTION_TRANSITION, ESC_CSI_BIGGERTHAN);
+        setEscapeAction(ESC_CSI_QUESTIONMARK, '$', ACTION_TRANSITION, ESC_CSI_QUESTIONMARK_ARG_DOLLAR);
+    }
+
+    private static void setEscapeAction(int state, int c, byte action, int nextState) {
+        ESCAPE_ACTIONS[(state << 7) | c] = action;
+        ESCAPE_TRANSITIONS[(state << 7) | c] = (byte) nextState;
+    }
 
     /** The number of parameter arguments. This name comes from the ANSI standard for terminal escape codes. */
     private static final int MAX_ESCAPE_PARAMETERS = 16;
@@ -121,16 +198,20 @@ public final class TerminalEmulator {
     private static final int DECSET_BIT_LEFTRIGHT_MARGIN_MODE = 1 << 11;
     /** Not really DECSET bit... - http://www.vt100.net/docs/vt510-rm/DECSACE */
     private static final int DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE = 1 << 12;
+    /**
+     * DECSET 2026 - synchronized output, https://gist.github.com/christianparpart/d8a62cc1ab659194337d73e399004036:
+     * the screen is not drawn while it is set, so that a frame written in several parts is drawn at once.
+     * See {@link #getSynchronizedOutputDelayMillis()}.
+     */
+    private static final int DECSET_BIT_SYNCHRONIZED_OUTPUT = 1 << 13;
+
+    /** The maximum time the screen is not drawn for after synchronized output has been set, in case it is never reset. */
+    public static final int SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS = 150;
 
 
     private String mTitle;
     private final Stack<String> mTitleStack = new Stack<>();
 
-    /** If processing first character of first parameter of {@link #ESC_CSI}. */
-    private boolean mIsCSIStart;
-    /** The last character processed of a parameter of {@link #ESC_CSI}. */
-    private Integer mLastCSIArg;
-
     /** The cursor position. Between (0,0) and (mRows-1, mColumns-1). */
     private int mCursorRow, mCursorCol;
 
@@ -166,6 +247,8 @@ public final class TerminalEmulator {
     final TerminalBuffer mAltBuffer;
     /** The current screen buffer, pointing at either {@link #mMainBuffer} or {@link #mAltBuffer}. */
     private TerminalBuffer mScreen;
+    /** The rows of the buffers while hibernating, see {@link #hibernate(File)}, or null. */
+    private volatile TerminalSnapshot mSnapshot;
 
     /** The terminal session this emulator is bound to. */
     private final TerminalOutput mSession;
@@ -199,6 +282,8 @@ public final class TerminalEmulator {
      * @see TerminalEmulator#mapDecSetBitToInternalBit(int)
      */
     private int mCurrentDecSetFlags, mSavedDecSetFlags;
+    /** The {@link System#nanoTime()} at which {@link #DECSET_BIT_SYNCHRONIZED_OUTPUT} was last set. */
+    private long mSynchronizedOutputStartNanos;
 
     /**
      * If insert mode (as opposed to replace mode) is active. In insert mode new characters are inserted, pushing
@@ -255,6 +340,10 @@ public final class TerminalEmulator {
     /** If automatic scrolling of terminal is disabled */
     private boolean mAutoScrollDisabled;
 
+    /** The cursor and screen appearance when {@link #clearDamage()} was last called, see {@link #getDamage()}. */
+    private int mDamageCursorRow, mDamageCursorCol, mDamageCursorStyle;
+    private boolean mDamageCursorVisible, mDamageReverseVideo;
+
     private byte mUtf8ToFollow, mUtf8Index;
     private final byte[] mUtf8InputBuffer = new byte[4];
     private int mLastEmittedCodePoint = -1;
@@ -309,6 +398,8 @@ public final class TerminalEmulator {
                 return DECSET_BIT_MOUSE_PROTOCOL_SGR;
             case 2004:
                 return DECSET_BIT_BRACKETED_PASTE_MODE;
+            case 2026:
+                return DECSET_BIT_SYNCHRONIZED_OUTPUT;
             default:
                 return -1;
             // throw new IllegalArgumentException("Unsupported decset: " + decsetBit);
@@ -340,6 +431,117 @@ public final class TerminalEmulator {
         return mScreen == mAltBuffer;
     }
 
+    /**
+     * Keep the transcript rows which no longer fit in the transcript rows in memory in files in a directory, instead of
+     * dropping them, so that they can still be scrolled back to and searched. The oldest rows are dropped once the files
+     * take up more than maxBytes. See {@link TranscriptSpill}.
+     *
+     * @param directory the directory to keep the files in, which is created if necessary and should not be used for
+     *                  anything else, or null to drop the rows again.
+     * @param maxBytes  the maximum size of the files.
+     */
+    public void setTranscriptSpill(File directory, long maxBytes) throws IOException {
+        closeTranscriptSpill();
+        if (directory != null) mMainBuffer.setTranscriptSpill(new TranscriptSpill(directory, maxBytes));
+    }
+
+    /** Drop the transcript rows kept on disk by {@link #setTranscriptSpill(File, long)}, and delete their files. */
+    public void closeTranscriptSpill() {
+        if (mMainBuffer.mSpill == null) return;
+        mMainBuffer.mSpill.close();
+        mMainBuffer.setTranscriptSpill(null);
+    }
+
+    /** An estimate of the heap memory in bytes used by the main and alternate buffers, see {@link TerminalBuffer#getMemoryUsage()}. */
+    public long getMemoryUsage() {
+        final TerminalSnapshot snapshot = mSnapshot;
+        return mMainBuffer.getMemoryUsage() + mAltBuffer.getMemoryUsage() + (snapshot == null ? 0 : snapshot.getMemoryUsage());
+    }
+
+    /** Release memory which is not needed to keep the contents of the buffers, see {@link TerminalBuffer#compact()}. */
+    public void compact() {
+        mMainBuffer.compact();
+        mAltBuffer.compact();
+    }
+
+    /**
+     * Drop the oldest transcript rows in memory so that at most maxRows of them are left, keeping them on disk if
+     * {@link #setTranscriptSpill(File, long)} is used. See {@link TerminalBuffer#trimTranscript(int)}.
+     */
+    public void trimTranscript(int maxRows) {
+        mMainBuffer.trimTranscript(maxRows);
+    }
+
+    /**
+     * Release the memory used by the rows of the buffers while the emulator is not shown, by keeping them in a
+     * compact {@link TerminalSnapshot} until {@link #rehydrate()}. Output appended in the meantime is kept as it is and
+     * processed by {@link #rehydrate()}, so that the buffers end up the same as if it had been processed right away, but
+     * replies to the process and the callbacks of the client are delayed until then. Resizing the emulator to another
+     * size, resetting it and appending more output than the snapshot keeps rehydrate it.
+     *
+     * @param file the file to move the rows to by {@link #saveSnapshot()}, or null to keep them on the heap.
+     */
+    public void hibernate(File file) {
+        if (mSnapshot == null) mSnapshot = new TerminalSnapshot(file, mMainBuffer, mAltBuffer);
+    }
+
+    public boolean isHibernating() {
+        return mSnapshot != null;
+    }
+
+    /**
+     * Move the rows kept by {@link #hibernate(File)} to its file, if hibernating. This does not need the lock of the
+     * emulator, so that the file may be written on a background thread. The rows are kept on the heap if the file
+     * cannot be written.
+     */
+    public void saveSnapshot() throws IOException {
+        final TerminalSnapshot snapshot = mSnapshot;
+        if (snapshot != null) snapshot.writeRows();
+    }
+
+    /**
+     * Read the rows moved to a file by {@link #saveSnapshot()} back, if hibernating, so that {@link #rehydrate()} does not
+     * have to read the file. Like {@link #saveSnapshot()}, this does not need the lock of the emulator.
+     */
+    public void loadSnapshot() throws IOException {
+        final TerminalSnapshot snapshot = mSnapshot;
+        if (snapshot != null) snapshot.loadRows();
+    }
+
+    /**
+     * Restore the rows kept by {@link #hibernate(File)}, and process the output appended since, if hibernating. If the
+     * rows cannot be restored, as their file has been deleted, a notice is shown above the output instead.
+     */
+    public void rehydrate() {
+        final TerminalSnapshot snapshot = mSnapshot;
+        if (snapshot == null) return;
+        mSnapshot = null;
+        try {
+            snapshot.restoreBuffers(mMainBuffer, mAltBuffer);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to restore the rows of the hibernated terminal", e);
+            final byte[] notice = "\r\n[Failed to restore the screen and the transcript of the session]\r\n".getBytes(StandardCharsets.UTF_8);
+            append(notice, notice.length);
+        }
+        snapshot.replayOutput(this);
+        snapshot.delete();
+    }
+
+    /** Drop the rows kept by {@link #hibernate(File)} without restoring them, and delete their files, once the emulator is no longer used. */
+    public void closeSnapshot() {
+        final TerminalSnapshot snapshot = mSnapshot;
+        if (snapshot == null) return;
+        mSnapshot = null;
+        snapshot.delete();
+    }
+
+    /** Keep output appended while hibernating, returning false if it should be processed instead. */
+    private boolean appendWhileHibernating(byte[] buffer, int offset, int length) {
+        if (mSnapshot.appendOutput(buffer, offset, length)) return true;
+        rehydrate();
+        return false;
+    }
+
     private int getTerminalTranscriptRows(Integer transcriptRows) {
         if (transcriptRows == null || transcriptRows < TERMINAL_TRANSCRIPT_ROWS_MIN || transcriptRows > TERMINAL_TRANSCRIPT_ROWS_MAX)
             return DEFAULT_TERMINAL_TRANSCRIPT_ROWS;
@@ -374,7 +576,9 @@ public final class TerminalEmulator {
     public void resize(int columns, int rows) {
         if (mRows == rows && mColumns == columns) {
             return;
-        } else if (columns < 2 || rows < 2) {
+        }
+        rehydrate();
+        if (columns < 2 || rows < 2) {
             throw new IllegalArgumentException("rows=" + rows + ", columns=" + columns);
         }
 
@@ -438,6 +642,21 @@ public final class TerminalEmulator {
 
 
 
+    /**
+     * The time in milliseconds until the screen should be drawn, while the application is writing a frame with
+     * synchronized output (DECSET 2026) set, or 0 if it can be drawn now as synchronized output is not set or has been
+     * set for longer than {@link #SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS}.
+     */
+    public long getSynchronizedOutputDelayMillis() {
+        if (!isDecsetInternalBitSet(DECSET_BIT_SYNCHRONIZED_OUTPUT)) return 0;
+        final long remainingNanos = SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS * 1_000_000L - (System.nanoTime() - mSynchronizedOutputStartNanos);
+        return (remainingNanos <= 0) ? 0 : (remainingNanos + 999_999) / 1_000_000;
+    }
+
+    public boolean isSynchronizingOutput() {
+        return getSynchronizedOutputDelayMillis() > 0;
+    }
+
     public boolean isCursorEnabled() {
         return isDecsetInternalBitSet(DECSET_BIT_CURSOR_ENABLED);
     }
@@ -483,8 +702,184 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
+        append(buffer, 0, length);
+    }
+
+    /**
+     * Accept bytes (typically from the pseudo-teletype) starting at an offset and process them in place.
+     *
+     * @param buffer a byte array containing the bytes to be processed
+     * @param offset the index of the first byte in the array to process
+     * @param length the number of bytes in the array to process
+     */
+    public void append(byte[] buffer, int offset, int length) {
+        if (mSnapshot != null && appendWhileHibernating(buffer, offset, length)) return;
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            final byte b = buffer[i];
+            if (b < 0 || mUtf8ToFollow != 0) {
+                // Bytes of UTF-8 sequences are decoded before being processed.
+                processByte(b);
+                i++;
+                continue;
+            }
+
+            final int index = (mEscapeState << 7) | b;
+            switch (ESCAPE_ACTIONS[index]) {
+                case ACTION_PRINT:
+                    i += emitAsciiRun(buffer, i, end);
+                    break;
+                case ACTION_COLLECT_PARAMETERS:
+                    i = collectParameters(buffer, i, end);
+                    break;
+                case ACTION_COLLECT_OSC:
+                    i = collectOscString(buffer, i, end);
+                    break;
+                case ACTION_IGNORE:
+                    i++;
+                    break;
+                case ACTION_START_SEQUENCE:
+                    startEscapeSequence();
+                    i++;
+                    break;
+                case ACTION_TRANSITION_TO_STRING:
+                    mOSCOrDeviceControlArgs.setLength(0);
+                    mEscapeState = ESCAPE_TRANSITIONS[index];
+                    i++;
+                    break;
+                case ACTION_TRANSITION:
+                    mEscapeState = ESCAPE_TRANSITIONS[index];
+                    i++;
+                    break;
+                case ACTION_DISPATCH:
+                default:
+                    if (mEscapeState == ESC_NONE && b >= 10 && b <= 12) {
+                        i = doLinefeeds(buffer, i, end);
+                        break;
+                    }
+                    processCodePoint(b);
+                    i++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Collect a run of parameter digits and separators of a CSI sequence into {@link #mArgs}, staying in the current
+     * escape state, as {@link #parseArg(int)} does for each of them.
+     *
+     * @return The index of the first byte after the run.
+     */
+    private int collectParameters(byte[] buffer, int start, int end) {
+        int i = start;
+        while (i < end && isParameterChar(buffer[i]))
+            collectParameterChar(buffer[i++]);
+        return i;
+    }
+
+    /**
+     * Collect a run of chars of an OSC string into {@link #mOSCOrDeviceControlArgs}, as {@link #collectOSCArgs(int)}
+     * does for each of them.
+     *
+     * @return The index of the first byte after the run.
+     */
+    private int collectOscString(byte[] buffer, int start, int end) {
+        final StringBuilder args = mOSCOrDeviceControlArgs;
+        int i = start;
+        while (i < end) {
+            final byte b = buffer[i];
+            if (b < 0 || ESCAPE_ACTIONS[(ESC_OSC << 7) | b] != ACTION_COLLECT_OSC) break;
+            i++;
+            if (args.length() >= MAX_OSC_STRING_LENGTH) {
+                unknownSequence(b);
+                finishSequence();
+                break;
+            }
+            args.append((char) b);
+        }
+        return i;
+    }
+
+    /**
+     * Fast path for {@link #append(byte[], int, int)} when not in an escape sequence, which processes a run of line
+     * feeds and carriage returns as {@link #processCodePoint(int)} does for each of them, but scrolls the lines which
+     * the line feeds scroll at the bottom margin at once with {@link #scrollDown(int)}. The order does not matter, as
+     * carriage returns only move the cursor to the left margin and line feeds only change the cursor row.
+     *
+     * @return The index of the first byte after the run.
+     */
+    private int doLinefeeds(byte[] buffer, int start, int end) {
+        int linefeeds = 0;
+        boolean carriageReturn = false;
+        int i = start;
+        for (; i < end; i++) {
+            final byte b = buffer[i];
+            if (b >= 10 && b <= 12) {
+                linefeeds++;
+            } else if (b == 13) {
+                carriageReturn = true;
+            } else {
+                break;
+            }
+        }
+        doLinefeed(linefeeds);
+        if (carriageReturn) setCursorCol(mLeftMargin);
+        return i;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
+    }
+
+    /**
+     * Fast path for {@link #append(byte[], int, int)} when not in an escape sequence, which writes a run
+     * of printable ASCII chars to the cursor row in bulk instead of calling {@link #emitCodePoint(int)}
+     * for each of them. Chars written while the cursor is in the last column, where autowrap happens,
+     * or while the line drawing charset is active still go through {@link #emitCodePoint(int)}.
+     *
+     * @return The number of bytes consumed, which is at least one.
+     */
+    private int emitAsciiRun(byte[] buffer, int start, int end) {
+        int runEnd = start + 1;
+        while (runEnd < end && isPrintableAscii(buffer[runEnd])) runEnd++;
+
+        mContinueSequence = false;
+        if (mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1) {
+            for (int i = start; i < runEnd; i++)
+                emitCodePoint(buffer[i]);
+            return runEnd - start;
+        }
+
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        final long style = getStyle();
+        int i = start;
+        while (i < runEnd) {
+            if (mCursorCol >= mRightMargin - 1 || mCursorCol < 0) {
+                // Let emitCodePoint() handle autowrap, and a cursor outside the screen.
+                emitCodePoint(buffer[i++]);
+                continue;
+            }
+
+            // The cursor is before the last column, so there is no pending autowrap and the run
+            // can be written up to and including the last column.
+            final int count = Math.min(runEnd - i, mRightMargin - mCursorCol);
+            if (mInsertMode) {
+                // Move characters to the right once for the whole run.
+                int destCol = mCursorCol + count;
+                if (destCol < mRightMargin)
+                    mScreen.blockCopy(mCursorCol, mCursorRow, mRightMargin - destCol, 1, destCol, mCursorRow);
+            }
+            mScreen.setAsciiChars(mCursorCol, mCursorRow, buffer, i, count, style);
+            i += count;
+
+            final int lastColumn = mCursorCol + count - 1;
+            if (autoWrap)
+                mAboutToAutoWrap = (lastColumn == mRightMargin - 1);
+            mCursorCol = Math.min(lastColumn + 1, mRightMargin - 1);
+            mLastEmittedCodePoint = buffer[i - 1];
+        }
+        return runEnd - start;
     }
 
     private void processByte(byte byteToProcess) {
@@ -587,7 +982,7 @@ public final class TerminalEmulator {
             case 10: // Line feed (LF, \n).
             case 11: // Vertical tab (VT, \v).
             case 12: // Form feed (FF, \f).
-                doLinefeed();
+                doLinefeed(1);
                 break;
             case 13: // Carriage return (CR, \r).
                 setCursorCol(mLeftMargin);
@@ -1102,6 +1497,9 @@ public final class TerminalEmulator {
 
     public void doDecSetOrReset(boolean setting, int externalBit) {
         int internalBit = mapDecSetBitToInternalBit(externalBit);
+        // The timeout of synchronized output starts when it is set, and is not extended by setting it again:
+        if (internalBit == DECSET_BIT_SYNCHRONIZED_OUTPUT && setting && !isDecsetInternalBitSet(internalBit))
+            mSynchronizedOutputStartNanos = System.nanoTime();
         if (internalBit != -1) {
             setDecsetinternalBit(internalBit, setting);
         }
@@ -1134,8 +1532,7 @@ public final class TerminalEmulator {
             case 9: // X10 mouse reporting - outdated. Do not implement.
             case 12: // Control cursor blinking - ignore.
             case 25: // Hide/show cursor - no action needed, renderer will check with shouldCursorBeVisible().
-                if (mClient != null)
-                    mClient.onTerminalCursorStateChange(setting);
+                mSession.onTerminalCursorStateChange(setting);
                 break;
             case 40: // Allow 80 => 132 Mode, ignore.
             case 45: // TODO: Reverse wrap-around. Implement???
@@ -1173,6 +1570,7 @@ public final class TerminalEmulator {
                     boolean resized = !(newScreen.mColumns == mColumns && newScreen.mScreenRows == mRows);
                     if (setting) saveCursor();
                     mScreen = newScreen;
+                    mScreen.mDamage.damageAll();
                     if (!setting) {
                         int col = mSavedStateMain.mSavedCursorCol;
                         int row = mSavedStateMain.mSavedCursorRow;
@@ -1194,6 +1592,9 @@ public final class TerminalEmulator {
             case 2004:
                 // Bracketed paste mode - setting bit is enough.
                 break;
+            case 2026:
+                // Synchronized output - setting bit is enough, see getSynchronizedOutputDelayMillis().
+                break;
             default:
                 unknownParameter(externalBit);
                 break;
@@ -1286,20 +1687,18 @@ public final class TerminalEmulator {
         Arrays.fill(mArgs, -1);
     }
 
-    private void doLinefeed() {
+    private void doLinefeed(int linefeeds) {
         boolean belowScrollingRegion = mCursorRow >= mBottomMargin;
-        int newCursorRow = mCursorRow + 1;
         if (belowScrollingRegion) {
             // Move down (but not scroll) as long as we are above the last row.
             if (mCursorRow != mRows - 1) {
-                setCursorRow(newCursorRow);
+                setCursorRow(Math.min(mCursorRow + linefeeds, mRows - 1));
             }
         } else {
-            if (newCursorRow == mBottomMargin) {
-                scrollDownOneLine();
-                newCursorRow = mBottomMargin - 1;
-            }
-            setCursorRow(newCursorRow);
+            // Scroll once for all the line feeds beyond the bottom margin:
+            int rowsToBottomMargin = mBottomMargin - 1 - mCursorRow;
+            if (linefeeds > rowsToBottomMargin) scrollDown(linefeeds - rowsToBottomMargin);
+            setCursorRow(Math.min(mCursorRow + linefeeds, mBottomMargin - 1));
         }
     }
 
@@ -1362,11 +1761,11 @@ public final class TerminalEmulator {
                 setCursorPosition(0, 0);
                 break;
             case 'D': // INDEX
-                doLinefeed();
+                doLinefeed(1);
                 break;
             case 'E': // Next line (http://www.vt100.net/docs/vt510-rm/NEL).
                 setCursorCol(isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE) ? mLeftMargin : 0);
-                doLinefeed();
+                doLinefeed(1);
                 break;
             case 'F': // Cursor to lower-left corner of screen
                 setCursorRowCol(0, mBottomMargin - 1);
@@ -1393,8 +1792,6 @@ public final class TerminalEmulator {
                 break;
             case '[':
                 continueSequence(ESC_CSI);
-                mIsCSIStart = true;
-                mLastCSIArg = null;
                 break;
             case '=': // DECKPAM
                 setDecsetinternalBit(DECSET_BIT_APPLICATION_KEYPAD, true);
@@ -1573,9 +1970,7 @@ public final class TerminalEmulator {
             }
             break;
             case 'S': { // "${CSI}${N}S" - scroll up ${N} lines (default = 1) (SU).
-                final int linesToScroll = getArg0(1);
-                for (int i = 0; i < linesToScroll; i++)
-                    scrollDownOneLine();
+                scrollDown(getArg0(1));
                 break;
             }
             case 'T':
@@ -1900,12 +2295,12 @@ public final class TerminalEmulator {
     /** An Operating System Controls (OSC) Set Text Parameters. May come here from BEL or ST. */
     private void doOscSetTextParameters(String bellOrStringTerminator) {
         int value = -1;
-        String textParameter = "";
+        int textParameterStart = mOSCOrDeviceControlArgs.length();
         // Extract initial $value from initial "$value;..." string.
         for (int mOSCArgTokenizerIndex = 0; mOSCArgTokenizerIndex < mOSCOrDeviceControlArgs.length(); mOSCArgTokenizerIndex++) {
             char b = mOSCOrDeviceControlArgs.charAt(mOSCArgTokenizerIndex);
             if (b == ';') {
-                textParameter = mOSCOrDeviceControlArgs.substring(mOSCArgTokenizerIndex + 1);
+                textParameterStart = mOSCArgTokenizerIndex + 1;
                 break;
             } else if (b >= '0' && b <= '9') {
                 value = ((value < 0) ? 0 : value * 10) + (b - '0');
@@ -1915,12 +2310,19 @@ public final class TerminalEmulator {
             }
         }
 
+        // Shells may set the title on every prompt, so it is only copied out of the arguments if it has changed, and
+        // the text parameter only for the less frequent sequences which use it:
+        if (value >= 0 && value <= 2) {
+            // Change icon name and/or window title to T.
+            if (!oscTextParameterEquals(textParameterStart, mTitle))
+                setTitle(mOSCOrDeviceControlArgs.substring(textParameterStart));
+            finishSequence();
+            return;
+        }
+        final String textParameter = (value == 4 || (value >= 10 && value <= 12) || value == 52 || value == 104)
+            ? mOSCOrDeviceControlArgs.substring(textParameterStart) : "";
+
         switch (value) {
-            case 0: // Change icon name and window title to T.
-            case 1: // Change icon name to T.
-            case 2: // Change window title to T.
-                setTitle(textParameter);
-                break;
             case 4:
                 // P s = 4 ; c ; spec → Change Color Number c to the color specified by spec. This can be a name or RGB
                 // specification as per XParseColor. Any number of c name pairs may be given. The color numbers correspond
@@ -1943,7 +2345,7 @@ public final class TerminalEmulator {
                                 return;
                             } else {
                                 mColors.tryParseColor(colorIndex, textParameter.substring(parsingPairStart, i));
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                                 colorIndex = -1;
                                 parsingPairStart = -1;
                             }
@@ -1979,7 +2381,7 @@ public final class TerminalEmulator {
                                     + String.format(Locale.US, "%04x", b) + bellOrStringTerminator);
                             } else {
                                 mColors.tryParseColor(specialIndex, colorSpec);
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                             }
                             specialIndex++;
                             if (endOfInput || (specialIndex > TextStyle.COLOR_INDEX_CURSOR) || ++charIndex >= textParameter.length())
@@ -2007,7 +2409,7 @@ public final class TerminalEmulator {
                 // parameters are given, the entire table will be reset.
                 if (textParameter.isEmpty()) {
                     mColors.reset();
-                    mSession.onColorsChanged();
+                    onColorsChanged();
                 } else {
                     int lastIndex = 0;
                     for (int charIndex = 0; ; charIndex++) {
@@ -2016,7 +2418,7 @@ public final class TerminalEmulator {
                             try {
                                 int colorToReset = Integer.parseInt(textParameter.substring(lastIndex, charIndex));
                                 mColors.reset(colorToReset);
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                                 if (endOfInput) break;
                                 charIndex++;
                                 lastIndex = charIndex;
@@ -2031,7 +2433,7 @@ public final class TerminalEmulator {
             case 111: // Reset background color.
             case 112: // Reset cursor color.
                 mColors.reset(TextStyle.COLOR_INDEX_FOREGROUND + (value - 110));
-                mSession.onColorsChanged();
+                onColorsChanged();
                 break;
             case 119: // Reset highlight color.
                 break;
@@ -2042,6 +2444,15 @@ public final class TerminalEmulator {
         finishSequence();
     }
 
+    /** If the text parameter of the OSC sequence starting at an index of the arguments is the same as a string. */
+    private boolean oscTextParameterEquals(int start, String text) {
+        final StringBuilder args = mOSCOrDeviceControlArgs;
+        if (text == null || args.length() - start != text.length()) return false;
+        for (int i = 0; i < text.length(); i++)
+            if (args.charAt(start + i) != text.charAt(i)) return false;
+        return true;
+    }
+
     private void blockClear(int sx, int sy, int w) {
         blockClear(sx, sy, w, 1);
     }
@@ -2090,15 +2501,18 @@ public final class TerminalEmulator {
         setCursorRowCol(newRow, newCol);
     }
 
-    private void scrollDownOneLine() {
-        mScrollCounter++;
+    /** Scroll the lines between the margins down, moving them up on the screen, as consecutive line feeds would. */
+    private void scrollDown(int lines) {
+        mScrollCounter += lines;
         if (mLeftMargin != 0 || mRightMargin != mColumns) {
             // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
-            mScreen.blockCopy(mLeftMargin, mTopMargin + 1, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - 1, mLeftMargin, mTopMargin);
-            // .. and blank bottom row between margins:
-            mScreen.blockSet(mLeftMargin, mBottomMargin - 1, mRightMargin - mLeftMargin, 1, ' ', mEffect);
+            final int linesBetweenMargins = mBottomMargin - mTopMargin;
+            final int linesToScroll = Math.min(lines, linesBetweenMargins);
+            mScreen.blockCopy(mLeftMargin, mTopMargin + linesToScroll, mRightMargin - mLeftMargin, linesBetweenMargins - linesToScroll, mLeftMargin, mTopMargin);
+            // .. and blank bottom rows between margins:
+            mScreen.blockSet(mLeftMargin, mBottomMargin - linesToScroll, mRightMargin - mLeftMargin, linesToScroll, ' ', mEffect);
         } else {
-            mScreen.scrollDownOneLine(mTopMargin, mBottomMargin, getStyle());
+            mScreen.scrollDown(mTopMargin, mBottomMargin, lines, getStyle());
         }
     }
 
@@ -2116,43 +2530,30 @@ public final class TerminalEmulator {
      * https://vt100.net/docs/vt510-rm/chapter4.html#S4.3.3
      * */
     private void parseArg(int inputByte) {
-        int[] bytes = new int[]{inputByte};
-        // Only doing this for ESC_CSI and not for other ESC_CSI_* since they seem to be using their
-        // own defaults with getArg*() calls, but there may be missed cases
-        if (mEscapeState == ESC_CSI) {
-            if ((mIsCSIStart && inputByte == ';') || // If sequence starts with a ; character, like \033[;m
-                (!mIsCSIStart && mLastCSIArg != null && mLastCSIArg == ';'  && inputByte == ';')) {  // If sequence contains sequential ; characters, like \033[;;m
-                bytes = new int[]{'0', ';'}; // Assume 0 was passed
-            }
+        if (isParameterChar(inputByte)) {
+            collectParameterChar(inputByte);
+            continueSequence(mEscapeState);
+        } else {
+            unknownSequence(inputByte);
         }
+    }
 
-        mIsCSIStart = false;
+    private static boolean isParameterChar(int b) {
+        return (b >= '0' && b <= '9') || b == ';';
+    }
 
-        for (int b : bytes) {
-            if (b >= '0' && b <= '9') {
-                if (mArgIndex < mArgs.length) {
-                    int oldValue = mArgs[mArgIndex];
-                    int thisDigit = b - '0';
-                    int value;
-                    if (oldValue >= 0) {
-                        value = oldValue * 10 + thisDigit;
-                    } else {
-                        value = thisDigit;
-                    }
-                    if (value > 9999)
-                        value = 9999;
-                    mArgs[mArgIndex] = value;
-                }
-                continueSequence(mEscapeState);
-            } else if (b == ';') {
-                if (mArgIndex < mArgs.length) {
-                    mArgIndex++;
-                }
-                continueSequence(mEscapeState);
-            } else {
-                unknownSequence(b);
-            }
-            mLastCSIArg = b;
+    /** Add a parameter digit to the current argument, or start the next argument on a ; separator. */
+    private void collectParameterChar(int b) {
+        if (mArgIndex >= mArgs.length) return;
+        if (b == ';') {
+            // Only doing this for ESC_CSI and not for other ESC_CSI_* since they seem to be using their
+            // own defaults with getArg*() calls, but there may be missed cases. An empty parameter, like in
+            // \033[;m or \033[1;;m, is then assumed to be 0:
+            if (mEscapeState == ESC_CSI && mArgs[mArgIndex] < 0) mArgs[mArgIndex] = 0;
+            mArgIndex++;
+        } else {
+            int value = Math.max(mArgs[mArgIndex], 0) * 10 + (b - '0');
+            mArgs[mArgIndex] = Math.min(value, 9999);
         }
     }
 
@@ -2182,17 +2583,18 @@ public final class TerminalEmulator {
     }
 
     private void unimplementedSequence(int b) {
-        logError("Unimplemented sequence char '" + (char) b + "' (U+" + String.format("%04x", b) + ")");
+        // The error message is only built if logged, as applications may send such sequences often:
+        if (LOG_ESCAPE_SEQUENCES) logError("Unimplemented sequence char '" + (char) b + "' (U+" + String.format("%04x", b) + ")");
         finishSequence();
     }
 
     private void unknownSequence(int b) {
-        logError("Unknown sequence char '" + (char) b + "' (numeric value=" + b + ")");
+        if (LOG_ESCAPE_SEQUENCES) logError("Unknown sequence char '" + (char) b + "' (numeric value=" + b + ")");
         finishSequence();
     }
 
     private void unknownParameter(int parameter) {
-        logError("Unknown parameter: " + parameter);
+        if (LOG_ESCAPE_SEQUENCES) logError("Unknown parameter: " + parameter);
         finishSequence();
     }
 
@@ -2353,7 +2755,7 @@ public final class TerminalEmulator {
                 if (mCursorRow + 1 < mBottomMargin) {
                     mCursorRow++;
                 } else {
-                    scrollDownOneLine();
+                    scrollDown(1);
                 }
             }
         } else if (cursorInLastColumn && displayWidth == 2) {
@@ -2415,6 +2817,33 @@ public final class TerminalEmulator {
         mScrollCounter = 0;
     }
 
+    /**
+     * Get the damage of the current screen since {@link #clearDamage()} was last called, which includes the cells of
+     * the cursor if it has moved, been shown, hidden or changed style since then.
+     */
+    public TerminalDamage getDamage() {
+        final TerminalDamage damage = mScreen.mDamage;
+        if (isReverseVideo() != mDamageReverseVideo) damage.damageAll();
+        final boolean cursorVisible = shouldCursorBeVisible();
+        if (cursorVisible != mDamageCursorVisible || mCursorRow != mDamageCursorRow || mCursorCol != mDamageCursorCol
+            || mCursorStyle != mDamageCursorStyle) {
+            // The cursor covers all of a wide char, which may start at the column before the cursor:
+            if (mDamageCursorVisible) damage.damage(mDamageCursorRow, mDamageCursorCol - 1, mDamageCursorCol + 2);
+            if (cursorVisible) damage.damage(mCursorRow, mCursorCol - 1, mCursorCol + 2);
+        }
+        return damage;
+    }
+
+    /** Clear the damage of the current screen after it has been drawn. */
+    public void clearDamage() {
+        mScreen.mDamage.clear();
+        mDamageCursorRow = mCursorRow;
+        mDamageCursorCol = mCursorCol;
+        mDamageCursorStyle = mCursorStyle;
+        mDamageCursorVisible = shouldCursorBeVisible();
+        mDamageReverseVideo = isReverseVideo();
+    }
+
     public boolean isAutoScrollDisabled() {
         return mAutoScrollDisabled;
     }
@@ -2426,6 +2855,7 @@ public final class TerminalEmulator {
 
     /** Reset terminal state so user can interact with it regardless of present state. */
     public void reset() {
+        rehydrate();
         setCursorStyle();
         mArgIndex = 0;
         mContinueSequence = false;
@@ -2454,6 +2884,12 @@ public final class TerminalEmulator {
         mUtf8Index = mUtf8ToFollow = 0;
 
         mColors.reset();
+        onColorsChanged();
+    }
+
+    /** Notify the session that the colors have changed, which changes the appearance of all of the screen. */
+    private void onColorsChanged() {
+        mScreen.mDamage.damageAll();
         mSession.onColorsChanged();
     }
 
@@ -6,6 +6,11 @@ import java.util.Arrays;
  * A row in a terminal, composed of a fixed number of cells.
  * <p>
  * The text in the row is stored in a char[] array, {@link #mText}, for quick access during rendering.
+ * <p>
+ * The styles of the cells are stored as runs of cells with the same style, since most rows only have a few of them,
+ * and are only stored for each cell if the row gets too fragmented, see {@link #mStyle}.
+ * <p>
+ * Rows in the transcript are frozen into a compact form, see {@link #freeze()}.
  */
 public final class TerminalRow {
 
@@ -37,6 +42,12 @@ public final class TerminalRow {
      */
     private static final int MAX_COMBINING_CHARACTERS_PER_COLUMN = 15;
 
+    /** The max number of style runs in a row before switching to storing the style of each cell in {@link #mStyle}. */
+    private static final int MAX_STYLE_RUNS = 32;
+
+    /** The estimated size in bytes of a row object and of an array without its elements, see {@link #getMemoryUsage()}. */
+    static final int OBJECT_SIZE = 48, ARRAY_HEADER_SIZE = 16;
+
     /** The number of columns in this terminal row. */
     private final int mColumns;
     /** The text filling this terminal row. */
@@ -45,26 +56,84 @@ public final class TerminalRow {
     private short mSpaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean mLineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] mStyle;
+    /**
+     * The style bits of each cell in the row if the row has more than {@link #MAX_STYLE_RUNS} style runs,
+     * otherwise null and the styles are stored in {@link #mRunStyles}. See {@link TextStyle}.
+     */
+    long[] mStyle;
+    /** The style of each run of cells with the same style, adjacent runs never have the same style. */
+    private long[] mRunStyles;
+    /** The column after the last cell of each run of {@link #mRunStyles}, the last run always ends at {@link #mColumns}. */
+    private short[] mRunEnds;
+    /** The number of runs in {@link #mRunStyles}, or 0 if {@link #mStyle} is used. */
+    private int mRunCount;
+    /**
+     * The array of {@link #mStyle} kept after the row went back to style runs, so that a row which is fragmented again
+     * and again, like one with rainbow colored text which is redrawn, does not allocate a new array each time.
+     */
+    private long[] mSpareStyle;
+    /**
+     * A copy of {@link #mText} and of the style of each cell taken when copying an interval within this row, kept so
+     * that inserting and deleting chars in a row with wide chars does not allocate a copy on every key press.
+     */
+    private char[] mCopyText;
+    private long[] mCopyStyle;
     /** If this row might contain chars with width != 1, used for deactivating fast path */
     boolean mHasNonOneWidthOrSurrogateChars;
+    /**
+     * The index in {@link #mText} of the char displayed in each column, where the second half of a
+     * wide char maps to the start of the wide char. Only used when {@link #mHasNonOneWidthOrSurrogateChars}
+     * is set, since the index is the column itself otherwise. It is allocated lazily and computed on
+     * demand, and only the first {@link #mColumnStartIndexValid} columns of it are up to date.
+     */
+    private short[] mColumnStartIndex;
+    /** The number of up to date columns in {@link #mColumnStartIndex}, which always ends at a column boundary. */
+    private int mColumnStartIndexValid;
+    /** The contents of this row while it is frozen, in which case {@link #mText} and the style arrays are null. */
+    private FrozenTerminalRow mFrozen;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
         mColumns = columns;
         mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        mStyle = new long[columns];
         clear(style);
     }
 
+    /** Construct a frozen row, see {@link #freeze()}. */
+    private TerminalRow(FrozenTerminalRow frozen, boolean lineWrap) {
+        mColumns = frozen.getColumns();
+        mSpaceUsed = (short) frozen.getSpaceUsed();
+        mHasNonOneWidthOrSurrogateChars = frozen.hasNonOneWidthOrSurrogateChars();
+        mLineWrap = lineWrap;
+        mFrozen = frozen;
+    }
+
     /** NOTE: The sourceX2 is exclusive. */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
+        if (!mHasNonOneWidthOrSurrogateChars && !line.mHasNonOneWidthOrSurrogateChars) {
+            // Fast path when both rows only contain chars with width 1, where the char index is the column.
+            System.arraycopy(line.mText, sourceX1, mText, destinationX, sourceX2 - sourceX1);
+            copyStyleRuns(line, sourceX1, sourceX2, destinationX);
+            return;
+        }
+
         mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
         final int x1 = line.findStartOfColumn(sourceX1);
         final int x2 = line.findStartOfColumn(sourceX2);
         boolean startingFromSecondHalfOfWideChar = (sourceX1 > 0 && line.wideDisplayCharacterStartingAt(sourceX1 - 1));
-        final char[] sourceChars = (this == line) ? Arrays.copyOf(line.mText, line.mText.length) : line.mText;
+        final char[] sourceChars;
+        final long[] sourceStyles;
+        if (this == line) {
+            // Copying within this row would overwrite chars and styles before they are copied, so copy from a copy.
+            if (mCopyText == null || mCopyText.length < mSpaceUsed) mCopyText = new char[mText.length];
+            if (mCopyStyle == null) mCopyStyle = new long[mColumns];
+            System.arraycopy(mText, 0, mCopyText, 0, mSpaceUsed);
+            sourceChars = mCopyText;
+            sourceStyles = copyStylesTo(mCopyStyle);
+        } else {
+            sourceChars = line.mText;
+            sourceStyles = null;
+        }
         int latestNonCombiningWidth = 0;
         for (int i = x1; i < x2; i++) {
             char sourceChar = sourceChars[i];
@@ -80,7 +149,29 @@ public final class TerminalRow {
                 sourceX1 += latestNonCombiningWidth;
                 latestNonCombiningWidth = w;
             }
-            setChar(destinationX, codePoint, line.getStyle(sourceX1));
+            setChar(destinationX, codePoint, (sourceStyles == null) ? line.getStyle(sourceX1) : sourceStyles[sourceX1]);
+        }
+    }
+
+    int getColumns() {
+        return mColumns;
+    }
+
+    /** Copy the styles of an interval of columns a style run at a time. NOTE: The sourceX2 is exclusive. */
+    private void copyStyleRuns(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
+        final int offset = destinationX - sourceX1;
+        if (this == line && offset > 0) {
+            // Copying to the right within this row would overwrite styles before they are copied, so copy the runs
+            // from the right, where only columns to the right of the runs left to copy are overwritten.
+            for (int x = sourceX2, start; x > sourceX1; x = start) {
+                start = Math.max(getStyleRunStart(x - 1), sourceX1);
+                setStyles(start + offset, x + offset, getStyle(x - 1));
+            }
+        } else {
+            for (int x = sourceX1, end; x < sourceX2; x = end) {
+                end = Math.min(line.getStyleRunEnd(x), sourceX2);
+                setStyles(x + offset, end + offset, line.getStyle(x));
+            }
         }
     }
 
@@ -91,69 +182,201 @@ public final class TerminalRow {
     /** Note that the column may end of second half of wide character. */
     public int findStartOfColumn(int column) {
         if (column == mColumns) return getSpaceUsed();
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
+        if (column >= mColumnStartIndexValid) updateColumnStartIndex(column);
+        return mColumnStartIndex[column];
+    }
+
+    /** Extend the up to date part of {@link #mColumnStartIndex} to include the specified column. */
+    private void updateColumnStartIndex(int column) {
+        if (mColumnStartIndex == null) mColumnStartIndex = new short[mColumns];
+        final short[] columnStartIndex = mColumnStartIndex;
+        final char[] text = mText;
 
-        int currentColumn = 0;
+        int currentColumn = mColumnStartIndexValid;
         int currentCharIndex = 0;
-        while (true) { // 0<2 1 < 2
-            int newCharIndex = currentCharIndex;
-            char c = mText[newCharIndex++]; // cci=1, cci=2
-            boolean isHigh = Character.isHighSurrogate(c);
-            int codePoint = isHigh ? Character.toCodePoint(c, mText[newCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint); // 1, 2
-            if (wcwidth > 0) {
-                currentColumn += wcwidth;
-                if (currentColumn == column) {
-                    while (newCharIndex < mSpaceUsed) {
-                        // Skip combining chars.
-                        if (Character.isHighSurrogate(mText[newCharIndex])) {
-                            if (WcWidth.width(Character.toCodePoint(mText[newCharIndex], mText[newCharIndex + 1])) <= 0) {
-                                newCharIndex += 2;
-                            } else {
-                                break;
-                            }
-                        } else if (WcWidth.width(mText[newCharIndex]) <= 0) {
-                            newCharIndex++;
-                        } else {
-                            break;
-                        }
-                    }
-                    return newCharIndex;
-                } else if (currentColumn > column) {
-                    // Wide column going past end.
-                    return currentCharIndex;
+        if (currentColumn > 0) {
+            // Continue after the char in the last up to date column, which ends at a column boundary.
+            currentCharIndex = columnStartIndex[currentColumn - 1];
+            currentCharIndex += Character.isHighSurrogate(text[currentCharIndex]) ? 2 : 1;
+        }
+
+        while (currentColumn <= column) {
+            int codePoint;
+            int wcwidth;
+            while (true) {
+                if (currentCharIndex >= mSpaceUsed) {
+                    // The text ends before the last column.
+                    Arrays.fill(columnStartIndex, currentColumn, mColumns, mSpaceUsed);
+                    mColumnStartIndexValid = mColumns;
+                    return;
                 }
+                // Skip combining chars.
+                char c = text[currentCharIndex];
+                codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[currentCharIndex + 1]) : c;
+                wcwidth = WcWidth.width(codePoint);
+                if (wcwidth > 0) break;
+                currentCharIndex += Character.charCount(codePoint);
             }
-            currentCharIndex = newCharIndex;
+
+            int nextColumn = Math.min(currentColumn + wcwidth, mColumns);
+            while (currentColumn < nextColumn)
+                columnStartIndex[currentColumn++] = (short) currentCharIndex;
+            currentCharIndex += Character.charCount(codePoint);
         }
+        mColumnStartIndexValid = currentColumn;
     }
 
-    private boolean wideDisplayCharacterStartingAt(int column) {
-        for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
-            char c = mText[currentCharIndex++];
-            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint);
-            if (wcwidth > 0) {
-                if (currentColumn == column && wcwidth == 2) return true;
-                currentColumn += wcwidth;
-                if (currentColumn > column) return false;
-            }
+    /** Mark {@link #mColumnStartIndex} as out of date from the specified column. */
+    private void invalidateColumnStartIndex(int column) {
+        if (column < mColumnStartIndexValid) {
+            // Keep the up to date part ending at a column boundary instead of in the middle of a wide char.
+            while (column > 0 && mColumnStartIndex[column] == mColumnStartIndex[column - 1]) column--;
+            mColumnStartIndexValid = column;
         }
-        return false;
+    }
+
+    private boolean wideDisplayCharacterStartingAt(int column) {
+        if (!mHasNonOneWidthOrSurrogateChars) return false;
+        int startOfColumn = findStartOfColumn(column);
+        return startOfColumn < mSpaceUsed && findStartOfColumn(column + 1) == startOfColumn;
+    }
+
+    /**
+     * Get a frozen copy of the row, which has a compact and immutable form without text and style arrays.
+     *
+     * This is done for rows which have scrolled into the transcript, as they are not modified, so that
+     * this row and its arrays can be reused. A frozen row must be thawed, with {@link #thawFrom(FrozenTerminalRow)}
+     * on a row which is not frozen, before it is accessed. Only {@link #mLineWrap}, {@link #getSpaceUsed()}
+     * and {@link #isBlank()} may be used while frozen, and {@link #clear(long)} thaws the row.
+     */
+    TerminalRow freeze() {
+        return new TerminalRow(new FrozenTerminalRow(this), mLineWrap);
+    }
+
+    /**
+     * Make this frozen row a frozen copy of a row with as many columns, like {@link #freeze()} but reusing this row and
+     * the arrays of its frozen contents. This must only be done for a row which is no longer used.
+     */
+    void refreeze(TerminalRow row) {
+        mFrozen.set(row);
+        mSpaceUsed = (short) row.getSpaceUsed();
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+        mLineWrap = row.mLineWrap;
+    }
+
+    /** A frozen row with the specified contents, like a row read back from a {@link TerminalSnapshot}. */
+    static TerminalRow frozen(FrozenTerminalRow frozen, boolean lineWrap) {
+        return new TerminalRow(frozen, lineWrap);
+    }
+
+    boolean isFrozen() {
+        return mFrozen != null;
+    }
+
+    /** The contents of the row if it is frozen, otherwise null. */
+    FrozenTerminalRow getFrozen() {
+        return mFrozen;
+    }
+
+    /**
+     * An estimate of the heap memory in bytes used by this row, including its text and style arrays or its frozen
+     * contents. The estimate assumes a 64-bit runtime with compressed references and ignores alignment.
+     */
+    long getMemoryUsage() {
+        if (mFrozen != null) return OBJECT_SIZE + mFrozen.getMemoryUsage();
+        long size = OBJECT_SIZE + getArraySize(mText.length, 2);
+        if (mStyle != null) size += getArraySize(mStyle.length, 8);
+        if (mSpareStyle != null) size += getArraySize(mSpareStyle.length, 8);
+        if (mCopyText != null) size += getArraySize(mCopyText.length, 2);
+        if (mCopyStyle != null) size += getArraySize(mCopyStyle.length, 8);
+        if (mRunStyles != null) size += getArraySize(mRunStyles.length, 8) + getArraySize(mRunEnds.length, 2);
+        if (mColumnStartIndex != null) size += getArraySize(mColumnStartIndex.length, 2);
+        return size;
+    }
+
+    /** The estimated size in bytes of an array, see {@link #getMemoryUsage()}. */
+    static long getArraySize(int length, int elementSize) {
+        return ARRAY_HEADER_SIZE + (long) length * elementSize;
+    }
+
+    /** Set the contents of this row, which must have the same number of columns, to a frozen row. */
+    void thawFrom(FrozenTerminalRow frozen) {
+        final int spaceUsed = frozen.getSpaceUsed();
+        if (mText == null || mText.length < spaceUsed)
+            mText = new char[Math.max(spaceUsed, (int) (SPARE_CAPACITY_FACTOR * mColumns))];
+        frozen.copyTextTo(mText);
+        frozen.copyStylesTo(this);
+        mSpaceUsed = (short) spaceUsed;
+        mHasNonOneWidthOrSurrogateChars = frozen.hasNonOneWidthOrSurrogateChars();
+        mColumnStartIndexValid = 0;
     }
 
     public void clear(long style) {
+        if (mFrozen != null) {
+            mFrozen = null;
+            mText = new char[(int) (SPARE_CAPACITY_FACTOR * mColumns)];
+        }
         Arrays.fill(mText, ' ');
-        Arrays.fill(mStyle, style);
+        setSingleStyle(style);
         mSpaceUsed = (short) mColumns;
         mHasNonOneWidthOrSurrogateChars = false;
+        mColumnStartIndexValid = 0;
+    }
+
+    /**
+     * Set a run of printable ASCII chars, which all have display width 1, starting at the specified column.
+     *
+     * The chars are written directly to {@link #mText} when the row only contains chars with width 1,
+     * otherwise {@link #setChar(int, int, long)} is called for each of them.
+     */
+    public void setAsciiChars(int columnToSet, byte[] text, int offset, int length, long style) {
+        if (columnToSet < 0 || columnToSet + length > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setAsciiChars(): columnToSet=" + columnToSet + ", length=" + length + ", style=" + style);
+
+        if (mHasNonOneWidthOrSurrogateChars) {
+            for (int i = 0; i < length; i++)
+                setChar(columnToSet + i, text[offset + i], style);
+            return;
+        }
+
+        // The bytes need to be widened to chars, so System.arraycopy() can not be used here.
+        final char[] chars = mText;
+        for (int i = 0; i < length; i++)
+            chars[columnToSet + i] = (char) text[offset + i];
+        setStyles(columnToSet, columnToSet + length, style);
+    }
+
+    /**
+     * Set the cells from startColumn (inclusive) to endColumn (exclusive) to a char, as calling
+     * {@link #setChar(int, int, long)} for each of them does.
+     *
+     * The text and styles are filled in bulk when the char has display width 1 and either the whole row
+     * is filled, which replaces any wide chars in it, or the row only contains chars with width 1.
+     */
+    public void fill(int startColumn, int endColumn, int codePoint, long style) {
+        if (startColumn < 0 || endColumn > mColumns || startColumn > endColumn)
+            throw new IllegalArgumentException("TerminalRow.fill(): startColumn=" + startColumn + ", endColumn=" + endColumn + ", codePoint=" + codePoint);
+
+        final boolean oneWidthChar = codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT && WcWidth.width(codePoint) == 1;
+        if (oneWidthChar && startColumn == 0 && endColumn == mColumns) {
+            clear(style);
+            if (codePoint != ' ') Arrays.fill(mText, 0, mColumns, (char) codePoint);
+        } else if (oneWidthChar && !mHasNonOneWidthOrSurrogateChars) {
+            Arrays.fill(mText, startColumn, endColumn, (char) codePoint);
+            setStyles(startColumn, endColumn, style);
+        } else {
+            for (int column = startColumn; column < endColumn; column++)
+                setChar(column, codePoint, style);
+        }
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        if (columnToSet  < 0 || columnToSet >= mStyle.length)
+        if (columnToSet  < 0 || columnToSet >= mColumns)
             throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
 
-        mStyle[columnToSet] = style;
+        setStyles(columnToSet, columnToSet + 1, style);
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
 
@@ -203,6 +426,8 @@ public final class TerminalRow {
                 return;
         }
 
+        invalidateColumnStartIndex(columnToSet);
+
         // Find how many chars this column will need
         int newCharactersUsedForColumn = Character.charCount(codePoint);
         if (newIsCombining) {
@@ -271,13 +496,170 @@ public final class TerminalRow {
     }
 
     boolean isBlank() {
+        if (mFrozen != null) return mFrozen.isBlank();
         for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++)
             if (mText[charIndex] != ' ') return false;
         return true;
     }
 
     public final long getStyle(int column) {
-        return mStyle[column];
+        if (mStyle != null) return mStyle[column];
+        return mRunStyles[findStyleRun(column)];
+    }
+
+    /**
+     * Get the column after the last cell of the run of cells with the same style as the specified column,
+     * so that the styles of a row can be iterated over a run at a time:
+     *
+     * for (int column = 0; column < columns; column = row.getStyleRunEnd(column)) row.getStyle(column) ...
+     */
+    public final int getStyleRunEnd(int column) {
+        if (mStyle != null) {
+            final long[] styles = mStyle;
+            final long style = styles[column];
+            int end = column + 1;
+            while (end < mColumns && styles[end] == style) end++;
+            return end;
+        }
+        return mRunEnds[findStyleRun(column)];
+    }
+
+    /** Set the style of the cells from startColumn (inclusive) to endColumn (exclusive). */
+    void setStyles(int startColumn, int endColumn, long style) {
+        if (startColumn >= endColumn) return;
+        if (mStyle != null) {
+            Arrays.fill(mStyle, startColumn, endColumn, style);
+            return;
+        }
+
+        final long[] runStyles = mRunStyles;
+        final short[] runEnds = mRunEnds;
+        final int first = findStyleRun(startColumn);
+        final long firstStyle = runStyles[first];
+        // Fast path for writing with the style the cells already have.
+        if (firstStyle == style && runEnds[first] >= endColumn) return;
+
+        final int firstStart = (first == 0) ? 0 : runEnds[first - 1];
+        int last = first;
+        while (runEnds[last] < endColumn) last++;
+        final long lastStyle = runStyles[last];
+        final int lastEnd = runEnds[last];
+
+        // The runs from replaceFrom (inclusive) to replaceTo (exclusive) are replaced with the part of the
+        // first run before the new run, the new run itself and the part of the last run after it.
+        int replaceFrom = first;
+        int replaceTo = last + 1;
+        final boolean keepHead = startColumn > firstStart && firstStyle != style;
+        final boolean keepTail = lastEnd > endColumn && lastStyle != style;
+        int newEnd = keepTail ? endColumn : lastEnd;
+        // Merge the new run with the adjacent runs if they have the same style.
+        if (!keepHead && startColumn == firstStart && first > 0 && runStyles[first - 1] == style) replaceFrom--;
+        if (!keepTail && replaceTo < mRunCount && runStyles[replaceTo] == style) newEnd = runEnds[replaceTo++];
+
+        final int newRuns = (keepHead ? 1 : 0) + 1 + (keepTail ? 1 : 0);
+        final int newRunCount = mRunCount + newRuns - (replaceTo - replaceFrom);
+        if (newRunCount > MAX_STYLE_RUNS) {
+            // The row is too fragmented, store the style of each cell instead.
+            final long[] styles = copyStylesTo(obtainStyleArray());
+            Arrays.fill(styles, startColumn, endColumn, style);
+            mStyle = styles;
+            mRunCount = 0;
+            return;
+        }
+
+        ensureStyleRunCapacity(newRunCount);
+        System.arraycopy(mRunStyles, replaceTo, mRunStyles, replaceFrom + newRuns, mRunCount - replaceTo);
+        System.arraycopy(mRunEnds, replaceTo, mRunEnds, replaceFrom + newRuns, mRunCount - replaceTo);
+        int run = replaceFrom;
+        if (keepHead) {
+            mRunStyles[run] = firstStyle;
+            mRunEnds[run++] = (short) startColumn;
+        }
+        mRunStyles[run] = style;
+        mRunEnds[run++] = (short) newEnd;
+        if (keepTail) {
+            mRunStyles[run] = lastStyle;
+            mRunEnds[run] = (short) lastEnd;
+        }
+        mRunCount = newRunCount;
+    }
+
+    /** Set the style of all cells, storing them as a single style run. */
+    private void setSingleStyle(long style) {
+        releaseStyleArray();
+        ensureStyleRunCapacity(1);
+        mRunStyles[0] = style;
+        mRunEnds[0] = (short) mColumns;
+        mRunCount = 1;
+    }
+
+    /** Set the styles of the row to style runs, which must be like {@link #mRunStyles} and {@link #mRunEnds}. */
+    void setStyleRuns(long[] runStyles, short[] runEnds, int runCount) {
+        if (runCount > MAX_STYLE_RUNS) {
+            if (mStyle == null) mStyle = obtainStyleArray();
+            for (int run = 0, start = 0; run < runCount; start = runEnds[run++])
+                Arrays.fill(mStyle, start, runEnds[run], runStyles[run]);
+            mRunCount = 0;
+        } else {
+            releaseStyleArray();
+            ensureStyleRunCapacity(runCount);
+            System.arraycopy(runStyles, 0, mRunStyles, 0, runCount);
+            System.arraycopy(runEnds, 0, mRunEnds, 0, runCount);
+            mRunCount = runCount;
+        }
+    }
+
+    /** Copy the style of each cell in the row to an array with an element for each column, and return it. */
+    private long[] copyStylesTo(long[] styles) {
+        if (mStyle != null) {
+            System.arraycopy(mStyle, 0, styles, 0, mColumns);
+            return styles;
+        }
+        for (int run = 0, start = 0; run < mRunCount; start = mRunEnds[run++])
+            Arrays.fill(styles, start, mRunEnds[run], mRunStyles[run]);
+        return styles;
+    }
+
+    /** Get an array for {@link #mStyle}, reusing {@link #mSpareStyle} if kept. */
+    private long[] obtainStyleArray() {
+        final long[] styles = mSpareStyle;
+        mSpareStyle = null;
+        return (styles != null) ? styles : new long[mColumns];
+    }
+
+    /** Stop using {@link #mStyle}, keeping its array as {@link #mSpareStyle}. */
+    private void releaseStyleArray() {
+        if (mStyle == null) return;
+        mSpareStyle = mStyle;
+        mStyle = null;
+    }
+
+    /** Get the first column of the run of cells with the same style as the specified column. */
+    private int getStyleRunStart(int column) {
+        if (mStyle != null) {
+            final long[] styles = mStyle;
+            final long style = styles[column];
+            int start = column;
+            while (start > 0 && styles[start - 1] == style) start--;
+            return start;
+        }
+        final int run = findStyleRun(column);
+        return (run == 0) ? 0 : mRunEnds[run - 1];
+    }
+
+    /** Find the index in {@link #mRunStyles} of the run containing the specified column. */
+    private int findStyleRun(int column) {
+        final int index = Arrays.binarySearch(mRunEnds, 0, mRunCount, (short) column);
+        // If a run ends at the column, the column is the first cell of the next run.
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+    private void ensureStyleRunCapacity(int runCount) {
+        if (mRunStyles == null || mRunStyles.length < runCount) {
+            final int capacity = Math.min(MAX_STYLE_RUNS, Math.max(runCount, (mRunStyles == null) ? 4 : 2 * mRunStyles.length));
+            mRunStyles = (mRunStyles == null) ? new long[capacity] : Arrays.copyOf(mRunStyles, capacity);
+            mRunEnds = (mRunEnds == null) ? new short[capacity] : Arrays.copyOf(mRunEnds, capacity);
+        }
     }
 
 }
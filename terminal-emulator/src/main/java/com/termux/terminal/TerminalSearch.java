@@ -0,0 +1,405 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search for a substring or a regular expression in the transcript and screen of a {@link TerminalBuffer}.
+ * <p>
+ * Matches are found within logical lines, where the rows which are line wrapped are joined with the rows below them,
+ * like {@link TerminalBuffer#getTranscriptText()} does, so that a match may span several rows. They are located by
+ * their start row and column (inclusive) and their end row and column (exclusive), in the external coordinate system
+ * described at {@link TerminalBuffer#externalToInternalRow(int)}. The last match found is available through
+ * {@link #getMatchRow()}, {@link #getMatchStartColumn()}, {@link #getMatchEndRow()} and {@link #getMatchEndColumn()},
+ * so that searching does not allocate.
+ * <p>
+ * Rows are indexed as they scroll into the transcript, where each frozen row keeps a signature of the pairs of adjacent
+ * chars of its text, see {@link FrozenTerminalRow#getSignatureLow()}. A substring search skips the logical lines whose
+ * rows do not contain all pairs of the query in their signatures, but for the pairs spanning two rows, without reading
+ * their text. The index is dropped together with the rows as they fall out of the transcript, and rows kept on disk by
+ * a {@link TranscriptSpill} keep their signature with them.
+ */
+public final class TerminalSearch {
+
+    /** The number of rows above and below a row which {@link #findInRow(TerminalBuffer, int, int[])} searches for a regular expression. */
+    private static final int MAX_CONTEXT_ROWS = 16;
+
+    private final String mQuery;
+    private final boolean mIgnoreCase;
+    /** The chars of the query for a substring search, lower case if {@link #mIgnoreCase}, or null. */
+    private final char[] mQueryChars;
+    /** The bigram signature of {@link #mQueryChars}, see {@link #bigramBit(char, char)}. */
+    private final long mQuerySignatureLow, mQuerySignatureHigh;
+    /** The matcher for a regular expression search, or null. */
+    private final Matcher mMatcher;
+
+    /** The text of the loaded line, which is the text of its rows joined together, see {@link #loadLine(TerminalBuffer, int, int)}. */
+    private char[] mLineText = new char[0];
+    private int mLineLength;
+    private boolean mLineHasNonOneWidthOrSurrogateChars;
+    /** The first row of the loaded line, and its number of rows. */
+    private int mLineFirstRow, mLineRows;
+    /** The char index in {@link #mLineText} at which each row of the loaded line starts, followed by its length. */
+    private int[] mRowStarts = new int[2];
+    /** The {@link #mLineText} as a {@link CharSequence} for {@link #mMatcher}. */
+    private final LineChars mLineChars = new LineChars();
+    /** The char index after the match found by {@link #indexOf(int)}. */
+    private int mMatchEndIndex;
+
+    private int mMatchRow, mMatchStartColumn, mMatchEndRow, mMatchEndColumn;
+
+    /**
+     * Create a search.
+     *
+     * @param query      the substring or regular expression to search for, which must not be empty.
+     * @param regex      if the query is a regular expression, see {@link Pattern}.
+     * @param ignoreCase if upper and lower case letters should match each other.
+     * @throws java.util.regex.PatternSyntaxException if the query is not a valid regular expression.
+     */
+    public TerminalSearch(String query, boolean regex, boolean ignoreCase) {
+        if (query == null || query.isEmpty()) throw new IllegalArgumentException("Empty search query");
+        mQuery = query;
+        mIgnoreCase = ignoreCase;
+
+        if (regex) {
+            mMatcher = Pattern.compile(query, ignoreCase ? (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : 0).matcher(mLineChars);
+            mQueryChars = null;
+            mQuerySignatureLow = mQuerySignatureHigh = 0;
+        } else {
+            mMatcher = null;
+            mQueryChars = query.toCharArray();
+            long signatureLow = 0, signatureHigh = 0;
+            for (int i = 0; i < mQueryChars.length; i++) {
+                if (ignoreCase) mQueryChars[i] = Character.toLowerCase(mQueryChars[i]);
+                if (i == 0) continue;
+                int bit = bigramBit(mQueryChars[i - 1], mQueryChars[i]);
+                if (bit < 64) signatureLow |= 1L << bit;
+                else signatureHigh |= 1L << bit;
+            }
+            mQuerySignatureLow = signatureLow;
+            mQuerySignatureHigh = signatureHigh;
+        }
+    }
+
+    /**
+     * The bit, from 0 to 127, of a pair of adjacent chars in a bigram signature. Letters are folded to lower case, so
+     * that the same signature works for searches which ignore case and those which do not.
+     */
+    static int bigramBit(char first, char second) {
+        int hash = (Character.toLowerCase(first) * 31 + Character.toLowerCase(second)) * 0x9E3779B9;
+        return hash >>> 25;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /** The row of the last match found. */
+    public int getMatchRow() {
+        return mMatchRow;
+    }
+
+    /** The first column of the last match found. */
+    public int getMatchStartColumn() {
+        return mMatchStartColumn;
+    }
+
+    /** The row in which the last match found ends, which is below {@link #getMatchRow()} if it spans line wrapped rows. */
+    public int getMatchEndRow() {
+        return mMatchEndRow;
+    }
+
+    /** The column after the last column of the last match found, in {@link #getMatchEndRow()}. */
+    public int getMatchEndColumn() {
+        return mMatchEndColumn;
+    }
+
+    /**
+     * Find the next match starting at or after a position, or the previous match starting before it.
+     *
+     * @param buffer  the buffer to search.
+     * @param row     the row to start searching from, which is clipped to the rows of the buffer.
+     * @param column  the column in the row to start searching from.
+     * @param forward if searching towards the bottom of the screen instead of towards the top of the transcript.
+     * @return if a match was found, which is then available through {@link #getMatchRow()} and friends.
+     */
+    public boolean find(TerminalBuffer buffer, int row, int column, boolean forward) {
+        final int firstRow = -buffer.getActiveTranscriptRows();
+        final int lastRow = buffer.mScreenRows - 1;
+        if (forward) {
+            if (row < firstRow) {
+                row = firstRow;
+                column = 0;
+            }
+            int lineStart = (row > lastRow) ? row : getLineStart(buffer, row, firstRow);
+            while (lineStart <= lastRow) {
+                final int lineEnd = getLineEnd(buffer, lineStart, lastRow);
+                if (loadLine(buffer, lineStart, lineEnd)) {
+                    for (int index = indexOf(0); index != -1; index = indexOf(index + 1)) {
+                        final int rowOffset = rowOffsetOfIndex(index, false);
+                        final int startColumn = columnOfIndex(rowOffset, index);
+                        if (lineStart + rowOffset > row || (lineStart + rowOffset == row && startColumn >= column)) {
+                            setMatch(lineStart + rowOffset, startColumn);
+                            return true;
+                        }
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+        } else {
+            if (row > lastRow) {
+                row = lastRow;
+                column = Integer.MAX_VALUE;
+            }
+            int lineEnd = (row < firstRow) ? firstRow - 1 : getLineEnd(buffer, row, lastRow);
+            while (lineEnd >= firstRow) {
+                final int lineStart = getLineStart(buffer, lineEnd, firstRow);
+                if (loadLine(buffer, lineStart, lineEnd)) {
+                    int matchIndex = -1, matchEndIndex = -1;
+                    for (int index = indexOf(0); index != -1; index = indexOf(index + 1)) {
+                        final int rowOffset = rowOffsetOfIndex(index, false);
+                        if (lineStart + rowOffset > row || (lineStart + rowOffset == row && columnOfIndex(rowOffset, index) >= column)) break;
+                        matchIndex = index;
+                        matchEndIndex = mMatchEndIndex;
+                    }
+                    if (matchIndex != -1) {
+                        mMatchEndIndex = matchEndIndex;
+                        final int rowOffset = rowOffsetOfIndex(matchIndex, false);
+                        setMatch(lineStart + rowOffset, columnOfIndex(rowOffset, matchIndex));
+                        return true;
+                    }
+                }
+                lineEnd = lineStart - 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the matches in a row, e.g. to highlight them. The parts of matches which continue from the row above or in
+     * the row below, as the rows are line wrapped, are included. Only the line wrapped rows near the row are searched,
+     * which are all rows a substring match in the row may span, and {@link #MAX_CONTEXT_ROWS} rows above and below it
+     * for a regular expression.
+     *
+     * @param buffer  the buffer to search.
+     * @param row     the row to search.
+     * @param columns the array to store the start column and end column of each match in, one after the other.
+     * @return the number of matches stored, which is at most half the length of columns.
+     */
+    public int findInRow(TerminalBuffer buffer, int row, int[] columns) {
+        final int firstRow = -buffer.getActiveTranscriptRows();
+        final int lastRow = buffer.mScreenRows - 1;
+        if (row < firstRow || row > lastRow) return 0;
+        // A row of wide chars has the fewest chars, which a substring match needs the most rows of:
+        final int contextRows = (mQueryChars == null) ? MAX_CONTEXT_ROWS
+            : (mQueryChars.length - 1 + Math.max(1, buffer.mColumns / 2) - 1) / Math.max(1, buffer.mColumns / 2);
+        final int lineStart = getLineStart(buffer, row, Math.max(firstRow, row - contextRows));
+        final int lineEnd = getLineEnd(buffer, row, Math.min(lastRow, row + contextRows));
+        if (!loadLine(buffer, lineStart, lineEnd)) return 0;
+
+        final int rowOffset = row - lineStart;
+        int matches = 0;
+        for (int index = indexOf(0); index != -1 && 2 * matches + 1 < columns.length; index = indexOf(index + 1)) {
+            final int startRowOffset = rowOffsetOfIndex(index, false);
+            if (startRowOffset > rowOffset) break;
+            final int endRowOffset = rowOffsetOfIndex(mMatchEndIndex, true);
+            if (endRowOffset < rowOffset) continue;
+            columns[2 * matches] = (startRowOffset < rowOffset) ? 0 : columnOfIndex(rowOffset, index);
+            columns[2 * matches + 1] = (endRowOffset > rowOffset) ? buffer.mColumns : columnOfIndex(rowOffset, mMatchEndIndex);
+            matches++;
+        }
+        return matches;
+    }
+
+    private void setMatch(int row, int startColumn) {
+        final int endRowOffset = rowOffsetOfIndex(mMatchEndIndex, true);
+        mMatchRow = row;
+        mMatchStartColumn = startColumn;
+        mMatchEndRow = mLineFirstRow + endRowOffset;
+        mMatchEndColumn = columnOfIndex(endRowOffset, mMatchEndIndex);
+    }
+
+    /** The first row of the logical line containing a row, which is not above a minimum row. */
+    private static int getLineStart(TerminalBuffer buffer, int row, int minRow) {
+        while (row > minRow && isLineWrap(buffer, row - 1)) row--;
+        return row;
+    }
+
+    /** The last row of the logical line containing a row, which is not below a maximum row. */
+    private static int getLineEnd(TerminalBuffer buffer, int row, int maxRow) {
+        while (row < maxRow && isLineWrap(buffer, row)) row++;
+        return row;
+    }
+
+    /** If a row continues in the row below it, where the line wrap of a row kept on disk is read without the rest of it. */
+    private static boolean isLineWrap(TerminalBuffer buffer, int row) {
+        final int spilledRow = buffer.getSpilledRowIndex(row);
+        return (spilledRow == -1) ? buffer.getLineWrap(row) : buffer.mSpill.getLineWrap(spilledRow);
+    }
+
+    /**
+     * Load the text of rows from a first row to a last row (inclusive) joined together, or return false if they cannot
+     * contain a match. Each bigram of the query has to be in the signature of one of the rows, except for the bigrams
+     * which span two rows, of which there is one for each row after the first one.
+     */
+    private boolean loadLine(TerminalBuffer buffer, int firstRow, int lastRow) {
+        final int rows = lastRow - firstRow + 1;
+        boolean blank = true;
+        long missingLow = mQuerySignatureLow, missingHigh = mQuerySignatureHigh;
+        for (int row = firstRow; row <= lastRow; row++) {
+            final int spilledRow = buffer.getSpilledRowIndex(row);
+            if (spilledRow != -1) {
+                // The signature of a row kept on disk is checked before reading the rest of it:
+                final TranscriptSpill spill = buffer.mSpill;
+                if (spill.isBlank(spilledRow)) continue;
+                blank = false;
+                missingLow &= ~spill.getSignatureLow(spilledRow);
+                missingHigh &= ~spill.getSignatureHigh(spilledRow);
+            } else {
+                // The row may not have been reflowed yet:
+                final FrozenTerminalRow frozen = buffer.allocateFullLineIfNecessary(buffer.externalToInternalRow(row)).getFrozen();
+                if (frozen == null) {
+                    // Rows of the screen do not keep a signature:
+                    blank = false;
+                    missingLow = missingHigh = 0;
+                } else if (!frozen.isBlank()) {
+                    blank = false;
+                    missingLow &= ~frozen.getSignatureLow();
+                    missingHigh &= ~frozen.getSignatureHigh();
+                }
+            }
+        }
+        if (blank) return false;
+        if (mQueryChars != null && Long.bitCount(missingLow) + Long.bitCount(missingHigh) > rows - 1) return false;
+
+        if (mRowStarts.length < rows + 1) mRowStarts = new int[Math.max(rows + 1, 2 * mRowStarts.length)];
+        mLineFirstRow = firstRow;
+        mLineRows = rows;
+        mLineHasNonOneWidthOrSurrogateChars = false;
+        int length = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            mRowStarts[row - firstRow] = length;
+            final int spilledRow = buffer.getSpilledRowIndex(row);
+            final TerminalRow line = (spilledRow != -1) ? buffer.getRow(row) : buffer.mLines[buffer.externalToInternalRow(row)];
+            final FrozenTerminalRow frozen = line.getFrozen();
+            final int spaceUsed = (frozen == null) ? line.getSpaceUsed() : frozen.getSpaceUsed();
+            if (mLineText.length < length + spaceUsed) mLineText = Arrays.copyOf(mLineText, Math.max(length + spaceUsed, 2 * mLineText.length));
+            if (frozen == null) {
+                System.arraycopy(line.mText, 0, mLineText, length, spaceUsed);
+                mLineHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
+            } else {
+                frozen.copyTextTo(mLineText, length);
+                mLineHasNonOneWidthOrSurrogateChars |= frozen.hasNonOneWidthOrSurrogateChars();
+            }
+            length += spaceUsed;
+        }
+        mRowStarts[rows] = length;
+        mLineLength = length;
+
+        if (mMatcher != null) {
+            mLineChars.set(mLineText, mLineLength);
+            mMatcher.reset();
+        }
+        return true;
+    }
+
+    /** Find the first match in the loaded line starting at or after a char index, and return its index or -1. */
+    private int indexOf(int fromIndex) {
+        if (mMatcher != null) {
+            while (fromIndex <= mLineLength && mMatcher.find(fromIndex)) {
+                // Skip empty matches, which cannot be shown:
+                if (mMatcher.end() > mMatcher.start()) {
+                    mMatchEndIndex = mMatcher.end();
+                    return mMatcher.start();
+                }
+                fromIndex = mMatcher.start() + 1;
+            }
+            return -1;
+        }
+
+        final char[] query = mQueryChars;
+        final char[] text = mLineText;
+        final int lastIndex = mLineLength - query.length;
+        final char first = query[0];
+        for (int i = fromIndex; i <= lastIndex; i++) {
+            if (charAt(text, i) != first) continue;
+            int j = 1;
+            while (j < query.length && charAt(text, i + j) == query[j]) j++;
+            if (j == query.length) {
+                mMatchEndIndex = i + query.length;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private char charAt(char[] text, int index) {
+        return mIgnoreCase ? Character.toLowerCase(text[index]) : text[index];
+    }
+
+    /**
+     * The row of the loaded line, relative to its first row, of the char at an index, or of the char before it if the
+     * index is the end of a match, which then ends in the row above a row starting at the index.
+     */
+    private int rowOffsetOfIndex(int index, boolean end) {
+        int low = 0, high = mLineRows - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (end ? mRowStarts[middle] < index : mRowStarts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /** The column in a row of the loaded line, relative to its first row, of the code point at a char index. */
+    private int columnOfIndex(int rowOffset, int index) {
+        final int rowStart = mRowStarts[rowOffset];
+        if (!mLineHasNonOneWidthOrSurrogateChars) return index - rowStart;
+        int column = 0;
+        for (int i = rowStart; i < index; ) {
+            int codePoint = Character.codePointAt(mLineText, i, mLineLength);
+            int width = WcWidth.width(codePoint);
+            if (width > 0) column += width;
+            i += Character.charCount(codePoint);
+        }
+        return column;
+    }
+
+    /** The text of a line as a {@link CharSequence} without copying it. */
+    private static final class LineChars implements CharSequence {
+
+        private char[] mText = new char[0];
+        private int mLength;
+
+        void set(char[] text, int length) {
+            mText = text;
+            mLength = length;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mText[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mText, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mText, 0, mLength);
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package com.termux.terminal;
 
 import android.annotation.SuppressLint;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.system.ErrnoException;
 import android.system.Os;
@@ -9,20 +10,21 @@ import android.system.OsConstants;
 
 import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
  * {@link #updateSize(int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * All terminal emulation and callback methods will be performed on the main thread, unless the output of the process
+ * is parsed on an emulator thread, see {@link #setEmulatorThreadEnabled(boolean)}.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -31,7 +33,29 @@ import java.util.UUID;
 public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
+    private static final int MSG_SCREEN_UPDATED = 2;
     private static final int MSG_PROCESS_EXITED = 4;
+    private static final int MSG_SYNCHRONIZED_OUTPUT_TIMEOUT = 8;
+    private static final int MSG_REHYDRATE = 16;
+
+    /**
+     * The capacity of {@link #mProcessToTerminalIOQueue}, which is large enough for the process to keep writing output
+     * while the previous output is being parsed.
+     */
+    private static final int PROCESS_TO_TERMINAL_QUEUE_CAPACITY = 64 * 1024;
+    private static final int TERMINAL_TO_PROCESS_QUEUE_CAPACITY = 4096;
+    /**
+     * The maximum number of bytes the emulator thread parses while holding the lock of the emulator, which bounds the
+     * time the main thread may wait for the lock to draw the screen or handle input during a flood of output.
+     */
+    private static final int EMULATOR_THREAD_PARSE_SLICE_SIZE = 4096;
+    /** The default of {@link #setReadChunkSize(int)}. */
+    public static final int DEFAULT_READ_CHUNK_SIZE = 16 * 1024;
+    /**
+     * The maximum time to wait for the output of an exited process to be read from the pty, which does not end while
+     * a process started by it in the background keeps it open.
+     */
+    private static final long PROCESS_OUTPUT_READ_TIMEOUT_MILLIS = 1000;
 
     public final String mHandle = UUID.randomUUID().toString();
 
@@ -41,12 +65,12 @@ public final class TerminalSession extends TerminalOutput {
      * A queue written to from a separate thread when the process outputs, and read by main thread to process by
      * terminal emulator.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(PROCESS_TO_TERMINAL_QUEUE_CAPACITY);
     /**
      * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
      * writing to the {@link #mTerminalFileDescriptor}.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(TERMINAL_TO_PROCESS_QUEUE_CAPACITY);
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
@@ -70,6 +94,26 @@ public final class TerminalSession extends TerminalOutput {
 
     final Handler mMainThreadHandler = new MainThreadHandler();
 
+    /** If the output of the process is parsed on an emulator thread, see {@link #setEmulatorThreadEnabled(boolean)}. */
+    private boolean mEmulatorThreadEnabled;
+    /** If a {@link #MSG_NEW_INPUT} message has been sent which has not been handled yet. */
+    private final AtomicBoolean mNewInputPending = new AtomicBoolean();
+    /** If the emulator thread has sent a {@link #MSG_SCREEN_UPDATED} message which has not been handled yet. */
+    private final AtomicBoolean mScreenUpdatePending = new AtomicBoolean();
+    /** If the rows of the hibernating emulator are being read back before it is rehydrated, see {@link #rehydrate()}. */
+    private boolean mRehydrating;
+    /** The exit status of the process, passed from the waiter thread to the emulator thread. */
+    private volatile int mEmulatorThreadExitCode;
+    /** The maximum number of bytes read from the pty at once, see {@link #setReadChunkSize(int)}. */
+    private int mReadChunkSize = DEFAULT_READ_CHUNK_SIZE;
+    /** The directory and maximum size of the transcript spill, see {@link #setTranscriptSpill(File, long)}. */
+    private File mTranscriptSpillDirectory;
+    private long mTranscriptSpillMaxBytes;
+    /** Records the output of the process while set, see {@link #startRecording(OutputStream)}. */
+    private volatile AsciicastRecorder mRecorder;
+    /** Parses the output of the process in place in {@link #mProcessToTerminalIOQueue}. */
+    private final ByteQueue.Sink mEmulatorSink = (buffer, offset, length) -> mEmulator.append(buffer, offset, length);
+
     private final String mShellPath;
     private final String mCwd;
     private final String[] mArgs;
@@ -99,16 +143,215 @@ public final class TerminalSession extends TerminalOutput {
             mEmulator.updateTerminalSessionClient(client);
     }
 
+    /**
+     * Set if the output of the process should be parsed on a dedicated emulator thread instead of the main thread, so
+     * that heavy output does not delay input handling and drawing. Must be called before the emulator is initialized
+     * by {@link #updateSize(int, int)}.
+     * <p>
+     * The emulator thread holds the lock of the {@link TerminalEmulator} while it is parsing, so the main thread has to
+     * synchronize on the emulator while accessing its screen, even to read it, as reading rows may thaw them or reflow
+     * the transcript. The lock is released after each slice of at most {@link #EMULATOR_THREAD_PARSE_SLICE_SIZE} bytes
+     * parsed, so that the main thread does not wait for a whole batch of output. The screen update and client
+     * callbacks are still delivered on the main thread.
+     */
+    public void setEmulatorThreadEnabled(boolean enabled) {
+        if (mEmulator != null) throw new IllegalStateException("The emulator has already been initialized");
+        mEmulatorThreadEnabled = enabled;
+    }
+
+    public boolean isEmulatorThreadEnabled() {
+        return mEmulatorThreadEnabled;
+    }
+
+    /**
+     * Set the maximum number of bytes read from the pty at once, which defaults to {@link #DEFAULT_READ_CHUNK_SIZE}.
+     * Larger chunks need fewer reads for heavy output, while smaller chunks let output be parsed sooner. Must be called
+     * before the emulator is initialized by {@link #updateSize(int, int)}.
+     */
+    public void setReadChunkSize(int readChunkSize) {
+        if (mEmulator != null) throw new IllegalStateException("The emulator has already been initialized");
+        if (readChunkSize <= 0 || readChunkSize > PROCESS_TO_TERMINAL_QUEUE_CAPACITY)
+            throw new IllegalArgumentException("Invalid read chunk size: " + readChunkSize);
+        mReadChunkSize = readChunkSize;
+    }
+
+    /**
+     * Set a directory to keep the transcript rows which no longer fit in memory in, instead of dropping them, see
+     * {@link TerminalEmulator#setTranscriptSpill(File, long)}. Must be called before the emulator is initialized by
+     * {@link #updateSize(int, int)}, and the files are deleted by {@link #closeTranscriptSpill()}.
+     */
+    public void setTranscriptSpill(File directory, long maxBytes) {
+        if (mEmulator != null) throw new IllegalStateException("The emulator has already been initialized");
+        mTranscriptSpillDirectory = directory;
+        mTranscriptSpillMaxBytes = maxBytes;
+    }
+
+    /** Drop the transcript rows kept on disk, and delete their files, once the session is no longer used. */
+    public void closeTranscriptSpill() {
+        mTranscriptSpillDirectory = null;
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.closeTranscriptSpill();
+        }
+    }
+
+    /**
+     * Start recording the output of the process with timestamps in the asciicast v2 format, which can be replayed by an
+     * {@link AsciicastPlayer} or by asciinema. Must be called after the emulator is initialized by
+     * {@link #updateSize(int, int)}, and the stream is closed by {@link #stopRecording()} or when the process exits.
+     */
+    public void startRecording(OutputStream out) throws IOException {
+        if (mEmulator == null) throw new IllegalStateException("The emulator has not been initialized");
+        final AsciicastRecorder recorder;
+        synchronized (mEmulator) {
+            if (mRecorder != null) throw new IllegalStateException("The session is already being recorded");
+            recorder = new AsciicastRecorder(out, mEmulator.mColumns, mEmulator.mRows);
+            mRecorder = recorder;
+        }
+    }
+
+    /** Stop recording the output of the process, if it is being recorded, and close the recording. */
+    public void stopRecording() {
+        final AsciicastRecorder recorder = mRecorder;
+        if (recorder == null) return;
+        mRecorder = null;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to close recording", e);
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    /**
+     * An estimate of the heap memory in bytes used by the session: the buffers of the emulator, see
+     * {@link TerminalEmulator#getMemoryUsage()}, and the queues between the emulator and the process.
+     */
+    public long getMemoryUsage() {
+        final long queuesSize = PROCESS_TO_TERMINAL_QUEUE_CAPACITY + TERMINAL_TO_PROCESS_QUEUE_CAPACITY;
+        if (mEmulator == null) return queuesSize;
+        synchronized (mEmulator) {
+            return queuesSize + mEmulator.getMemoryUsage();
+        }
+    }
+
+    /**
+     * Release the memory used by the rows of the emulator while the session is not shown, see
+     * {@link TerminalEmulator#hibernate(File)}. The rows are moved to the file on a background thread. The emulator is
+     * rehydrated by {@link #rehydrate()}, and the file is deleted then or by {@link #closeSnapshot()}.
+     */
+    public void hibernate(File file) {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.hibernate(file);
+        }
+        if (file == null) return;
+
+        final TerminalEmulator emulator = mEmulator;
+        new Thread("TermSessionSnapshotWriter[pid=" + mShellPid + "]") {
+            @Override
+            public void run() {
+                try {
+                    emulator.saveSnapshot();
+                } catch (IOException e) {
+                    Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to write the snapshot of the hibernated session, keeping it in memory", e);
+                }
+            }
+        }.start();
+    }
+
+    public boolean isHibernating() {
+        return mEmulator != null && mEmulator.isHibernating();
+    }
+
+    /**
+     * Restore the rows of the emulator if the session is hibernating, see {@link #hibernate(File)}. The rows are read
+     * back from their file on a background thread, after which the emulator is rehydrated and the client notified of
+     * the screen update on the main thread. The screen is blank until then. Must be called on the main thread.
+     */
+    public void rehydrate() {
+        if (mEmulator == null || !mEmulator.isHibernating() || mRehydrating) return;
+        mRehydrating = true;
+
+        final TerminalEmulator emulator = mEmulator;
+        new Thread("TermSessionSnapshotReader[pid=" + mShellPid + "]") {
+            @Override
+            public void run() {
+                try {
+                    emulator.loadSnapshot();
+                } catch (IOException e) {
+                    // The emulator shows that its rows have been lost when it is rehydrated.
+                    Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to read the snapshot of the hibernated session", e);
+                }
+                mMainThreadHandler.sendEmptyMessage(MSG_REHYDRATE);
+            }
+        }.start();
+    }
+
+    /** Restore the rows of the emulator right away if the session is hibernating, reading them on the current thread. */
+    private void rehydrateNow() {
+        if (mEmulator == null || !mEmulator.isHibernating()) return;
+        synchronized (mEmulator) {
+            mEmulator.rehydrate();
+        }
+    }
+
+    /** Drop the rows kept while hibernating, and delete their files, once the session is no longer used. */
+    public void closeSnapshot() {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.closeSnapshot();
+        }
+    }
+
+    /** Release memory which is not needed to keep the contents of the emulator, see {@link TerminalEmulator#compact()}. */
+    public void compact() {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.compact();
+        }
+    }
+
+    /**
+     * Drop the oldest transcript rows in memory so that at most maxRows of them are left, keeping them on disk if a
+     * transcript spill is set. See {@link TerminalEmulator#trimTranscript(int)}.
+     */
+    public void trimTranscript(int maxRows) {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.trimTranscript(maxRows);
+        }
+    }
+
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
     public void updateSize(int columns, int rows) {
         if (mEmulator == null) {
             initializeEmulator(columns, rows);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns);
-            mEmulator.resize(columns, rows);
+            synchronized (mEmulator) {
+                mEmulator.resize(columns, rows);
+            }
+            final AsciicastRecorder recorder = mRecorder;
+            if (recorder != null) {
+                try {
+                    recorder.recordResize(columns, rows);
+                } catch (IOException e) {
+                    onRecordingFailed(e);
+                }
+            }
         }
     }
 
+    /** Stop recording after writing the recording failed, as for a full disk. */
+    private void onRecordingFailed(IOException e) {
+        Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to record session output", e);
+        stopRecording();
+    }
+
     /** The terminal title as set through escape sequences or null if none set. */
     public String getTitle() {
         return (mEmulator == null) ? null : mEmulator.getTitle();
@@ -122,6 +365,13 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows) {
         mEmulator = new TerminalEmulator(this, columns, rows, mTranscriptRows, mClient);
+        if (mTranscriptSpillDirectory != null) {
+            try {
+                mEmulator.setTranscriptSpill(mTranscriptSpillDirectory, mTranscriptSpillMaxBytes);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to create transcript spill", e);
+            }
+        }
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns);
@@ -130,22 +380,33 @@ public final class TerminalSession extends TerminalOutput {
 
         final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
 
-        new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
+        final int terminalFileDescriptor = mTerminalFileDescriptor;
+        final int readChunkSize = mReadChunkSize;
+        final Thread inputReader = new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
             @Override
             public void run() {
-                try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
-                    while (true) {
-                        int read = termIn.read(buffer);
-                        if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                // Read from the pty directly into the queue, from where the output is parsed in place:
+                final ByteQueue.Source terminalReader = (buffer, offset, length) -> {
+                    final int bytesRead = JNI.read(terminalFileDescriptor, buffer, offset, length);
+                    // Record the output before it is made available for parsing:
+                    final AsciicastRecorder recorder = mRecorder;
+                    if (bytesRead > 0 && recorder != null) {
+                        try {
+                            recorder.recordOutput(buffer, offset, bytesRead);
+                        } catch (IOException e) {
+                            onRecordingFailed(e);
+                        }
                     }
-                } catch (Exception e) {
-                    // Ignore, just shutting down.
+                    return bytesRead;
+                };
+                while (mProcessToTerminalIOQueue.write(terminalReader, readChunkSize) != -1) {
+                    // Only have one message pending at a time, which parses all output written before it is handled:
+                    if (!mEmulatorThreadEnabled && !mNewInputPending.getAndSet(true))
+                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
                 }
             }
-        }.start();
+        };
+        inputReader.start();
 
         new Thread("TermSessionOutputWriter[pid=" + mShellPid + "]") {
             @Override
@@ -167,16 +428,71 @@ public final class TerminalSession extends TerminalOutput {
             @Override
             public void run() {
                 int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+                // Set before finishing the queue, after which the emulator thread reads it:
+                mEmulatorThreadExitCode = processExitCode;
+                finishOutput(inputReader, mProcessToTerminalIOQueue);
+                if (!mEmulatorThreadEnabled)
+                    mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
             }
         }.start();
 
+        if (mEmulatorThreadEnabled) {
+            new Thread("TermSessionEmulator[pid=" + mShellPid + "]") {
+                @Override
+                public void run() {
+                    parseOutput(mProcessToTerminalIOQueue, mEmulator, () -> {
+                        // Only have one screen update pending at a time, however much output is parsed meanwhile:
+                        if (!mScreenUpdatePending.getAndSet(true))
+                            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
+                    });
+                    // Report the exit once all output of the process has been parsed:
+                    mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, mEmulatorThreadExitCode));
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Finish the output queue once the process has exited, after the reader thread has read the output the process
+     * wrote before exiting from the pty, so that it is parsed before the exit is reported. The reader thread reaches
+     * the end of the pty once the process has exited, unless a process started by it in the background keeps it open.
+     */
+    static void finishOutput(Thread inputReader, ByteQueue processToTerminalIOQueue) {
+        try {
+            inputReader.join(PROCESS_OUTPUT_READ_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        processToTerminalIOQueue.finish();
+    }
+
+    /**
+     * Parse the output in a queue on the emulator thread, holding the lock of the emulator while parsing each slice of
+     * at most {@link #EMULATOR_THREAD_PARSE_SLICE_SIZE} bytes, until the queue has been finished and read to the end or
+     * closed. The callback is run after each slice of output parsed.
+     */
+    static void parseOutput(ByteQueue processToTerminalIOQueue, TerminalEmulator emulator, Runnable onOutputParsed) {
+        final ByteQueue.Sink lockingEmulatorSink = (buffer, offset, length) -> {
+            synchronized (emulator) {
+                emulator.append(buffer, offset, length);
+            }
+        };
+        while (processToTerminalIOQueue.read(lockingEmulatorSink, EMULATOR_THREAD_PARSE_SLICE_SIZE, true) != -1)
+            onOutputParsed.run();
     }
 
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        if (mEmulatorThreadEnabled) {
+            // The queue only allows one producer, but the emulator thread writes replies while the main thread writes input:
+            synchronized (mTerminalToProcessIOQueue) {
+                mTerminalToProcessIOQueue.write(data, offset, count);
+            }
+        } else {
+            mTerminalToProcessIOQueue.write(data, offset, count);
+        }
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -216,10 +532,24 @@ public final class TerminalSession extends TerminalOutput {
         write(mUtf8InputBuffer, 0, bufferPosition);
     }
 
+    /**
+     * Get the emulator, or null if not initialized yet. If {@link #isEmulatorThreadEnabled()}, synchronize on the emulator
+     * while accessing its screen. The buffers of the emulator are blank while the session is hibernating, see
+     * {@link #hibernate(File)}, so use {@link #getEmulatorRehydrated()} to read its rows.
+     */
     public TerminalEmulator getEmulator() {
         return mEmulator;
     }
 
+    /**
+     * Get the emulator like {@link #getEmulator()}, after rehydrating it right away if the session is hibernating, which
+     * may read its rows from their file on the current thread.
+     */
+    public TerminalEmulator getEmulatorRehydrated() {
+        rehydrateNow();
+        return mEmulator;
+    }
+
     /** Notify the {@link #mClient} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mClient.onTextChanged(this);
@@ -227,7 +557,9 @@ public final class TerminalSession extends TerminalOutput {
 
     /** Reset state for terminal emulator state. */
     public void reset() {
-        mEmulator.reset();
+        synchronized (mEmulator) {
+            mEmulator.reset();
+        }
         notifyScreenUpdate();
     }
 
@@ -249,15 +581,26 @@ public final class TerminalSession extends TerminalOutput {
             mShellExitStatus = exitStatus;
         }
 
+        stopRecording();
+
         // Stop the reader and writer threads, and close the I/O streams
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
     }
 
+    /** Run a callback of {@link #mClient} on the main thread, as the emulator may call it on the emulator thread. */
+    private void runOnMainThread(Runnable callback) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
+            callback.run();
+        } else {
+            mMainThreadHandler.post(callback);
+        }
+    }
+
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(() -> mClient.onTitleChanged(this));
     }
 
     public synchronized boolean isRunning() {
@@ -271,22 +614,27 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+        runOnMainThread(() -> mClient.onCopyTextToClipboard(this, text));
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(() -> mClient.onPasteTextFromClipboard(this));
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(() -> mClient.onBell(this));
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(() -> mClient.onColorsChanged(this));
+    }
+
+    @Override
+    public void onTerminalCursorStateChange(boolean state) {
+        runOnMainThread(() -> mClient.onTerminalCursorStateChange(state));
     }
 
     public int getPid() {
@@ -336,16 +684,25 @@ public final class TerminalSession extends TerminalOutput {
     @SuppressLint("HandlerLeak")
     class MainThreadHandler extends Handler {
 
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
+            if (msg.what == MSG_REHYDRATE) {
+                mRehydrating = false;
+                if (!isHibernating()) return;
+                rehydrateNow();
                 notifyScreenUpdate();
+                return;
+            }
+
+            if (msg.what == MSG_SCREEN_UPDATED || msg.what == MSG_SYNCHRONIZED_OUTPUT_TIMEOUT) {
+                if (msg.what == MSG_SCREEN_UPDATED) mScreenUpdatePending.set(false);
+                notifyScreenUpdateUnlessSynchronizing();
+                return;
             }
 
+            if (msg.what == MSG_NEW_INPUT) mNewInputPending.set(false);
+            if (parseQueuedOutput()) notifyScreenUpdateUnlessSynchronizing();
+
             if (msg.what == MSG_PROCESS_EXITED) {
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
@@ -361,13 +718,44 @@ public final class TerminalSession extends TerminalOutput {
                 exitDescription += " - press Enter]";
 
                 byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
+                synchronized (mEmulator) {
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                }
                 notifyScreenUpdate();
 
                 mClient.onSessionFinished(TerminalSession.this);
             }
         }
 
+        /**
+         * Notify the client that the screen has changed, unless the process is writing a frame with synchronized
+         * output, see {@link TerminalEmulator#getSynchronizedOutputDelayMillis()}. The notification is then held back
+         * until the output which resets synchronized output is parsed, or until it times out.
+         */
+        private void notifyScreenUpdateUnlessSynchronizing() {
+            final long delayMillis;
+            synchronized (mEmulator) {
+                delayMillis = mEmulator.getSynchronizedOutputDelayMillis();
+            }
+            if (delayMillis > 0) {
+                if (!hasMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT))
+                    sendEmptyMessageDelayed(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT, delayMillis);
+                return;
+            }
+            removeMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT);
+            notifyScreenUpdate();
+        }
+
+        /**
+         * Parse the output in {@link #mProcessToTerminalIOQueue} in place in one batch, and return if there was any. At
+         * most the capacity of the queue is parsed, as the reader thread cannot write more output until the batch has
+         * been parsed, and sends another {@link #MSG_NEW_INPUT} for the output it writes after that. So input events and
+         * drawing are not delayed until a flood of output has ended.
+         */
+        private boolean parseQueuedOutput() {
+            return mProcessToTerminalIOQueue.read(mEmulatorSink, mProcessToTerminalIOQueue.getCapacity(), false) > 0;
+        }
+
     }
 
 }
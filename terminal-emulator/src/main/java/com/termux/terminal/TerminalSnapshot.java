@@ -0,0 +1,179 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The rows of the buffers of a hibernating {@link TerminalEmulator} and the output appended to it since it started
+ * hibernating, see {@link TerminalEmulator#hibernate(File)}.
+ * <p>
+ * The rows are written as frozen rows, see {@link FrozenTerminalRow#writeTo(ByteBuffer, boolean)}, after the number of
+ * transcript rows of each buffer, to a byte array. If a file is used, the rows are moved to it by {@link #writeRows()}
+ * and read back by {@link #loadRows()}, which do not need the lock of the emulator and so may be called on a
+ * background thread. The output is kept as the raw bytes read from the process in a byte array, until it is replayed
+ * into the emulator after the rows have been restored.
+ */
+final class TerminalSnapshot {
+
+    /**
+     * The maximum number of output bytes kept, after which the emulator is rehydrated, which bounds the time replaying
+     * the output takes.
+     */
+    private static final int MAX_OUTPUT_BYTES = 1024 * 1024;
+
+    /** The file the rows are moved to by {@link #writeRows()}, or null if they are kept on the heap. */
+    private final File mFile;
+    /** The number of bytes of the rows. */
+    private final int mRowsLength;
+    /** The rows, or null if they have been moved to {@link #mFile}. Guarded by this. */
+    private byte[] mRows;
+    /** If the rows should be kept on the heap as they are about to be restored, see {@link #loadRows()}. Guarded by this. */
+    private boolean mRowsWanted;
+    /** If {@link #writeRows()} is writing the file. Guarded by this. */
+    private boolean mWriting;
+    /** If the snapshot has been deleted, see {@link #delete()}. Guarded by this. */
+    private boolean mDeleted;
+
+    /** The output appended since the rows were written. */
+    private byte[] mOutput = new byte[0];
+    /** The number of bytes of output appended. */
+    private int mOutputLength;
+
+    /**
+     * Write the rows of buffers, and release them, leaving the buffers blank.
+     *
+     * @param file    the file to move the rows to by {@link #writeRows()}, or null to keep them on the heap.
+     * @param buffers the buffers to write the rows of, which must be restored in the same order.
+     */
+    TerminalSnapshot(File file, TerminalBuffer... buffers) {
+        int size = 0;
+        for (TerminalBuffer buffer : buffers) size += buffer.getSnapshotSize();
+        final ByteBuffer rows = ByteBuffer.allocate(size);
+        for (TerminalBuffer buffer : buffers) buffer.writeSnapshot(rows);
+
+        mFile = file;
+        mRows = rows.array();
+        mRowsLength = size;
+
+        for (TerminalBuffer buffer : buffers) buffer.clearForSnapshot();
+    }
+
+    /**
+     * Move the rows to the file, if any, so that they no longer use memory. The file is read back after it has been
+     * written, and the rows are kept on the heap if it cannot be written or read back the same.
+     */
+    void writeRows() throws IOException {
+        final byte[] rows;
+        synchronized (this) {
+            rows = mRows;
+            if (mFile == null || rows == null || mRowsWanted || mWriting || mDeleted) return;
+            mWriting = true;
+        }
+
+        try {
+            final File directory = mFile.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Failed to create snapshot directory: " + directory);
+            try (FileOutputStream out = new FileOutputStream(mFile)) {
+                out.write(rows);
+                out.getFD().sync();
+            }
+            if (!Arrays.equals(rows, readFile()))
+                throw new IOException("Failed to verify snapshot file: " + mFile);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+            synchronized (this) {
+                mWriting = false;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            mWriting = false;
+            if (mDeleted) {
+                //noinspection ResultOfMethodCallIgnored
+                mFile.delete();
+            } else if (!mRowsWanted) {
+                mRows = null;
+            }
+        }
+    }
+
+    /** Read the rows back from the file if they have been moved to it, so that they are restored without reading it. */
+    void loadRows() throws IOException {
+        synchronized (this) {
+            mRowsWanted = true;
+            if (mRows != null || mDeleted) return;
+        }
+        final byte[] rows = readFile();
+        synchronized (this) {
+            if (mRows == null && !mDeleted) mRows = rows;
+        }
+    }
+
+    /** Read the rows from the file, which must have been written by {@link #writeRows()}. */
+    private byte[] readFile() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            if (file.length() != mRowsLength)
+                throw new IOException("Snapshot file has " + file.length() + " bytes instead of " + mRowsLength + ": " + mFile);
+            final byte[] rows = new byte[mRowsLength];
+            file.readFully(rows);
+            return rows;
+        }
+    }
+
+    /**
+     * Keep output until it is replayed, returning false without keeping it if more output is kept than allowed, in
+     * which case the emulator should be rehydrated.
+     */
+    boolean appendOutput(byte[] data, int offset, int length) {
+        final int newLength = mOutputLength + length;
+        if (newLength > MAX_OUTPUT_BYTES || newLength < 0) return false;
+        if (newLength > mOutput.length)
+            mOutput = Arrays.copyOf(mOutput, Math.min(MAX_OUTPUT_BYTES, Math.max(newLength, Math.max(4096, 2 * mOutput.length))));
+        System.arraycopy(data, offset, mOutput, mOutputLength, length);
+        mOutputLength = newLength;
+        return true;
+    }
+
+    /** Restore the rows of the buffers, in the order they were written in, reading them from the file if necessary. */
+    void restoreBuffers(TerminalBuffer... buffers) throws IOException {
+        byte[] rows;
+        synchronized (this) {
+            rows = mRows;
+        }
+        if (rows == null) rows = readFile();
+        final ByteBuffer buffer = ByteBuffer.wrap(rows);
+        for (TerminalBuffer terminalBuffer : buffers) terminalBuffer.readSnapshot(buffer);
+    }
+
+    /** Append the kept output to an emulator, which should no longer be hibernating. */
+    void replayOutput(TerminalEmulator emulator) {
+        emulator.append(mOutput, 0, mOutputLength);
+    }
+
+    /** Drop the rows and the output, and delete the file. */
+    synchronized void delete() {
+        mDeleted = true;
+        mRows = null;
+        mOutput = null;
+        if (mFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+        }
+    }
+
+    /** An estimate of the heap memory in bytes used by the rows kept on the heap and the output. */
+    synchronized long getMemoryUsage() {
+        long size = TerminalRow.OBJECT_SIZE;
+        if (mRows != null) size += TerminalRow.getArraySize(mRows.length, 1);
+        if (mOutput != null) size += TerminalRow.getArraySize(mOutput.length, 1);
+        return size;
+    }
+
+}
@@ -0,0 +1,278 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The oldest rows of a transcript which have not been reflowed yet after the number of columns changed, see
+ * {@link TerminalBuffer#resize(int, int, int, int[], long, boolean)}.
+ * <p>
+ * The rows are only split at logical lines ending with a non-blank row which is not line wrapped, after which the
+ * reflow always continues at the first column of a new row. The rows between two such splits can therefore be
+ * reflowed independently of the rows above them, which is done a logical line at a time from the bottom when the
+ * reflowed rows are accessed. The number of rows the pending rows reflow into is counted up front, which does not
+ * require any allocation and is cheap for rows without wide chars, so that the size of the transcript is known.
+ */
+final class TranscriptReflow {
+
+    private final TerminalBuffer mBuffer;
+    /** The rows to reflow in order from the top, with the number of columns they had before the resize. */
+    private final TerminalRow[] mOldRows;
+    /** The rows in {@link #mOldRows} from mOldStart (inclusive) to mOldEnd (exclusive) are not reflowed yet. */
+    private int mOldStart, mOldEnd;
+    /** The number of rows the pending rows in {@link #mOldRows} reflow into. */
+    private int mRows;
+    /** The number of the top rows of {@link #mRows} which have been dropped from the transcript by scrolling. */
+    private int mDroppedRows;
+    /** The end of the first logical line of the pending rows, and the number of rows it reflows into, or -1 if not known. */
+    private int mFirstLineEnd = -1, mFirstLineRows;
+    /** The number of columns to reflow to. */
+    private final int mColumns;
+    /** The style of the cells which are not written by the reflow. */
+    private final long mStyle;
+    /** The row which reflowed rows are written to before they are frozen. */
+    private final TerminalRow mOutputRow;
+
+    /**
+     * Create a pending reflow of the oldRows from start (inclusive) to end (exclusive), which must be the start of
+     * the transcript or follow a row for which {@link #endsLogicalLine(TerminalRow)} is true, and end with such a row.
+     */
+    TranscriptReflow(TerminalBuffer buffer, TerminalRow[] oldRows, int start, int end, int columns, long style) {
+        mBuffer = buffer;
+        mOldRows = oldRows;
+        mOldStart = start;
+        mOldEnd = end;
+        mColumns = columns;
+        mStyle = style;
+        mOutputRow = new TerminalRow(columns, style);
+        mRows = countRows(start, end);
+    }
+
+    /** If the reflow always continues at the first column of a new row after the specified row. */
+    static boolean endsLogicalLine(TerminalRow row) {
+        return row != null && !row.mLineWrap && !row.isBlank();
+    }
+
+    /** The number of reflowed rows which are at the top of the transcript and have not been reflowed yet. */
+    int getPendingRows() {
+        return mRows - mDroppedRows;
+    }
+
+    /** The number of old rows which have not been reflowed yet. */
+    int getOldRowCount() {
+        return mOldEnd - mOldStart;
+    }
+
+    /** An estimate of the heap memory in bytes used by the old rows which have not been reflowed yet. */
+    long getMemoryUsage() {
+        long size = TerminalRow.getArraySize(mOldRows.length, 4) + mOutputRow.getMemoryUsage();
+        for (int i = mOldStart; i < mOldEnd; i++)
+            if (mOldRows[i] != null) size += mOldRows[i].getMemoryUsage();
+        return size;
+    }
+
+    /** Copy the old rows which have not been reflowed yet to the start of an array, and return their number. */
+    int copyOldRowsTo(TerminalRow[] rows) {
+        System.arraycopy(mOldRows, mOldStart, rows, 0, mOldEnd - mOldStart);
+        return mOldEnd - mOldStart;
+    }
+
+    /** Drop top pending rows, which have been scrolled out of the transcript. */
+    void dropTopRows(int rows) {
+        mDroppedRows += rows;
+        while (mOldStart < mOldEnd) {
+            if (mFirstLineEnd == -1) {
+                int end = mOldStart;
+                while (!endsLogicalLine(mOldRows[end])) end++;
+                mFirstLineEnd = end + 1;
+                mFirstLineRows = countRows(mOldStart, mFirstLineEnd);
+            }
+            // Release the rows of the logical line once all of it has been dropped:
+            if (mFirstLineRows > mDroppedRows) break;
+            for (int i = mOldStart; i < mFirstLineEnd; i++) {
+                // The old rows are spilled as they are, with the number of columns they had before the resize:
+                if (mOldRows[i] != null) mBuffer.spillRow(mOldRows[i]);
+                mOldRows[i] = null;
+            }
+            mOldStart = mFirstLineEnd;
+            mRows -= mFirstLineRows;
+            mDroppedRows -= mFirstLineRows;
+            mFirstLineEnd = -1;
+        }
+    }
+
+    /** The number of bytes {@link #writeSnapshot(ByteBuffer)} writes. */
+    int getSnapshotSize() {
+        int size = 16;
+        for (int i = mOldStart; i < mOldEnd; i++) size += getSnapshotRow(i).getWrittenSize();
+        return size;
+    }
+
+    /**
+     * Write the old rows which have not been reflowed yet, as they are, and the number of the top reflowed rows which
+     * have been dropped at the position of a buffer, see {@link TerminalBuffer#writeSnapshot(ByteBuffer)}. The rows are
+     * reflowed lazily after being restored by {@link #readSnapshot(TerminalBuffer, ByteBuffer, int)} as they would
+     * have been, since reflowing them now could wrap them differently once the buffer is resized again.
+     */
+    void writeSnapshot(ByteBuffer snapshot) {
+        snapshot.putInt(mOldEnd - mOldStart);
+        snapshot.putInt(mDroppedRows);
+        snapshot.putLong(mStyle);
+        for (int i = mOldStart; i < mOldEnd; i++)
+            getSnapshotRow(i).writeTo(snapshot, mOldRows[i] != null && mOldRows[i].mLineWrap);
+    }
+
+    /** Write an empty pending reflow at the position of a buffer, for a buffer without one. */
+    static void writeEmptySnapshot(ByteBuffer snapshot) {
+        snapshot.putInt(0);
+        snapshot.putInt(0);
+        snapshot.putLong(0);
+    }
+
+    /** The frozen contents of an old row for a snapshot, where a missing row is written as the blank row it reflows as. */
+    private FrozenTerminalRow getSnapshotRow(int oldRow) {
+        TerminalRow row = mOldRows[oldRow];
+        if (row == null) row = new TerminalRow(mColumns, mStyle);
+        return row.isFrozen() ? row.getFrozen() : new FrozenTerminalRow(row);
+    }
+
+    /**
+     * Restore a pending reflow written by {@link #writeSnapshot(ByteBuffer)} at the position of a buffer, or return
+     * null if there were no rows pending.
+     */
+    static TranscriptReflow readSnapshot(TerminalBuffer buffer, ByteBuffer snapshot, int columns) {
+        final int oldRowCount = snapshot.getInt();
+        final int droppedRows = snapshot.getInt();
+        final long style = snapshot.getLong();
+        if (oldRowCount == 0) return null;
+        final TerminalRow[] oldRows = new TerminalRow[oldRowCount];
+        for (int i = 0; i < oldRowCount; i++) {
+            final boolean lineWrap = FrozenTerminalRow.readLineWrap(snapshot, snapshot.position());
+            oldRows[i] = TerminalRow.frozen(FrozenTerminalRow.readFrom(snapshot), lineWrap);
+        }
+        final TranscriptReflow reflow = new TranscriptReflow(buffer, oldRows, 0, oldRowCount, columns, style);
+        // The logical lines which were dropped entirely have been released before, so no rows are spilled again:
+        reflow.dropTopRows(droppedRows);
+        return reflow;
+    }
+
+    /** Reflow the bottom logical line of the pending rows, and pass the rows which are still in the transcript to the buffer. */
+    void reflowLastLine() {
+        int start = mOldEnd - 1;
+        while (start > mOldStart && !endsLogicalLine(mOldRows[start - 1])) start--;
+        final int rows = countRows(start, mOldEnd);
+        int outputRow = mRows - rows;
+
+        final TerminalRow output = mOutputRow;
+        int column = 0;
+        int skippedBlankRows = 0;
+        for (int i = start; i < mOldEnd; i++) {
+            TerminalRow line = mOldRows[i];
+            if (line == null || line.isBlank()) {
+                skippedBlankRows++;
+                continue;
+            }
+            for (; skippedBlankRows > 0; skippedBlankRows--) {
+                outputRow = emitRow(outputRow);
+                column = 0;
+            }
+
+            if (line.isFrozen()) line = mBuffer.getThawedCopy(line);
+            final char[] text = line.mText;
+            final int length = line.mLineWrap ? line.getSpaceUsed() : getLengthWithoutTrailingSpaces(line);
+            int oldColumn = 0;
+            long style = 0;
+            for (int j = 0; j < length; j++) {
+                // Like the reflow in TerminalBuffer.resize(), see the comments there.
+                char c = text[j];
+                int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[++j]) : c;
+                int displayWidth = WcWidth.width(codePoint);
+                if (displayWidth > 0) style = line.getStyle(oldColumn);
+                if (column + displayWidth > mColumns) {
+                    output.mLineWrap = true;
+                    outputRow = emitRow(outputRow);
+                    column = 0;
+                }
+                int offsetDueToCombiningChar = ((displayWidth <= 0 && column > 0) ? 1 : 0);
+                output.setChar(column - offsetDueToCombiningChar, codePoint, style);
+                if (displayWidth > 0) {
+                    oldColumn += displayWidth;
+                    column += displayWidth;
+                }
+            }
+            if (!line.mLineWrap) {
+                outputRow = emitRow(outputRow);
+                column = 0;
+            }
+        }
+
+        for (int i = start; i < mOldEnd; i++) mOldRows[i] = null;
+        mOldEnd = start;
+        mRows -= rows;
+        if (start <= mOldStart) mFirstLineEnd = -1;
+    }
+
+    /** Freeze the output row into the transcript unless it has been dropped, and clear it for the next row. */
+    private int emitRow(int outputRow) {
+        if (outputRow >= mDroppedRows) mBuffer.setReflowedRow(outputRow - mDroppedRows, mOutputRow.freeze());
+        mOutputRow.clear(mStyle);
+        mOutputRow.mLineWrap = false;
+        return outputRow + 1;
+    }
+
+    /** Count the number of rows the oldRows from start (inclusive) to end (exclusive) reflow into. */
+    private int countRows(int start, int end) {
+        int rows = 0;
+        int column = 0;
+        int skippedBlankRows = 0;
+        for (int i = start; i < end; i++) {
+            TerminalRow line = mOldRows[i];
+            if (line == null || line.isBlank()) {
+                skippedBlankRows++;
+                continue;
+            }
+            if (skippedBlankRows > 0) {
+                rows += skippedBlankRows;
+                column = 0;
+                skippedBlankRows = 0;
+            }
+
+            if (line.mHasNonOneWidthOrSurrogateChars) {
+                if (line.isFrozen()) line = mBuffer.getThawedCopy(line);
+                final char[] text = line.mText;
+                final int length = line.mLineWrap ? line.getSpaceUsed() : getLengthWithoutTrailingSpaces(line);
+                for (int j = 0; j < length; j++) {
+                    char c = text[j];
+                    int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[++j]) : c;
+                    int displayWidth = WcWidth.width(codePoint);
+                    if (displayWidth <= 0) continue;
+                    if (column + displayWidth > mColumns) {
+                        rows++;
+                        column = 0;
+                    }
+                    column += displayWidth;
+                }
+            } else {
+                // Each char is a column, so the number of line wraps can be calculated directly.
+                final int length = line.mLineWrap ? line.getSpaceUsed() : getLengthWithoutTrailingSpaces(line);
+                if (length > 0) {
+                    rows += (column + length - 1) / mColumns;
+                    column = (column + length - 1) % mColumns + 1;
+                }
+            }
+            if (!line.mLineWrap) {
+                rows++;
+                column = 0;
+            }
+        }
+        return rows;
+    }
+
+    /** The number of java chars used by the text of a row, which may be frozen, without trailing spaces. */
+    private static int getLengthWithoutTrailingSpaces(TerminalRow row) {
+        if (row.isFrozen()) return row.getFrozen().getLengthWithoutTrailingSpaces();
+        int length = row.getSpaceUsed();
+        while (length > 0 && row.mText[length - 1] == ' ') length--;
+        return length;
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The oldest rows of a transcript, which no longer fit in the rows a {@link TerminalBuffer} keeps in memory, kept in
+ * append-only files in a directory instead of being dropped.
+ * <p>
+ * Rows are appended in order from the top of the transcript, written as {@link FrozenTerminalRow}:s into segment files
+ * which are memory-mapped, so that they live in the page cache instead of on the heap. Each segment starts with an
+ * index of the offsets of its rows, so that a row can be found without reading the rows before it, followed by the
+ * rows themselves. Only the segment being appended to and the last {@link #MAPPED_READ_SEGMENTS} segments read from
+ * are mapped at a time, and the oldest segments are deleted once the segments take up more than the maximum size.
+ * <p>
+ * Rows are read back as thawed rows, which are cached by their index, so that the rows shown on the screen while
+ * scrolling through the transcript are only read once.
+ */
+final class TranscriptSpill {
+
+    /** The maximum number of rows in a segment, and the size of its index of row offsets. */
+    private static final int SEGMENT_ROWS = 8192;
+    private static final int SEGMENT_INDEX_SIZE = 4 * SEGMENT_ROWS;
+    /** The size each segment file is mapped with, which is only written up to the end of its last row. */
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    /** The number of sealed segments to keep mapped for reading. */
+    private static final int MAPPED_READ_SEGMENTS = 2;
+    /** The number of rows in {@link #mCachedRows}, which is a power of two larger than any screen. */
+    private static final int CACHED_ROWS = 256;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    /** The segments in order from the oldest one, where the last one is appended to. */
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    /** The sum of {@link Segment#mBytes} of {@link #mSegments}. */
+    private long mBytes;
+    /**
+     * The number of rows appended, which is the absolute index of the next row. Absolute indices count the rows which have
+     * been dropped with the oldest segments, so that they do not change when segments are dropped.
+     */
+    private int mEndRow;
+    /** The number of the next segment file to create. */
+    private int mNextSegmentNumber;
+    /** The sealed segments which are mapped for reading, with the most recently used one first. */
+    private final Segment[] mReadSegments = new Segment[MAPPED_READ_SEGMENTS];
+    /** If rows are dropped instead of appended, since appending failed or the spill has been closed. */
+    private boolean mDropRows;
+
+    /** Thawed rows, where a row is cached at its absolute index modulo {@link #CACHED_ROWS}. */
+    private final TerminalRow[] mCachedRows = new TerminalRow[CACHED_ROWS];
+    /** The absolute index of each row in {@link #mCachedRows}, or -1. */
+    private final int[] mCachedRowIndices = new int[CACHED_ROWS];
+    /** A row to thaw rows into which have another number of columns than requested. */
+    private TerminalRow mScratchRow;
+
+    /**
+     * Create a spill keeping its files in a directory, which is created if necessary.
+     *
+     * @param directory the directory to keep the segment files in, which should not be used for anything else.
+     * @param maxBytes  the size of the segment files after which the oldest rows are dropped.
+     */
+    TranscriptSpill(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create transcript spill directory: " + directory);
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        Arrays.fill(mCachedRowIndices, -1);
+    }
+
+    /** The number of rows which can be read, from 0 for the oldest one to {@link #getRows()} - 1 for the newest one. */
+    int getRows() {
+        return mSegments.isEmpty() ? 0 : mEndRow - mSegments.get(0).mFirstRow;
+    }
+
+    /** Append a row below the newest row, which may be frozen. */
+    void append(TerminalRow row) {
+        if (mDropRows) return;
+        final FrozenTerminalRow frozen = row.isFrozen() ? row.getFrozen() : new FrozenTerminalRow(row);
+        final int size = frozen.getWrittenSize();
+
+        try {
+            Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+            if (segment == null || segment.mRows == SEGMENT_ROWS || segment.mBytes + size > SEGMENT_SIZE) {
+                if (segment != null) segment.mBuffer = null;
+                segment = new Segment(new File(mDirectory, Integer.toString(mNextSegmentNumber++)), mEndRow);
+                segment.mBuffer = segment.map(true);
+                mSegments.add(segment);
+                mBytes += segment.mBytes;
+            }
+
+            final MappedByteBuffer buffer = segment.mBuffer;
+            buffer.putInt(4 * segment.mRows, segment.mBytes);
+            buffer.position(segment.mBytes);
+            frozen.writeTo(buffer, row.mLineWrap);
+            segment.mRows++;
+            segment.mBytes += size;
+            mBytes += size;
+            mEndRow++;
+        } catch (IOException e) {
+            // Disk full or similar, so keep the rows which have been appended and drop the following ones:
+            mDropRows = true;
+            return;
+        }
+
+        // Drop the oldest segments while over the maximum size, but always keep the one being appended to:
+        while (mBytes > mMaxBytes && mSegments.size() > 1) {
+            Segment oldest = mSegments.remove(0);
+            mBytes -= oldest.mBytes;
+            for (int i = 0; i < MAPPED_READ_SEGMENTS; i++)
+                if (mReadSegments[i] == oldest) mReadSegments[i] = null;
+            //noinspection ResultOfMethodCallIgnored
+            oldest.mFile.delete();
+        }
+    }
+
+    /** If the row at an index only contains spaces. */
+    boolean isBlank(int index) {
+        final int absoluteRow = toAbsoluteRow(index);
+        final Segment segment = getMappedSegment(absoluteRow);
+        return FrozenTerminalRow.isBlank(segment.mBuffer, segment.getRowOffset(absoluteRow));
+    }
+
+    /** If the row at an index is line wrapped, without reading the rest of it. */
+    boolean getLineWrap(int index) {
+        final int absoluteRow = toAbsoluteRow(index);
+        final Segment segment = getMappedSegment(absoluteRow);
+        return FrozenTerminalRow.readLineWrap(segment.mBuffer, segment.getRowOffset(absoluteRow));
+    }
+
+    /** The low and high bits of the bigram signature of the row at an index, see {@link FrozenTerminalRow#getSignatureLow()}. */
+    long getSignatureLow(int index) {
+        final int absoluteRow = toAbsoluteRow(index);
+        final Segment segment = getMappedSegment(absoluteRow);
+        return FrozenTerminalRow.readSignatureLow(segment.mBuffer, segment.getRowOffset(absoluteRow));
+    }
+
+    long getSignatureHigh(int index) {
+        final int absoluteRow = toAbsoluteRow(index);
+        final Segment segment = getMappedSegment(absoluteRow);
+        return FrozenTerminalRow.readSignatureHigh(segment.mBuffer, segment.getRowOffset(absoluteRow));
+    }
+
+    /**
+     * Get a thawed copy of the row at an index with the specified number of columns, where rows appended with another
+     * number of columns are cut off or padded with spaces. The copy must not be modified, and stays valid until a row at
+     * an index which differs by a multiple of {@link #CACHED_ROWS} is read, so that the rows of a screen can be used at
+     * the same time.
+     */
+    TerminalRow getRow(int index, int columns) {
+        final int absoluteRow = toAbsoluteRow(index);
+        final int cacheIndex = absoluteRow & (CACHED_ROWS - 1);
+        TerminalRow row = mCachedRows[cacheIndex];
+        if (mCachedRowIndices[cacheIndex] == absoluteRow && row.getColumns() == columns) return row;
+
+        final Segment segment = getMappedSegment(absoluteRow);
+        final MappedByteBuffer buffer = segment.mBuffer;
+        final int offset = segment.getRowOffset(absoluteRow);
+        buffer.position(offset);
+        final FrozenTerminalRow frozen = FrozenTerminalRow.readFrom(buffer);
+
+        if (row == null || row.getColumns() != columns) row = mCachedRows[cacheIndex] = new TerminalRow(columns, 0);
+        if (frozen.getColumns() == columns) {
+            row.thawFrom(frozen);
+        } else {
+            if (mScratchRow == null || mScratchRow.getColumns() != frozen.getColumns())
+                mScratchRow = new TerminalRow(frozen.getColumns(), 0);
+            mScratchRow.thawFrom(frozen);
+            row.clear(0);
+            row.copyInterval(mScratchRow, 0, Math.min(columns, frozen.getColumns()), 0);
+        }
+        row.mLineWrap = FrozenTerminalRow.readLineWrap(buffer, offset);
+        mCachedRowIndices[cacheIndex] = absoluteRow;
+        return row;
+    }
+
+    /** An estimate of the heap memory in bytes used by the cached rows, as the rows themselves are not on the heap. */
+    long getMemoryUsage() {
+        long size = TerminalRow.getArraySize(CACHED_ROWS, 4) + TerminalRow.getArraySize(CACHED_ROWS, 4);
+        for (TerminalRow row : mCachedRows)
+            if (row != null) size += row.getMemoryUsage();
+        if (mScratchRow != null) size += mScratchRow.getMemoryUsage();
+        return size;
+    }
+
+    /** Drop the cached rows, which are read again when needed. */
+    void clearCachedRows() {
+        Arrays.fill(mCachedRows, null);
+        Arrays.fill(mCachedRowIndices, -1);
+        mScratchRow = null;
+    }
+
+    /** Drop all rows and delete their files. */
+    void clear() {
+        for (Segment segment : mSegments)
+            //noinspection ResultOfMethodCallIgnored
+            segment.mFile.delete();
+        mSegments.clear();
+        Arrays.fill(mReadSegments, null);
+        clearCachedRows();
+        mBytes = 0;
+        mEndRow = 0;
+    }
+
+    /** Drop all rows, delete their files and the directory, and stop appending rows. */
+    void close() {
+        clear();
+        mDropRows = true;
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    /** Convert an index from 0 for the oldest row to an absolute index. */
+    private int toAbsoluteRow(int index) {
+        final int rows = getRows();
+        if (index < 0 || index >= rows) throw new IllegalArgumentException("index=" + index + ", rows=" + rows);
+        return mEndRow - rows + index;
+    }
+
+    /** Get the segment containing the row at an absolute index, mapping it if necessary. */
+    private Segment getMappedSegment(int absoluteRow) {
+        int low = 0, high = mSegments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mSegments.get(middle).mFirstRow <= absoluteRow) low = middle;
+            else high = middle - 1;
+        }
+        final Segment segment = mSegments.get(low);
+        if (segment.mBuffer != null) {
+            if (low == mSegments.size() - 1 || mReadSegments[0] == segment) return segment;
+        } else {
+            try {
+                segment.mBuffer = segment.map(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map transcript spill segment: " + segment.mFile, e);
+            }
+        }
+
+        // Move the segment first in the mapped read segments, and unmap the least recently used one:
+        Segment evicted = segment;
+        for (int i = 0; i < MAPPED_READ_SEGMENTS && evicted != null; i++) {
+            Segment next = mReadSegments[i];
+            mReadSegments[i] = evicted;
+            evicted = (next == segment) ? null : next;
+        }
+        if (evicted != null) evicted.mBuffer = null;
+        return segment;
+    }
+
+    /** A segment file, which is mapped while {@link #mBuffer} is set. */
+    private static final class Segment {
+
+        final File mFile;
+        /** The absolute index of the first row in the segment. */
+        final int mFirstRow;
+        /** The number of rows in the segment. */
+        int mRows;
+        /** The number of bytes used by the index and the rows, which is where the next row is written. */
+        int mBytes = SEGMENT_INDEX_SIZE;
+        /**
+         * The mapped segment file, or null. The mapping is released when the buffer is garbage collected, as it cannot
+         * be unmapped explicitly.
+         */
+        MappedByteBuffer mBuffer;
+
+        Segment(File file, int firstRow) {
+            mFile = file;
+            mFirstRow = firstRow;
+        }
+
+        MappedByteBuffer map(boolean writable) throws IOException {
+            // The mapping stays valid after the file has been closed:
+            try (RandomAccessFile file = new RandomAccessFile(mFile, writable ? "rw" : "r")) {
+                return file.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, writable ? SEGMENT_SIZE : mBytes);
+            }
+        }
+
+        /** The offset of the row at an absolute index, which must be in this mapped segment. */
+        int getRowOffset(int absoluteRow) {
+            return mBuffer.getInt(4 * (absoluteRow - mFirstRow));
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the text of rows to a {@link Writer} in chunks, trimmed like {@link String#trim()} is. Whitespace at the start
+ * is skipped, and spaces are held back as a count until more text follows them, so that the spaces at the end are
+ * dropped. Other whitespace is written right away, so the rows passed must end with a row which is not blank, whose
+ * text does not end with a line break. See {@link TerminalBuffer#writeTranscriptText(Writer, boolean, boolean)}.
+ */
+final class TranscriptWriter implements TerminalBuffer.TextSink<IOException> {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Writer mWriter;
+    private final char[] mChunk = new char[CHUNK_SIZE];
+    private int mChunkLength;
+    /** If text other than whitespace has been written. */
+    private boolean mStarted;
+    /** The number of spaces after the last text written, which are only written if more text follows. */
+    private int mPendingSpaces;
+
+    TranscriptWriter(Writer writer) {
+        mWriter = writer;
+    }
+
+    @Override
+    public void append(char[] text, int offset, int length) throws IOException {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final char c = text[i];
+            if (c <= ' ') {
+                if (!mStarted) continue;
+                if (c == ' ') {
+                    mPendingSpaces++;
+                    continue;
+                }
+            }
+            mStarted = true;
+            writePendingSpaces();
+            write(c);
+        }
+    }
+
+    private void writePendingSpaces() throws IOException {
+        for (; mPendingSpaces > 0; mPendingSpaces--) write(' ');
+    }
+
+    private void write(char c) throws IOException {
+        if (mChunkLength == CHUNK_SIZE) flushChunk();
+        mChunk[mChunkLength++] = c;
+    }
+
+    private void flushChunk() throws IOException {
+        mWriter.write(mChunk, 0, mChunkLength);
+        mChunkLength = 0;
+    }
+
+    /** Write the rest of the text, dropping the whitespace at its end, and flush the writer. */
+    void finish() throws IOException {
+        flushChunk();
+        mWriter.flush();
+    }
+
+}
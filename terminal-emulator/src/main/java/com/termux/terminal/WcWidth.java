@@ -1,10 +1,19 @@
 package com.termux.terminal;
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Implementation of wcwidth(3) for Unicode 15.
  *
  * Implementation from https://github.com/jquast/wcwidth but we return 0 for unprintable characters.
  *
+ * The interval tables are searched once when the class is loaded to build lookup tables, so that
+ * {@link #width(int)} is a constant time lookup: a table of 2 bits per code point for the BMP and
+ * a two level table of deduplicated blocks of code points for the supplementary planes.
+ *
  * IMPORTANT:
  * Must be kept in sync with the following:
  * https://github.com/termux/wcwidth
@@ -510,8 +519,11 @@ public final class WcWidth {
         return false;
     }
 
-    /** Return the terminal display width of a code point: 0, 1 || 2. */
-    public static int width(int ucs) {
+    /**
+     * Return the terminal display width of a code point: 0, 1 || 2, by searching the tables above.
+     * This is the source of truth used to build the lookup tables below, see {@link #width(int)}.
+     */
+    static int widthFromTables(int ucs) {
         if (ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
@@ -532,6 +544,65 @@ public final class WcWidth {
         return intable(WIDE_EASTASIAN, ucs) ? 2 : 1;
     }
 
+    /** The number of code points in a block of {@link #SUPPLEMENTARY_BLOCKS}. */
+    private static final int BLOCK_SIZE = 256;
+    /** The number of ints a block of {@link #BLOCK_SIZE} code points needs with 2 bits per code point. */
+    private static final int BLOCK_INTS = BLOCK_SIZE / 16;
+
+    /** The widths of the code points in the Basic Multilingual Plane, packed 2 bits per code point. */
+    private static final int[] BMP_WIDTHS = new int[0x10000 / 16];
+    /** The index of the block in {@link #SUPPLEMENTARY_BLOCKS} for each block of code points after the BMP. */
+    private static final short[] SUPPLEMENTARY_BLOCK_INDEX = new short[(Character.MAX_CODE_POINT + 1 - 0x10000) / BLOCK_SIZE];
+    /** The distinct blocks of widths of {@link #BLOCK_SIZE} code points, packed 2 bits per code point. */
+    private static final int[] SUPPLEMENTARY_BLOCKS;
+
+    static {
+        for (int c = 0; c < 0x10000; c++)
+            BMP_WIDTHS[c >> 4] |= widthFromTables(c) << ((c & 15) << 1);
+
+        // Only blocks which intersect the tables can have widths other than 1, and most of them
+        // are equal, like the blocks of ideographs, so only distinct blocks are stored.
+        boolean[] inTables = new boolean[SUPPLEMENTARY_BLOCK_INDEX.length];
+        for (int[][] table : new int[][][]{ZERO_WIDTH, WIDE_EASTASIAN}) {
+            for (int[] interval : table) {
+                for (int c = Math.max(interval[0], 0x10000); c <= interval[1]; c += BLOCK_SIZE - (c % BLOCK_SIZE))
+                    inTables[(c - 0x10000) / BLOCK_SIZE] = true;
+            }
+        }
+
+        Map<IntBuffer, Short> blockIndices = new HashMap<>();
+        int[] blocks = new int[BLOCK_INTS * 64];
+        int blockCount = 0;
+        int[] block = new int[BLOCK_INTS];
+        for (int i = 0; i < SUPPLEMENTARY_BLOCK_INDEX.length; i++) {
+            Arrays.fill(block, 0);
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                int width = inTables[i] ? widthFromTables(0x10000 + i * BLOCK_SIZE + j) : 1;
+                block[j >> 4] |= width << ((j & 15) << 1);
+            }
+            Short index = blockIndices.get(IntBuffer.wrap(block));
+            if (index == null) {
+                if (blocks.length < (blockCount + 1) * BLOCK_INTS) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                System.arraycopy(block, 0, blocks, blockCount * BLOCK_INTS, BLOCK_INTS);
+                index = (short) blockCount++;
+                blockIndices.put(IntBuffer.wrap(Arrays.copyOf(block, BLOCK_INTS)), index);
+            }
+            SUPPLEMENTARY_BLOCK_INDEX[i] = index;
+        }
+        SUPPLEMENTARY_BLOCKS = Arrays.copyOf(blocks, blockCount * BLOCK_INTS);
+    }
+
+    /** Return the terminal display width of a code point: 0, 1 || 2. */
+    public static int width(int ucs) {
+        if (ucs >= 0 && ucs < 0x10000)
+            return (BMP_WIDTHS[ucs >> 4] >>> ((ucs & 15) << 1)) & 3;
+        if (ucs < 0 || ucs > Character.MAX_CODE_POINT)
+            return widthFromTables(ucs);
+        int offset = ucs - 0x10000;
+        int block = SUPPLEMENTARY_BLOCK_INDEX[offset / BLOCK_SIZE];
+        return (SUPPLEMENTARY_BLOCKS[block * BLOCK_INTS + ((offset % BLOCK_SIZE) >> 4)] >>> ((ucs & 15) << 1)) & 3;
+    }
+
     /** The width at an index position in a java char array. */
     public static int width(char[] chars, int index) {
         char c = chars[index];
@@ -1,6 +1,8 @@
 #include <dirent.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <jni.h>
+#include <poll.h>
 #include <signal.h>
 #include <stdio.h>
 #include <stdlib.h>
@@ -208,6 +210,29 @@ JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSE
     }
 }
 
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_read(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jbyteArray buffer, jint offset, jint length)
+{
+    // Wait for input before entering the critical region below, in which the garbage collector may be blocked.
+    // The only reader of the fd is the calling thread, so the read(2) will then not block.
+    struct pollfd pfd = { .fd = fd, .events = POLLIN };
+    int ready;
+    do {
+        ready = poll(&pfd, 1, -1);
+    } while (ready == -1 && errno == EINTR);
+    if (ready == -1) return -1;
+
+    jbyte* bytes = (jbyte*) (*env)->GetPrimitiveArrayCritical(env, buffer, NULL);
+    if (!bytes) return throw_runtime_exception(env, "JNI call GetPrimitiveArrayCritical(buffer, &isCopy) failed");
+
+    ssize_t bytes_read;
+    do {
+        bytes_read = read(fd, bytes + offset, (size_t) length);
+    } while (bytes_read == -1 && errno == EINTR);
+    (*env)->ReleasePrimitiveArrayCritical(env, buffer, bytes, 0);
+
+    return bytes_read > 0 ? (jint) bytes_read : -1;
+}
+
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fileDescriptor)
 {
     close(fileDescriptor);
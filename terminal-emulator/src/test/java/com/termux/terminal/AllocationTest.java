@@ -0,0 +1,128 @@
+package com.termux.terminal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Replays workloads like the output of shells, log files and full screen applications into an emulator and checks
+ * with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} that parsing and emitting them does not
+ * allocate once warmed up, so that allocations do not creep back into the parse path.
+ * <p>
+ * The workloads which scroll are replayed in the main buffer, where the rows which scroll into the full transcript are
+ * frozen into the rows dropped from it, and in the alternate buffer, as full screen applications do.
+ */
+public class AllocationTest extends TerminalTestCase {
+
+	private static final int COLUMNS = 80, ROWS = 24;
+
+	/** A shell prompt setting the title and marking the prompt, and editing a command line with wide chars. */
+	private static String shellPrompt() {
+		return "\033]0;~/project\007\033]7;file://localhost/root/project\033\\\033]133;A\007"
+			+ "\033[H\033[1;32m~/project\033[0m $ \033]133;B\007git log --oneline 中文\033[6D\033[2@ab\033[3P\033[4hxy\033[4l"
+			+ "\033[K\033[?2004h\033[?2004l\033]133;C\007\007";
+	}
+
+	/** Log lines, some with colored levels, and a progress line redrawn with carriage returns. */
+	private static String logFlood(Random random) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			builder.append("[JioTV Go] 2024/05/0").append(random.nextInt(10)).append(random.nextBoolean() ? " \033[33mWARN\033[0m" : " INFO")
+				.append(" GET /live/").append(random.nextInt(1000)).append(".m3u8 200 ").append(random.nextInt(100)).append("ms\r\n");
+			builder.append("\r[").append(i).append("%]\033[K\r\n");
+		}
+		return builder.toString();
+	}
+
+	/** A colored directory listing and a line of rainbow colored text, which has more styles than style runs kept. */
+	private static String colors(Random random) {
+		StringBuilder builder = new StringBuilder("\033[H\033[2J");
+		String[] colors = {"01;34", "01;32", "38;5;208", "38;2;255;128;0", "40;33;01", "7", "4;3"};
+		for (int row = 0; row < ROWS / 2; row++) {
+			builder.append("\033[0m\033[").append(colors[random.nextInt(colors.length)]).append("mfile").append(row).append("\033[0m  \r\n");
+		}
+		for (int column = 0; column < COLUMNS - 1; column++)
+			builder.append("\033[38;5;").append(column).append("m#");
+		return builder.append("\033[m\r\n").toString();
+	}
+
+	/** Wide east asian chars, combining chars and emoji, and inserting and deleting chars in a row with them. */
+	private static String wideChars() {
+		return "\033[H\033[2J電視節目 チャンネル 한국어 é 📺 🇮🇳 👍🏽\r\n"
+			+ "\033[1;5H\033[3@\033[2P\033[4h中\033[4l\033(0lqqk\033(B\r\n";
+	}
+
+	/** A status line below a scroll region scrolled with line feeds and reverse index, like vim and less do. */
+	private static String scrollRegion(Random random) {
+		StringBuilder builder = new StringBuilder("\033[2;" + (ROWS - 1) + "r");
+		for (int i = 0; i < 30; i++) {
+			builder.append("\033[").append(ROWS - 1).append(";1H\n\033[33m").append(i).append("\033[0m line ").append(random.nextInt());
+			if (i % 8 == 0) builder.append("\033[2;1H\033M~");
+			builder.append("\033[").append(ROWS).append(";1H\033[7m-- INSERT --\033[K\033[0m");
+		}
+		return builder.append("\033[4S\033[2T\033[r").toString();
+	}
+
+	/** A full screen repaint with the cursor hidden and synchronized output, like a full screen TUI does. */
+	private static String fullScreenRepaint(Random random) {
+		StringBuilder builder = new StringBuilder("\033[?2026h\033[?25l");
+		for (int row = 1; row <= ROWS; row++) {
+			builder.append("\033[").append(row).append(";1H\033[").append(30 + random.nextInt(8)).append(';').append(40 + random.nextInt(8))
+				.append("m").append(Long.toString(random.nextLong(), 36)).append("\033[1;38;5;").append(random.nextInt(256)).append("m|\033[0m\033[K");
+		}
+		return builder.append("\033[1J\033[0J\033[2K\033[5X\033[?25h\033[?2026l").toString();
+	}
+
+	/** Append a workload until warmed up, and then check that appending it again a number of times does not allocate. */
+	private void assertNoAllocations(String workload, boolean alternateBuffer) {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) return;
+		com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+		if (!allocationMXBean.isThreadAllocatedMemorySupported()) return;
+		allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		withTerminalSized(COLUMNS, ROWS);
+		if (alternateBuffer) enterString("\033[?1049h");
+		byte[] bytes = workload.getBytes(StandardCharsets.UTF_8);
+		long threadId = Thread.currentThread().getId();
+		// Warm up the code, and fill the transcript and the pools of rows and arrays which are then reused. The counter
+		// of allocated bytes is warmed up as well, as it may allocate itself until compiled:
+		for (int i = 0; i < 2000; i++) mTerminal.append(bytes, bytes.length);
+		for (int i = 0; i < 20000; i++) allocationMXBean.getThreadAllocatedBytes(threadId);
+		long before = allocationMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 1000; i++) mTerminal.append(bytes, bytes.length);
+		long allocatedBytes = allocationMXBean.getThreadAllocatedBytes(threadId) - before;
+		if (allocatedBytes != 0)
+			fail("Allocated " + allocatedBytes / (1000.0 * bytes.length) + " bytes per byte for: " + workload.replace("\033", "\\033")
+				.replace("\r", "\\r").replace("\n", "\\n"));
+	}
+
+	public void testShellPrompt() {
+		assertNoAllocations(shellPrompt(), false);
+	}
+
+	public void testLogFlood() {
+		assertNoAllocations(logFlood(new Random(42)), false);
+		assertNoAllocations(logFlood(new Random(42)), true);
+	}
+
+	public void testColors() {
+		assertNoAllocations(colors(new Random(42)), false);
+	}
+
+	public void testWideChars() {
+		assertNoAllocations(wideChars(), false);
+	}
+
+	public void testScrollRegion() {
+		assertNoAllocations(scrollRegion(new Random(42)), false);
+		assertNoAllocations(scrollRegion(new Random(42)), true);
+	}
+
+	public void testFullScreenRepaint() {
+		assertNoAllocations(fullScreenRepaint(new Random(42)), true);
+		assertNoAllocations(fullScreenRepaint(new Random(42)), false);
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+public class AsciicastTest extends TerminalTestCase {
+
+	private static String record(int columns, int rows, Object... chunksAndSizes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AsciicastRecorder recorder = new AsciicastRecorder(out, columns, rows);
+		for (Object chunkOrSize : chunksAndSizes) {
+			if (chunkOrSize instanceof byte[]) {
+				byte[] bytes = (byte[]) chunkOrSize;
+				recorder.recordOutput(bytes, 0, bytes.length);
+			} else {
+				int[] size = (int[]) chunkOrSize;
+				recorder.recordResize(size[0], size[1]);
+			}
+		}
+		recorder.close();
+		// Ignored after closing:
+		recorder.recordOutput(new byte[]{'x'}, 0, 1);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public void testRecordingFormat() throws IOException {
+		byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+		String recording = record(80, 24,
+			"a\"b\\c\r\n\033[1m\t".getBytes(StandardCharsets.UTF_8),
+			new byte[]{euro[0]}, new byte[]{euro[1], euro[2], '!'},
+			new int[]{100, 30},
+			new byte[]{(byte) 0xff});
+		String[] lines = recording.split("\n");
+		assertEquals(6, lines.length);
+		assertTrue(lines[0], lines[0].startsWith("{\"version\": 2, \"width\": 80, \"height\": 24, \"timestamp\": "));
+		assertTrue(lines[1], lines[1].matches("\\[0\\.\\d{6}, \"o\", \"a\\\\\"b\\\\\\\\c\\\\r\\\\n\\\\u001b\\[1m\\\\t\"]"));
+		// The start of a split UTF-8 sequence is kept until the rest of it is recorded:
+		assertTrue(lines[2], lines[2].endsWith(", \"o\", \"\"]"));
+		assertTrue(lines[3], lines[3].endsWith(", \"o\", \"€!\"]"));
+		assertTrue(lines[4], lines[4].endsWith(", \"r\", \"100x30\"]"));
+		assertTrue(lines[5], lines[5].endsWith(", \"o\", \"\uFFFD\"]"));
+	}
+
+	public void testReplay() throws IOException, InterruptedException {
+		String output = "hello åäö 😀\r\n\033[31mred\033[0m \"quoted\" back\\slash\r\n";
+		byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+		Object[] chunks = new Object[bytes.length + 1];
+		for (int i = 0; i < bytes.length; i++) chunks[i] = new byte[]{bytes[i]};
+		chunks[bytes.length] = new int[]{12, 4};
+		String recording = record(20, 5, chunks);
+
+		AsciicastPlayer player = new AsciicastPlayer(new StringReader(recording));
+		assertEquals(20, player.getColumns());
+		assertEquals(5, player.getRows());
+		TerminalEmulator replayed = new TerminalEmulator(mOutput, player.getColumns(), player.getRows(), 10, null);
+		player.play(replayed, 0);
+
+		withTerminalSized(20, 5);
+		enterString(output);
+		resize(12, 4);
+		assertEquals(mTerminal.getScreen().getTranscriptText(), replayed.getScreen().getTranscriptText());
+		assertEquals(12, replayed.mColumns);
+		assertEquals(mTerminal.getScreen().getRow(-1).getStyle(0), replayed.getScreen().getRow(-1).getStyle(0));
+	}
+
+	public void testPlayerEvents() throws IOException {
+		AsciicastPlayer player = new AsciicastPlayer(new StringReader(
+			"{\"version\": 2, \"env\": {\"SHELL\": \"/bin/sh\", \"TERM\": null}, \"width\": 3, \"tags\": [1, [true]], \"height\": 2}\n"
+				+ "[0.5, \"o\", \"ab\\u0063\\/\"]\n"
+				+ "\n"
+				+ "[1.25, \"i\", \"x\"]\n"
+				+ "[2e0, \"r\", \"4x3\"]\n"));
+		assertEquals(3, player.getColumns());
+		assertEquals(2, player.getRows());
+		withTerminalSized(3, 2);
+
+		assertTrue(player.nextEvent());
+		assertEquals(0.5, player.getEventTime());
+		assertEquals("o", player.getEventType());
+		assertEquals("abc/", player.getEventData());
+		assertTrue(player.applyEvent(mTerminal));
+		assertLinesAre("abc", "/  ");
+
+		assertTrue(player.nextEvent());
+		assertEquals("i", player.getEventType());
+		assertFalse(player.applyEvent(mTerminal));
+
+		assertTrue(player.nextEvent());
+		assertEquals(2.0, player.getEventTime());
+		assertTrue(player.applyEvent(mTerminal));
+		assertEquals(4, mTerminal.mColumns);
+		assertEquals(3, mTerminal.mRows);
+		assertEquals("abc/", mTerminal.getScreen().getTranscriptText());
+		assertFalse(player.nextEvent());
+	}
+
+	public void testInvalidRecording() {
+		for (String recording : new String[]{"", "{\"version\": 1, \"width\": 80, \"height\": 24}",
+			"{\"version\": 2, \"width\": 80}", "[0.5, \"o\", \"a\"]"}) {
+			try {
+				new AsciicastPlayer(new StringReader(recording));
+				fail(recording);
+			} catch (IOException e) {
+				// Expected.
+			}
+		}
+	}
+
+}
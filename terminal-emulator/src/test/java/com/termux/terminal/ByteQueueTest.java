@@ -51,4 +51,150 @@ public class ByteQueueTest extends TestCase {
 		assertEquals(0, q.read(new byte[128], false));
 	}
 
+	public void testPartialReads() throws Exception {
+		ByteQueue q = new ByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, 7));
+
+		byte[] arr = new byte[3];
+		assertEquals(3, q.read(arr, false));
+		assertArrayEquals(new byte[]{1, 2, 3}, arr);
+
+		byte[] bulk = new byte[]{9, 9, 9, 9, 9, 9};
+		assertEquals(4, q.read(bulk, 1, 5, false));
+		assertArrayEquals(new byte[]{9, 4, 5, 6, 7, 9}, bulk);
+		assertEquals(0, q.read(arr, false));
+	}
+
+	public void testWriteBlocksWhenFull() throws Exception {
+		final ByteQueue q = new ByteQueue(4);
+		final byte[] written = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+		final boolean[] result = new boolean[1];
+		Thread writer = new Thread(() -> result[0] = q.write(written, 0, written.length));
+		writer.start();
+
+		// The writer fills the queue and then waits for it to be read:
+		writer.join(100);
+		assertTrue(writer.isAlive());
+
+		byte[] read = new byte[written.length];
+		int totalRead = 0;
+		while (totalRead < read.length) {
+			byte[] arr = new byte[3];
+			int bytesRead = q.read(arr, true);
+			assertTrue(bytesRead > 0 && bytesRead <= 3);
+			System.arraycopy(arr, 0, read, totalRead, bytesRead);
+			totalRead += bytesRead;
+		}
+		writer.join();
+		assertTrue(result[0]);
+		assertArrayEquals(written, read);
+	}
+
+	public void testCloseWakesBlockedThreads() throws Exception {
+		final ByteQueue q = new ByteQueue(4);
+		final int[] readResult = new int[1];
+		Thread reader = new Thread(() -> readResult[0] = q.read(new byte[4], true));
+		reader.start();
+		reader.join(100);
+		assertTrue(reader.isAlive());
+
+		final ByteQueue full = new ByteQueue(4);
+		assertTrue(full.write(new byte[]{1, 2, 3, 4}, 0, 4));
+		final boolean[] writeResult = new boolean[]{true};
+		Thread writer = new Thread(() -> writeResult[0] = full.write(new byte[]{5}, 0, 1));
+		writer.start();
+		writer.join(100);
+		assertTrue(writer.isAlive());
+
+		q.close();
+		full.close();
+		reader.join();
+		writer.join();
+		assertEquals(-1, readResult[0]);
+		assertFalse(writeResult[0]);
+		assertEquals(-1, full.read(new byte[4], false));
+	}
+
+	public void testFinishLetsBytesBeRead() throws Exception {
+		final ByteQueue q = new ByteQueue(4);
+		final int[] readResult = new int[1];
+		Thread reader = new Thread(() -> readResult[0] = q.read(new byte[4], true));
+		reader.start();
+		reader.join(100);
+		assertTrue(reader.isAlive());
+
+		// A finished queue wakes a blocked reader:
+		q.finish();
+		reader.join();
+		assertEquals(-1, readResult[0]);
+
+		// Bytes written before finishing are still read, unlike after closing:
+		final ByteQueue finished = new ByteQueue(4);
+		assertTrue(finished.write(new byte[]{1, 2, 3}, 0, 3));
+		finished.finish();
+		byte[] arr = new byte[2];
+		assertEquals(2, finished.read(arr, true));
+		assertArrayEquals(new byte[]{1, 2}, arr);
+		assertEquals(1, finished.read(arr, false));
+		assertEquals(3, arr[0]);
+		assertEquals(-1, finished.read(arr, true));
+		assertEquals(-1, finished.read(arr, false));
+	}
+
+	public void testSourceAndSinkInPlace() throws Exception {
+		ByteQueue q = new ByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, 7));
+		assertEquals(7, q.read(new byte[7], false));
+
+		// The source is only given the free space up to the end of the buffer:
+		final byte[] next = new byte[]{8};
+		ByteQueue.Source source = (buffer, offset, length) -> {
+			for (int i = 0; i < length; i++) buffer[offset + i] = next[0]++;
+			return length;
+		};
+		assertEquals(3, q.write(source, 5));
+		assertEquals(2, q.write(source, 2));
+
+		// The sink is given the wrapped around bytes in two runs:
+		final StringBuilder consumed = new StringBuilder();
+		ByteQueue.Sink sink = (buffer, offset, length) -> {
+			consumed.append('[');
+			for (int i = 0; i < length; i++) consumed.append(buffer[offset + i]);
+			consumed.append(']');
+		};
+		assertEquals(5, q.read(sink, 100, false));
+		assertEquals("[8910][1112]", consumed.toString());
+		assertEquals(0, q.read(sink, 100, false));
+
+		// A source at its end stops the producer:
+		assertEquals(-1, q.write((buffer, offset, length) -> -1, 5));
+		q.close();
+		assertEquals(-1, q.write(source, 5));
+		assertEquals(-1, q.read(sink, 100, true));
+	}
+
+	public void testTransferBetweenThreads() throws Exception {
+		final ByteQueue q = new ByteQueue(7);
+		final int totalBytes = 1 << 20;
+		Thread writer = new Thread(() -> {
+			byte[] chunk = new byte[13];
+			for (int written = 0; written < totalBytes; written += chunk.length) {
+				for (int i = 0; i < chunk.length; i++) chunk[i] = (byte) (written + i);
+				q.write(chunk, 0, Math.min(chunk.length, totalBytes - written));
+			}
+		});
+		writer.start();
+
+		byte[] arr = new byte[5];
+		int totalRead = 0;
+		while (totalRead < totalBytes) {
+			int bytesRead = q.read(arr, true);
+			for (int i = 0; i < bytesRead; i++)
+				assertEquals((byte) (totalRead + i), arr[i]);
+			totalRead += bytesRead;
+		}
+		writer.join();
+		assertEquals(0, q.read(arr, false));
+	}
+
 }
@@ -0,0 +1,117 @@
+package com.termux.terminal;
+
+/** Tests of the damage recorded by the emulator for the view to redraw, see {@link TerminalDamage}. */
+public class DamageTest extends TerminalTestCase {
+
+	/** Clear the damage as a view does after it has drawn the screen. */
+	private void drawn() {
+		mTerminal.getDamage();
+		mTerminal.clearDamage();
+	}
+
+	private void assertDamagedRows(int... rows) {
+		TerminalDamage damage = mTerminal.getDamage();
+		assertFalse(damage.isFullDamage());
+		int i = 0;
+		for (int row = damage.nextDamagedRow(0); row != -1; row = damage.nextDamagedRow(row + 1)) {
+			assertTrue("Unexpected damaged row " + row, i < rows.length);
+			assertEquals(rows[i++], row);
+		}
+		assertEquals(rows.length, i);
+	}
+
+	private void assertDamagedColumns(int row, int startColumn, int endColumn) {
+		TerminalDamage damage = mTerminal.getDamage();
+		assertTrue(damage.isRowDamaged(row));
+		assertEquals(startColumn, damage.getDamagedStartColumn(row));
+		assertEquals(endColumn, damage.getDamagedEndColumn(row));
+	}
+
+	public void testInitiallyFullDamage() {
+		withTerminalSized(5, 3);
+		assertTrue(mTerminal.getDamage().isFullDamage());
+		drawn();
+		assertTrue(mTerminal.getDamage().isEmpty());
+	}
+
+	public void testTextDamagesOnlyItsRow() {
+		withTerminalSized(10, 6).enterString("\033[?25l\033[4;3H");
+		drawn();
+		enterString("abc");
+		assertDamagedRows(3);
+		assertDamagedColumns(3, 1, 6);
+		assertEquals(0, mTerminal.getDamage().getScrolledRows());
+
+		drawn();
+		enterString("\033[1;1Hx\033[1;9Hy");
+		assertDamagedRows(0);
+		assertDamagedColumns(0, 0, 10);
+	}
+
+	public void testCursorDamage() {
+		withTerminalSized(10, 6).enterString("\033[2;5H");
+		drawn();
+		assertTrue(mTerminal.getDamage().isEmpty());
+
+		// Moving the cursor damages its old and new cells:
+		enterString("\033[5;2H");
+		assertDamagedRows(1, 4);
+		assertDamagedColumns(1, 3, 6);
+		assertDamagedColumns(4, 0, 3);
+
+		// Blinking the cursor only damages its cells:
+		drawn();
+		mTerminal.setCursorBlinkingEnabled(true);
+		mTerminal.setCursorBlinkState(false);
+		assertDamagedRows(4);
+		drawn();
+		mTerminal.setCursorBlinkState(true);
+		assertDamagedRows(4);
+		drawn();
+		mTerminal.setCursorBlinkState(true);
+		assertTrue(mTerminal.getDamage().isEmpty());
+
+		// Hiding the cursor damages its cells, but moving it while hidden does not:
+		enterString("\033[?25l");
+		assertDamagedRows(4);
+		drawn();
+		enterString("\033[1;1H");
+		assertTrue(mTerminal.getDamage().isEmpty());
+	}
+
+	public void testScrollDamagesScrollRegion() {
+		withTerminalSized(3, 5).enterString("\033[?25l\033[2;4r\033[4;1H");
+		drawn();
+		enterString("\n");
+		assertDamagedRows(1, 2, 3);
+		assertDamagedColumns(2, 0, 3);
+		assertEquals(1, mTerminal.getDamage().getScrolledRows());
+
+		drawn();
+		enterString("\033[r\033[5;1H\n\n");
+		assertDamagedRows(0, 1, 2, 3, 4);
+		assertEquals(2, mTerminal.getDamage().getScrolledRows());
+		drawn();
+		assertEquals(0, mTerminal.getDamage().getScrolledRows());
+	}
+
+	public void testFullDamage() {
+		withTerminalSized(5, 3);
+		drawn();
+		enterString("\033[?1049h");
+		assertTrue(mTerminal.getDamage().isFullDamage());
+
+		drawn();
+		enterString("\033[?5h");
+		assertTrue(mTerminal.getDamage().isFullDamage());
+
+		drawn();
+		enterString("\033]10;#ff0000\007");
+		assertTrue(mTerminal.getDamage().isFullDamage());
+
+		drawn();
+		resize(4, 3);
+		assertTrue(mTerminal.getDamage().isFullDamage());
+	}
+
+}
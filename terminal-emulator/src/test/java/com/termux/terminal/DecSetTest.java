@@ -75,4 +75,34 @@ public class DecSetTest extends TerminalTestCase {
 		enterString("\033[?7hhij").assertLinesAre("abh", "ij ", "   ");
 	}
 
+	/** DECSET 2026, synchronized output, holds back drawing the screen while an application writes a frame. */
+	public void testSynchronizedOutput() throws InterruptedException {
+		withTerminalSized(3, 3);
+		assertFalse(mTerminal.isSynchronizingOutput());
+		enterString("\033[?2026$p");
+		assertEquals("\033[?2026;2$y", mOutput.getOutputAndClear());
+
+		enterString("\033[?2026habc");
+		assertTrue(mTerminal.isSynchronizingOutput());
+		long delayMillis = mTerminal.getSynchronizedOutputDelayMillis();
+		assertTrue(delayMillis > 0 && delayMillis <= TerminalEmulator.SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS);
+		enterString("\033[?2026$p");
+		assertEquals("\033[?2026;1$y", mOutput.getOutputAndClear());
+		enterString("\033[?2026l").assertLinesAre("abc", "   ", "   ");
+		assertFalse(mTerminal.isSynchronizingOutput());
+		assertEquals(0, mTerminal.getSynchronizedOutputDelayMillis());
+
+		// The screen is drawn anyway if synchronized output is not reset in time:
+		enterString("\033[?2026h");
+		Thread.sleep(TerminalEmulator.SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS + 10);
+		// Setting it again does not extend the timeout:
+		enterString("\033[?2026h");
+		assertFalse(mTerminal.isSynchronizingOutput());
+
+		enterString("\033[?2026l\033[?2026h");
+		assertTrue(mTerminal.isSynchronizingOutput());
+		mTerminal.reset();
+		assertFalse(mTerminal.isSynchronizingOutput());
+	}
+
 }
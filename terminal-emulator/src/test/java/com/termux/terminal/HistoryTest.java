@@ -1,5 +1,10 @@
 package com.termux.terminal;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 public class HistoryTest extends TerminalTestCase {
 
@@ -30,4 +35,115 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	public void testFrozenHistoryRows() {
+		withTerminalSized(5, 3).enterString("\033[31mab\033[0mc\r\n\033[44m\u00e9\u4e2d\u0308x\033[0m\r\nwrapped\r\nend\r\nlast");
+		assertLinesAre("ed   ", "end  ", "last ");
+		assertHistoryStartsWith("wrapp", "\u00e9\u4e2d\u0308x ", "abc  ");
+		for (int row = -3; row < 0; row++)
+			assertTrue("row=" + row, mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(row)].isFrozen());
+		assertFalse(mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(0)].isFrozen());
+
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(-3, 1)));
+		assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(getStyleAt(-3, 2)));
+		assertEquals(4, TextStyle.decodeBackColor(getStyleAt(-2, 3)));
+		assertEquals(TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.decodeBackColor(getStyleAt(-2, 4)));
+		assertTrue(mTerminal.getScreen().getLineWrap(-1));
+		assertEquals("abc\n\u00e9\u4e2d\u0308x\nwrapped\nend\nlast", mTerminal.getScreen().getTranscriptText());
+
+		// Rows revealed from the transcript are thawed and can be modified again:
+		resize(5, 5).assertLinesAre("\u00e9\u4e2d\u0308x ", "wrapp", "ed   ", "end  ", "last ");
+		assertFalse(mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(0)].isFrozen());
+		enterString("\033[1;1HZ").assertLinesAre("Z\u4e2d\u0308x ", "wrapp", "ed   ", "end  ", "last ");
+		assertEquals(4, TextStyle.decodeBackColor(getStyleAt(0, 1)));
+
+		// Frozen rows are reflowed when the number of columns changes:
+		enterString("\033[5;5H").resize(5, 2).resize(8, 2);
+		assertEquals("abc\nZ\u4e2d\u0308x\nwrapped\nend\nlast", mTerminal.getScreen().getTranscriptText());
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(-mTerminal.getScreen().getActiveTranscriptRows(), 1)));
+	}
+
+	public void testRowsAreRecycled() {
+		withTerminalSized(5, 3).enterString("abc\r\ndef\r\nghi");
+		TerminalBuffer screen = mTerminal.getScreen();
+		TerminalRow firstRow = screen.mLines[screen.externalToInternalRow(0)];
+		// The row scrolling into the transcript is replaced by a frozen copy and reused for the revealed line:
+		enterString("\r\njkl").assertLinesAre("def  ", "ghi  ", "jkl  ").assertHistoryStartsWith("abc  ");
+		assertSame(firstRow, screen.mLines[screen.externalToInternalRow(2)]);
+		assertTrue(screen.mLines[screen.externalToInternalRow(-1)].isFrozen());
+
+		// Rows frozen by shrinking the screen are reused when it grows again:
+		TerminalRow secondRow = screen.mLines[screen.externalToInternalRow(0)];
+		resize(5, 2).assertLinesAre("ghi  ", "jkl  ").assertHistoryStartsWith("def  ", "abc  ");
+		resize(5, 3).assertLinesAre("def  ", "ghi  ", "jkl  ").assertHistoryStartsWith("abc  ");
+		assertSame(secondRow, screen.mLines[screen.externalToInternalRow(0)]);
+	}
+
+	public void testCompactAndTrimTranscript() {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 40; i++) input.append(String.format("l%02d\r\n", i));
+		withTerminalSized(5, 3).enterString(input.toString());
+		TerminalBuffer screen = mTerminal.getScreen();
+		String transcript = screen.getTranscriptText();
+		assertEquals(38, screen.getActiveTranscriptRows());
+
+		// Thawed copies of frozen rows and unused rows in the pool are released by compacting:
+		resize(5, 10).resize(5, 3);
+		for (int row = -38; row < -35; row++) screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		long memoryUsage = mTerminal.getMemoryUsage();
+		mTerminal.compact();
+		assertTrue(mTerminal.getMemoryUsage() < memoryUsage);
+		assertTrue(screen.mLines[screen.externalToInternalRow(-1)].isFrozen());
+		assertEquals(transcript, screen.getTranscriptText());
+
+		// The oldest rows are dropped by trimming:
+		memoryUsage = mTerminal.getMemoryUsage();
+		mTerminal.trimTranscript(10);
+		assertTrue(mTerminal.getMemoryUsage() < memoryUsage);
+		assertEquals(10, screen.getActiveTranscriptRows());
+		assertLineIs(-10, "l28  ");
+		assertTrue(screen.getTranscriptText().startsWith("l28\nl29\n"));
+		assertLinesAre("l38  ", "l39  ", "     ");
+		mTerminal.trimTranscript(20);
+		assertEquals(10, screen.getActiveTranscriptRows());
+		enterString("a\r\nb\r\nc").assertLinesAre("a    ", "b    ", "c    ").assertHistoryStartsWith("l39  ", "l38  ", "l37  ");
+		assertEquals(12, screen.getActiveTranscriptRows());
+	}
+
+	public void testWriteTranscriptText() throws IOException {
+		// Blank rows at the start and end, wrapped rows, full rows and enough text for several chunks:
+		withTerminalSized(10, 5).enterString("\r\n \r\n");
+		for (int i = 0; i < 1000; i++) enterString("line " + i + " 文字 wraps\r\nfull width\r\n\r\n");
+		enterString("\r\n   \r\n");
+		TerminalBuffer screen = mTerminal.getScreen();
+
+		assertWrittenTranscriptText(screen.getTranscriptText(), true, false);
+		assertWrittenTranscriptText(screen.getTranscriptTextWithoutJoinedLines(), false, false);
+		assertWrittenTranscriptText(screen.getTranscriptTextWithFullLinesJoined(), true, true);
+
+		withTerminalSized(5, 3);
+		assertWrittenTranscriptText("", true, false);
+
+		// Spaces of wrapped rows between line breaks and at the end:
+		withTerminalSized(5, 6).enterString("ab        \r\n          cd          ");
+		screen = mTerminal.getScreen();
+		assertWrittenTranscriptText(screen.getTranscriptText(), true, false);
+		assertWrittenTranscriptText(screen.getTranscriptTextWithoutJoinedLines(), false, false);
+		assertWrittenTranscriptText(screen.getTranscriptTextWithFullLinesJoined(), true, true);
+	}
+
+	private void assertWrittenTranscriptText(String expected, boolean joinBackLines, boolean joinFullLines) throws IOException {
+		TerminalBuffer screen = mTerminal.getScreen();
+		StringWriter writer = new StringWriter();
+		screen.writeTranscriptText(writer, joinBackLines, joinFullLines);
+		assertEquals(expected, writer.toString());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		screen.writeTranscriptText(out, joinBackLines, joinFullLines);
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		out.reset();
+		screen.writeTranscriptText(Channels.newChannel(out), joinBackLines, joinFullLines);
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
 }
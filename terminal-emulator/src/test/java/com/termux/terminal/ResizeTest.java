@@ -209,4 +209,72 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	public void testLazyReflowOfTranscript() {
+		StringBuilder input = new StringBuilder("abcdefghijkl\r\n");
+		StringBuilder expectedTranscript = new StringBuilder("abcdefghijkl");
+		for (int i = 0; i < 40; i++) {
+			input.append(String.format("l%02d\r\n", i));
+			expectedTranscript.append(String.format("\nl%02d", i));
+		}
+		withTerminalSized(6, 3).enterString(input.toString());
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(40, screen.getActiveTranscriptRows());
+
+		// Only the screen and the rows just above it are reflowed right away, but the transcript size is known:
+		resize(4, 3).assertLinesAre("l38 ", "l39 ", "    ");
+		assertEquals(41, screen.getActiveTranscriptRows());
+		assertNull(screen.mLines[screen.externalToInternalRow(-41)]);
+
+		// The other rows are reflowed when accessed:
+		assertTrue(screen.getLineWrap(-41));
+		assertTrue(screen.getLineWrap(-40));
+		assertFalse(screen.getLineWrap(-39));
+		assertEquals(expectedTranscript.toString(), screen.getTranscriptText());
+		assertEquals(41, screen.getActiveTranscriptRows());
+	}
+
+	public void testLazyReflowWhenTranscriptIsFull() {
+		StringBuilder input = new StringBuilder("abcdefghijkl\r\n");
+		for (int i = 0; i < 150; i++) input.append(String.format("line%03d\r\n", i));
+		byte[] bytes = input.toString().getBytes();
+		byte[] moreBytes = "more\r\noutput\r\n".getBytes();
+
+		// Compare accessing the transcript right after the resize with accessing it after scrolling:
+		TerminalEmulator eager = new TerminalEmulator(mOutput, 10, 3, 100, null);
+		eager.append(bytes, bytes.length);
+		eager.resize(5, 3);
+		eager.getScreen().getTranscriptText();
+		eager.append(moreBytes, moreBytes.length);
+
+		TerminalEmulator lazy = new TerminalEmulator(mOutput, 10, 3, 100, null);
+		lazy.append(bytes, bytes.length);
+		lazy.resize(5, 3);
+		assertEquals(eager.getScreen().getActiveTranscriptRows(), lazy.getScreen().getActiveTranscriptRows());
+		lazy.append(moreBytes, moreBytes.length);
+
+		assertEquals(eager.getScreen().getActiveTranscriptRows(), lazy.getScreen().getActiveTranscriptRows());
+		assertEquals(eager.getScreen().getTranscriptText(), lazy.getScreen().getTranscriptText());
+	}
+
+	public void testTrimTranscriptWithPendingReflow() {
+		StringBuilder input = new StringBuilder("abcdefghijkl\r\n");
+		for (int i = 0; i < 40; i++) input.append(String.format("l%02d\r\n", i));
+		for (int keepRows : new int[]{40, 38, 20, 0}) {
+			// Compare trimming after the rows have been reflowed with trimming while they are pending:
+			TerminalEmulator eager = new TerminalEmulator(mOutput, 6, 3, 100, null);
+			eager.append(input.toString().getBytes(), input.length());
+			eager.resize(4, 3);
+			eager.getScreen().getTranscriptText();
+			eager.trimTranscript(keepRows);
+
+			withTerminalSized(6, 3).enterString(input.toString());
+			resize(4, 3);
+			mTerminal.trimTranscript(keepRows);
+			assertEquals(Math.min(41, keepRows), mTerminal.getScreen().getActiveTranscriptRows());
+			assertEquals(eager.getScreen().getTranscriptText(), mTerminal.getScreen().getTranscriptText());
+			enterString("more\r\n");
+			assertEquals(Math.min(41, keepRows) + 1, mTerminal.getScreen().getActiveTranscriptRows());
+		}
+	}
+
 }
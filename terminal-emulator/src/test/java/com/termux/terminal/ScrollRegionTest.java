@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * ${CSI}${top};${bottom}r" - set Scrolling Region [top;bottom] (default = full size of window) (DECSTBM).
  * <p/>
@@ -99,6 +101,32 @@ public class ScrollRegionTest extends TerminalTestCase {
 		enterString("\033[3r").enterString("\033[2T").assertLinesAre("1 ", "2 ", "  ", "  ", "3 ");
 	}
 
+	/** Consecutive line feeds at the bottom margin are scrolled at once, which should be the same as one at a time. */
+	public void testScrollManyLinesWithScrollRegion() {
+		String output = "0\r\n1\r\n2\r\n3\r\n4\033[2;4r\033[4;1Hx\n\r\n\n\r\ny\n\n\n\n\n\nz\033[r\033[5;1H\n\n\nw";
+		withTerminalSized(2, 5);
+		for (byte b : output.getBytes(StandardCharsets.UTF_8)) mTerminal.append(new byte[]{b}, 1);
+		String transcript = mTerminal.getScreen().getTranscriptText();
+		int scrollCounter = mTerminal.getScrollCounter();
+
+		withTerminalSized(2, 5).enterString(output);
+		assertEquals(transcript, mTerminal.getScreen().getTranscriptText());
+		assertEquals(scrollCounter, mTerminal.getScrollCounter());
+		assertLinesAre(" z", "4 ", "  ", "  ", "w ").assertHistoryStartsWith("  ", "  ", "0 ", "  ", "  ", "  ", "y ");
+	}
+
+	/** "${CSI}${N}S" scrolls N lines at once, which should be the same as one at a time. */
+	public void testScrollUpManyLines() {
+		withTerminalSized(2, 5).enterString("1\r\n2\r\n3\r\n4\r\n5\033[2;4r\033[2S").assertLinesAre("1 ", "4 ", "  ", "  ", "5 ")
+			.assertHistoryStartsWith("3 ", "2 ");
+		// More lines than between the margins:
+		enterString("\033[1;1Hab\033[5;1Hcd\033[2;4r\033[7S").assertLinesAre("ab", "  ", "  ", "  ", "cd")
+			.assertHistoryStartsWith("  ", "  ", "  ", "  ", "  ", "  ", "4 ", "3 ", "2 ");
+		// With left and right margins nothing is scrolled into the transcript:
+		withTerminalSized(3, 4).enterString("abcdefghijkl\033[?69h\033[2;3s\033[2S").assertLinesAre("ahi", "dkl", "g  ", "j  ");
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+	}
+
 	public void testScrollDownBelowScrollRegion() {
 		withTerminalSized(2, 5).enterString("1\r\n2\r\n3\r\n4\r\n5").assertLinesAre("1 ", "2 ", "3 ", "4 ", "5 ");
 		enterString("\033[1;3r"); // DECSTBM margins.
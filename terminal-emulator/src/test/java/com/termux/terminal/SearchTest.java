@@ -0,0 +1,148 @@
+package com.termux.terminal;
+
+import java.util.regex.PatternSyntaxException;
+
+public class SearchTest extends TerminalTestCase {
+
+	private void assertMatch(TerminalSearch search, int row, int startColumn, int endColumn) {
+		assertMatch(search, row, startColumn, row, endColumn);
+	}
+
+	private void assertMatch(TerminalSearch search, int row, int startColumn, int endRow, int endColumn) {
+		assertEquals(row, search.getMatchRow());
+		assertEquals(startColumn, search.getMatchStartColumn());
+		assertEquals(endRow, search.getMatchEndRow());
+		assertEquals(endColumn, search.getMatchEndColumn());
+	}
+
+	public void testSubstringInTranscriptAndScreen() {
+		// The first three rows scroll into the transcript:
+		withTerminalSized(8, 3).enterString("ab error\r\nok\r\nerrors\r\nnone\r\nx error\r\nend");
+		assertHistoryStartsWith("errors  ", "ok      ", "ab error");
+		TerminalBuffer screen = mTerminal.getScreen();
+		TerminalSearch search = new TerminalSearch("error", false, false);
+
+		assertTrue(search.find(screen, -3, 0, true));
+		assertMatch(search, -3, 3, 8);
+		assertTrue(search.find(screen, -3, 4, true));
+		assertMatch(search, -1, 0, 5);
+		assertTrue(search.find(screen, -1, 1, true));
+		assertMatch(search, 1, 2, 7);
+		assertFalse(search.find(screen, 1, 3, true));
+
+		assertTrue(search.find(screen, 1, 2, false));
+		assertMatch(search, -1, 0, 5);
+		assertTrue(search.find(screen, 100, 0, false));
+		assertMatch(search, 1, 2, 7);
+		assertFalse(search.find(screen, -3, 3, false));
+
+		assertFalse(new TerminalSearch("ERROR", false, false).find(screen, -3, 0, true));
+		assertFalse(new TerminalSearch("rr o", false, false).find(screen, -3, 0, true));
+	}
+
+	public void testIgnoreCase() {
+		withTerminalSized(10, 2).enterString("Error\r\nan ERROR\r\n");
+		TerminalSearch search = new TerminalSearch("eRRor", false, true);
+		assertTrue(search.find(mTerminal.getScreen(), -10, 0, true));
+		assertMatch(search, -1, 0, 5);
+		assertTrue(search.find(mTerminal.getScreen(), -1, 1, true));
+		assertMatch(search, 0, 3, 8);
+	}
+
+	public void testRegex() {
+		withTerminalSized(12, 2).enterString("id=12 id=345\r\n\r\nid=6");
+		TerminalSearch search = new TerminalSearch("id=[0-9]+", true, false);
+		int[] columns = new int[6];
+		assertEquals(2, search.findInRow(mTerminal.getScreen(), -1, columns));
+		assertEquals(0, columns[0]);
+		assertEquals(5, columns[1]);
+		assertEquals(6, columns[2]);
+		assertEquals(12, columns[3]);
+		assertEquals(0, search.findInRow(mTerminal.getScreen(), 0, columns));
+		assertEquals(1, search.findInRow(mTerminal.getScreen(), 1, columns));
+
+		assertTrue(search.find(mTerminal.getScreen(), -1, 1, true));
+		assertMatch(search, -1, 6, 12);
+
+		// Empty matches are skipped:
+		assertFalse(new TerminalSearch("x*", true, false).find(mTerminal.getScreen(), -1, 0, true));
+
+		try {
+			new TerminalSearch("(", true, false);
+			fail();
+		} catch (PatternSyntaxException e) {
+			// Expected.
+		}
+	}
+
+	public void testWideCharColumns() {
+		withTerminalSized(10, 2).enterString("中文 error\r\n\r\n");
+		TerminalSearch search = new TerminalSearch("error", false, false);
+		assertTrue(search.find(mTerminal.getScreen(), -1, 0, true));
+		assertMatch(search, -1, 5, 10);
+		assertTrue(new TerminalSearch("文", false, false).find(mTerminal.getScreen(), -1, 0, true));
+	}
+
+	public void testMatchAcrossWrappedRows() {
+		// A log line wider than the screen, which scrolls into the transcript:
+		withTerminalSized(10, 2).enterString("12345678error: x\r\nok\r\n");
+		assertEquals("12345678error: x\nok", mTerminal.getScreen().getTranscriptText());
+		TerminalBuffer screen = mTerminal.getScreen();
+		TerminalSearch search = new TerminalSearch("error", false, false);
+
+		assertTrue(search.find(screen, -100, 0, true));
+		assertMatch(search, -2, 8, -1, 3);
+		assertFalse(search.find(screen, -2, 9, true));
+		// Searching from the continued row finds matches starting in the row above after the start position only:
+		assertFalse(search.find(screen, -1, 0, true));
+		assertTrue(search.find(screen, -1, 0, false));
+		assertMatch(search, -2, 8, -1, 3);
+		assertFalse(search.find(screen, -2, 8, false));
+
+		// The pair of chars across the rows is not in the signature of either row:
+		assertTrue(new TerminalSearch("8e", false, false).find(screen, -100, 0, true));
+		assertTrue(new TerminalSearch("r: x", false, false).find(screen, -100, 0, true));
+		search = new TerminalSearch("8e[a-z]+:", true, false);
+		assertTrue(search.find(screen, -100, 0, true));
+		assertMatch(search, -2, 7, -1, 4);
+		// Lines which are not wrapped are not joined:
+		assertFalse(new TerminalSearch("xok", false, false).find(screen, -100, 0, true));
+	}
+
+	public void testHighlightAcrossWrappedRows() {
+		withTerminalSized(10, 3).enterString("12345678error: x error");
+		TerminalBuffer screen = mTerminal.getScreen();
+		TerminalSearch search = new TerminalSearch("error", false, false);
+		int[] columns = new int[4];
+		// The match starts in the first row and ends in the second one:
+		assertEquals(1, search.findInRow(screen, 0, columns));
+		assertEquals(8, columns[0]);
+		assertEquals(10, columns[1]);
+		assertEquals(2, search.findInRow(screen, 1, columns));
+		assertEquals(0, columns[0]);
+		assertEquals(3, columns[1]);
+		assertEquals(7, columns[2]);
+		assertEquals(10, columns[3]);
+		assertEquals(1, search.findInRow(screen, 2, columns));
+		assertEquals(0, columns[0]);
+		assertEquals(2, columns[1]);
+
+		search = new TerminalSearch("x e", true, false);
+		assertEquals(1, search.findInRow(screen, 1, columns));
+		assertEquals(5, columns[0]);
+		assertEquals(8, columns[1]);
+	}
+
+	public void testRowsFallingOutOfTranscript() {
+		mTerminal = new TerminalEmulator(mOutput, 5, 2, TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN, null);
+		enterString("old\r\n");
+		for (int i = 0; i < TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN; i++) enterString(i + "\r\n");
+		assertEquals(TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN - 2, mTerminal.getScreen().getActiveTranscriptRows());
+		assertFalse(new TerminalSearch("old", false, false).find(mTerminal.getScreen(), -1000, 0, true));
+		assertTrue(new TerminalSearch("2", false, false).find(mTerminal.getScreen(), -1000, 0, true));
+
+		mTerminal.getScreen().clearTranscript();
+		assertFalse(new TerminalSearch("2", false, false).find(mTerminal.getScreen(), -10, 0, true));
+	}
+
+}
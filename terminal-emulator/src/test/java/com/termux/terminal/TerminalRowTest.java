@@ -429,4 +429,129 @@ public class TerminalRowTest extends TestCase {
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	/** The column to char index lookup without the cached index of {@link TerminalRow}. */
+	private static int findStartOfColumnByScanning(TerminalRow row, int column, int columns) {
+		if (column == columns) return row.getSpaceUsed();
+		int currentColumn = 0;
+		int currentCharIndex = 0;
+		while (true) {
+			int newCharIndex = currentCharIndex;
+			char c = row.mText[newCharIndex++];
+			int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, row.mText[newCharIndex++]) : c;
+			int wcwidth = WcWidth.width(codePoint);
+			if (wcwidth > 0) {
+				currentColumn += wcwidth;
+				if (currentColumn == column) {
+					while (newCharIndex < row.getSpaceUsed() && WcWidth.width(row.mText, newCharIndex) <= 0)
+						newCharIndex += Character.isHighSurrogate(row.mText[newCharIndex]) ? 2 : 1;
+					return newCharIndex;
+				} else if (currentColumn > column) {
+					return currentCharIndex;
+				}
+			}
+			currentCharIndex = newCharIndex;
+		}
+	}
+
+	public void testColumnStartIndex() {
+		int[] codePoints = {'a', 'Z', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT, 0x0BCD /* Tamil sign virama */, 0x093F /* Devanagari vowel sign i */};
+		TerminalRow other = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			int operation = random.nextInt(100);
+			if (operation == 0) {
+				row.clear(TextStyle.NORMAL);
+			} else if (operation < 5) {
+				int x1 = random.nextInt(COLUMNS);
+				int x2 = x1 + random.nextInt(COLUMNS - x1);
+				int destination = random.nextInt(COLUMNS - (x2 - x1));
+				row.copyInterval(random.nextBoolean() ? row : other, x1, x2, destination);
+			} else {
+				int codePoint = codePoints[random.nextInt(codePoints.length)];
+				int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+				(operation < 30 ? other : row).setChar(column, codePoint, 0);
+			}
+			for (int column = 0; column <= COLUMNS; column++)
+				assertEquals("At column=" + column + " after operation " + i, findStartOfColumnByScanning(row, column, COLUMNS), row.findStartOfColumn(column));
+		}
+	}
+
+	public void testStyleRuns() {
+		long[] styles = new long[COLUMNS];
+		Arrays.fill(styles, TextStyle.NORMAL);
+		TerminalRow other = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		Random random = new Random(11);
+		for (int i = 0; i < 20000; i++) {
+			int operation = random.nextInt(100);
+			// Mostly use a few styles so that runs get merged, but sometimes fragment the row into many runs.
+			long style = (i % 2000 < 1000) ? random.nextInt(3) : random.nextInt(1000);
+			if (operation == 0) {
+				row.clear(style);
+				Arrays.fill(styles, style);
+			} else if (operation < 5) {
+				int x1 = random.nextInt(COLUMNS);
+				int x2 = x1 + random.nextInt(COLUMNS - x1);
+				int destination = random.nextInt(COLUMNS - (x2 - x1));
+				row.copyInterval(other, x1, x2, destination);
+				for (int x = x1; x < x2; x++)
+					styles[destination + x - x1] = other.getStyle(x);
+			} else if (operation < 10) {
+				int column = random.nextInt(COLUMNS);
+				other.setChar(column, 'a', style);
+			} else if (operation < 30) {
+				int x1 = random.nextInt(COLUMNS);
+				int x2 = x1 + random.nextInt(COLUMNS - x1 + 1);
+				row.setStyles(x1, x2, style);
+				Arrays.fill(styles, x1, x2, style);
+			} else {
+				int column = random.nextInt(COLUMNS);
+				row.setChar(column, 'a', style);
+				styles[column] = style;
+			}
+
+			for (int column = 0; column < COLUMNS; column++)
+				assertEquals("At column=" + column + " after operation " + i, styles[column], row.getStyle(column));
+			for (int column = 0; column < COLUMNS; column = row.getStyleRunEnd(column)) {
+				int end = row.getStyleRunEnd(column);
+				assertTrue(end > column && end <= COLUMNS);
+				for (int x = column; x < end; x++)
+					assertEquals(styles[column], styles[x]);
+				if (end < COLUMNS) assertTrue(styles[end] != styles[column]);
+			}
+		}
+	}
+
+	/** {@link TerminalRow#fill(int, int, int, long)} should behave as setting each cell with setChar(). */
+	public void testFill() {
+		int[] codePoints = {'a', ' ', 0xE9, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT};
+		TerminalRow expected = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		Random random = new Random(13);
+		for (int i = 0; i < 5000; i++) {
+			int codePoint = codePoints[random.nextInt(codePoints.length)];
+			long style = random.nextInt(4);
+			if (random.nextInt(3) == 0) {
+				int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+				row.setChar(column, codePoint, style);
+				expected.setChar(column, codePoint, style);
+			} else {
+				// Wide chars can not be filled into the last column:
+				if (WcWidth.width(codePoint) == 2) codePoint = 'b';
+				int x1 = random.nextInt(4) == 0 ? 0 : random.nextInt(COLUMNS);
+				int x2 = random.nextInt(4) == 0 ? COLUMNS : x1 + random.nextInt(COLUMNS - x1 + 1);
+				row.fill(x1, x2, codePoint, style);
+				for (int x = x1; x < x2; x++)
+					expected.setChar(x, codePoint, style);
+			}
+
+			String message = "After operation " + i;
+			assertEquals(message, new String(expected.mText, 0, expected.getSpaceUsed()), new String(row.mText, 0, row.getSpaceUsed()));
+			for (int column = 0; column < COLUMNS; column++) {
+				assertEquals(message, expected.getStyle(column), row.getStyle(column));
+				assertEquals(message, expected.findStartOfColumn(column), row.findStartOfColumn(column));
+			}
+		}
+	}
+
 }
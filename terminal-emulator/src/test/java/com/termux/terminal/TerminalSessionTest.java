@@ -0,0 +1,61 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+public class TerminalSessionTest extends TerminalTestCase {
+
+	/**
+	 * A process which writes output and exits right away, before the reader thread has read its output from the pty,
+	 * has all of its output parsed on the emulator thread before the exit is reported.
+	 */
+	public void testOutputOfExitedProcessIsParsed() throws Exception {
+		withTerminalSized(20, 3);
+		final ByteQueue queue = new ByteQueue(8);
+		final byte[] output = "exited\r\nwith output".getBytes(StandardCharsets.UTF_8);
+		final CountDownLatch exited = new CountDownLatch(1);
+
+		// The reader thread, which is only scheduled to read the output from the pty after the process has exited:
+		Thread inputReader = new Thread(() -> {
+			try {
+				exited.await();
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (int offset = 0; offset < output.length; offset += 3)
+				queue.write(output, offset, Math.min(3, output.length - offset));
+		});
+		inputReader.start();
+
+		Thread emulatorThread = new Thread(() -> TerminalSession.parseOutput(queue, mTerminal, () -> {}));
+		emulatorThread.start();
+
+		// The waiter thread, once the process has exited:
+		exited.countDown();
+		TerminalSession.finishOutput(inputReader, queue);
+
+		emulatorThread.join();
+		assertLinesAre("exited              ", "with output         ", "                    ");
+	}
+
+	/** The emulator thread releases the lock of the emulator between slices of output, so the main thread can draw. */
+	public void testOutputIsParsedInSlices() {
+		withTerminalSized(20, 3);
+		final ByteQueue queue = new ByteQueue(16 * 1024);
+		final byte[] output = new byte[10000];
+		Arrays.fill(output, (byte) 'x');
+		assertTrue(queue.write(output, 0, output.length));
+		queue.finish();
+
+		final int[] slices = new int[1];
+		TerminalSession.parseOutput(queue, mTerminal, () -> {
+			assertFalse(Thread.holdsLock(mTerminal));
+			slices[0]++;
+		});
+		assertEquals(3, slices[0]);
+		assertLinesAre("xxxxxxxxxxxxxxxxxxxx", "xxxxxxxxxxxxxxxxxxxx", "xxxxxxxxxxxxxxxxxxxx");
+	}
+
+}
@@ -0,0 +1,265 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class TerminalSnapshotTest extends TerminalTestCase {
+
+	private static final String OUTPUT = "\033[31mred\033[0m and \033[1;44mbold\033[0m\r\n"
+		+ "a line long enough to wrap around the screen\r\n"
+		+ "wide 中文 and combining é\r\n";
+
+	private File mDirectory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDirectory = Files.createTempDirectory("snapshot").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = mDirectory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+		mDirectory.delete();
+		super.tearDown();
+	}
+
+	private static TerminalEmulator newEmulator(TerminalOutput output, String... chunks) {
+		TerminalEmulator emulator = new TerminalEmulator(output, 12, 4, 100, null);
+		for (String chunk : chunks) {
+			byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+			emulator.append(bytes, bytes.length);
+		}
+		return emulator;
+	}
+
+	private void assertSameBuffers(TerminalEmulator expected, TerminalEmulator actual) {
+		assertEquals(expected.isAlternateBufferActive(), actual.isAlternateBufferActive());
+		assertEquals(expected.getCursorRow(), actual.getCursorRow());
+		assertEquals(expected.getCursorCol(), actual.getCursorCol());
+		TerminalBuffer expectedScreen = expected.getScreen(), actualScreen = actual.getScreen();
+		assertEquals(expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+		assertEquals(expectedScreen.getTranscriptText(), actualScreen.getTranscriptText());
+		for (int row = -expectedScreen.getActiveTranscriptRows(); row < expected.mRows; row++) {
+			assertEquals("row=" + row, expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+			assertEquals("row=" + row, expectedScreen.getSelectedText(0, row, expected.mColumns, row),
+				actualScreen.getSelectedText(0, row, actual.mColumns, row));
+			for (int column = 0; column < expected.mColumns; column++)
+				assertEquals("row=" + row + ", column=" + column, expectedScreen.getStyleAt(row, column), actualScreen.getStyleAt(row, column));
+		}
+	}
+
+	private void hibernateAndAppend(File file) throws IOException {
+		StringBuilder before = new StringBuilder(OUTPUT);
+		for (int i = 0; i < 30; i++) before.append("line ").append(i).append("\r\n");
+		String after = "\033[32mafter\033[0m\r\n" + OUTPUT + "\033[2;3Hmoved";
+
+		TerminalEmulator expected = newEmulator(mOutput, before.toString(), after);
+		TerminalEmulator hibernated = newEmulator(mOutput, before.toString());
+		String transcript = hibernated.getScreen().getTranscriptText();
+		long memoryUsage = hibernated.getMemoryUsage();
+
+		hibernated.hibernate(file);
+		assertTrue(hibernated.isHibernating());
+		assertTrue(hibernated.getMemoryUsage() < memoryUsage);
+		assertEquals(0, hibernated.getScreen().getActiveTranscriptRows());
+		if (file != null) {
+			long heapMemoryUsage = hibernated.getMemoryUsage();
+			hibernated.saveSnapshot();
+			assertTrue(file.exists());
+			assertTrue(hibernated.getMemoryUsage() < heapMemoryUsage);
+		}
+		byte[] bytes = after.getBytes(StandardCharsets.UTF_8);
+		for (byte b : bytes) hibernated.append(new byte[]{b}, 1);
+		assertTrue(hibernated.isHibernating());
+		assertEquals("", hibernated.getScreen().getTranscriptText().trim());
+
+		hibernated.rehydrate();
+		assertFalse(hibernated.isHibernating());
+		assertSameBuffers(expected, hibernated);
+		assertFalse(transcript.equals(hibernated.getScreen().getTranscriptText()));
+	}
+
+	public void testHibernateOnHeap() throws IOException {
+		hibernateAndAppend(null);
+	}
+
+	public void testHibernateToFile() throws IOException {
+		File file = new File(new File(mDirectory, "sessions"), "session");
+		hibernateAndAppend(file);
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".output").exists());
+		new File(mDirectory, "sessions").delete();
+	}
+
+	public void testAlternateBufferAndPendingReflow() throws IOException {
+		StringBuilder before = new StringBuilder();
+		for (int i = 0; i < 20; i++) before.append("wrapped line ").append(i).append("\r\n");
+		String after = "more\r\n\033[?1049hin the alternate buffer";
+
+		TerminalEmulator expected = newEmulator(mOutput, before.toString());
+		expected.resize(8, 4);
+		expected.append(after.getBytes(StandardCharsets.UTF_8), after.length());
+
+		// The transcript rows are only reflowed when accessed after a resize:
+		TerminalEmulator hibernated = newEmulator(mOutput, before.toString());
+		hibernated.resize(8, 4);
+		hibernated.hibernate(null);
+		hibernated.append(after.getBytes(StandardCharsets.UTF_8), after.length());
+		hibernated.rehydrate();
+		assertSameBuffers(expected, hibernated);
+
+		expected.append("\033[?1049l".getBytes(StandardCharsets.UTF_8), 8);
+		hibernated.hibernate(null);
+		hibernated.append("\033[?1049l".getBytes(StandardCharsets.UTF_8), 8);
+		hibernated.rehydrate();
+		assertSameBuffers(expected, hibernated);
+	}
+
+	private static void append(TerminalEmulator emulator, String output) {
+		byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+	}
+
+	public void testAlternateBufferResizedAfterRehydrating() {
+		StringBuilder before = new StringBuilder("\033[?1049h\r\n\r\n\r\nbc\033[H");
+		for (int i = 0; i < 53; i++) before.append('x');
+		before.append("\033[Hhello ");
+		String after = "\r\n\033[?1049h\033[44m";
+
+		TerminalEmulator expected = new TerminalEmulator(mOutput, 8, 5, 100, null);
+		append(expected, before + after);
+		expected.resize(8, 4);
+
+		TerminalEmulator hibernated = new TerminalEmulator(mOutput, 8, 5, 100, null);
+		append(hibernated, before.toString());
+		hibernated.hibernate(null);
+		append(hibernated, after);
+		hibernated.rehydrate();
+		// The rows of the alternate buffer which are revealed or dropped depend on where they are kept internally:
+		hibernated.resize(8, 4);
+		assertSameBuffers(expected, hibernated);
+	}
+
+	/** Emulators which hibernate between random output and resizes end up the same as one which does not. */
+	public void testRandomOutputAndResizes() throws IOException {
+		String[] chunks = {"hello ", "a line long enough to wrap", "\r\n", "\r\n\r\n\r\n", "\033[?1049h", "\033[?1049l",
+			"\033[44m", "\033[0m", "\033[H", "\033[3;2H", "\033[2J", "\033[K", "中文", "\033[2;4r", "\033[r", "\033M"};
+		for (int seed = 0; seed < 300; seed++) {
+			Random random = new Random(seed);
+			TerminalEmulator expected = new TerminalEmulator(mOutput, 8, 5, 20, null);
+			TerminalEmulator hibernated = new TerminalEmulator(mOutput, 8, 5, 20, null);
+			for (int step = 0; step < 40; step++) {
+				int action = random.nextInt(10);
+				if (action < 6) {
+					String chunk = chunks[random.nextInt(chunks.length)];
+					append(expected, chunk);
+					append(hibernated, chunk);
+				} else if (action < 8) {
+					hibernated.hibernate(null);
+				} else if (action < 9) {
+					hibernated.rehydrate();
+				} else {
+					int columns = 4 + random.nextInt(8), rows = 3 + random.nextInt(5);
+					expected.resize(columns, rows);
+					hibernated.resize(columns, rows);
+				}
+			}
+			hibernated.rehydrate();
+			try {
+				assertSameBuffers(expected, hibernated);
+			} catch (AssertionError e) {
+				throw new AssertionError("seed=" + seed + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	public void testLoadSnapshot() throws IOException {
+		File file = new File(mDirectory, "session");
+		TerminalEmulator expected = newEmulator(mOutput, OUTPUT, "after");
+		TerminalEmulator hibernated = newEmulator(mOutput, OUTPUT);
+		hibernated.hibernate(file);
+		hibernated.saveSnapshot();
+		hibernated.append("after".getBytes(StandardCharsets.UTF_8), 5);
+		// The rows read back are restored without reading the file again:
+		hibernated.loadSnapshot();
+		assertTrue(file.delete());
+		hibernated.rehydrate();
+		assertSameBuffers(expected, hibernated);
+	}
+
+	public void testLostSnapshotIsShown() throws IOException {
+		File file = new File(mDirectory, "session");
+		withTerminalSized(70, 3).enterString("before");
+		mTerminal.hibernate(file);
+		mTerminal.saveSnapshot();
+		enterString("after");
+		// The file may be deleted while hibernating, as by clearing the app data:
+		assertTrue(file.delete());
+		mTerminal.rehydrate();
+		assertFalse(mTerminal.isHibernating());
+		assertEquals("[Failed to restore the screen and the transcript of the session]\nafter", mTerminal.getScreen().getTranscriptText());
+	}
+
+	public void testResizeToSameSizeDoesNotRehydrate() {
+		TerminalEmulator hibernated = newEmulator(mOutput, OUTPUT);
+		hibernated.hibernate(null);
+		hibernated.resize(12, 4);
+		assertTrue(hibernated.isHibernating());
+	}
+
+	public void testResizeRehydrates() throws IOException {
+		TerminalEmulator expected = newEmulator(mOutput, OUTPUT, "after");
+		expected.resize(20, 3);
+		TerminalEmulator hibernated = newEmulator(mOutput, OUTPUT);
+		hibernated.hibernate(null);
+		hibernated.append("after".getBytes(StandardCharsets.UTF_8), 5);
+		hibernated.resize(20, 3);
+		assertFalse(hibernated.isHibernating());
+		assertSameBuffers(expected, hibernated);
+	}
+
+	public void testTooMuchOutputRehydrates() throws IOException {
+		byte[] chunk = new byte[64 * 1024];
+		for (int i = 0; i < chunk.length; i++) chunk[i] = (byte) ((i % 61 == 60) ? '\n' : 'a' + i % 26);
+		TerminalEmulator expected = newEmulator(mOutput, OUTPUT);
+		TerminalEmulator hibernated = newEmulator(mOutput, OUTPUT);
+		hibernated.hibernate(null);
+		for (int i = 0; i < 20; i++) {
+			expected.append(chunk, chunk.length);
+			hibernated.append(chunk, chunk.length);
+		}
+		// The output kept on the heap is limited to 1 MiB:
+		assertFalse(hibernated.isHibernating());
+		assertSameBuffers(expected, hibernated);
+	}
+
+	public void testRepliesAreDelayed() throws IOException {
+		withTerminalSized(5, 3).enterString("abc");
+		mTerminal.hibernate(null);
+		// Device status report of the cursor position:
+		enterString("\033[6n");
+		assertEquals("", mOutput.getOutputAndClear());
+		mTerminal.rehydrate();
+		assertEquals("\033[1;4R", mOutput.getOutputAndClear());
+		assertLinesAre("abc  ", "     ", "     ");
+	}
+
+	public void testCloseSnapshot() throws IOException {
+		File file = new File(mDirectory, "session");
+		TerminalEmulator emulator = newEmulator(mOutput, OUTPUT);
+		emulator.hibernate(file);
+		emulator.saveSnapshot();
+		emulator.append("x".getBytes(StandardCharsets.UTF_8), 1);
+		assertTrue(file.exists());
+		emulator.closeSnapshot();
+		assertFalse(emulator.isHibernating());
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".output").exists());
+	}
+
+}
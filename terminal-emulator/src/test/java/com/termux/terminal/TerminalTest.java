@@ -1,6 +1,8 @@
 package com.termux.terminal;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 public class TerminalTest extends TerminalTestCase {
 
@@ -307,4 +309,95 @@ public class TerminalTest extends TerminalTestCase {
 		withTerminalSized(11, 2).enterString("01234567890\033[44m\r\tXX").assertLinesAre("01234567XX0", "           ");
 	}
 
+	/** The ASCII run fast path of {@link TerminalEmulator#append(byte[], int)} should behave as processing each char. */
+	public void testAsciiRunFastPath() {
+		withTerminalSized(5, 3).enterString("\033[4hab\rXYZ").assertLinesAre("XYZab", "     ", "     ").assertCursorAt(0, 3);
+		withTerminalSized(5, 3).enterString("\033[4habcd\rXY").assertLinesAre("XYabc", "     ", "     ");
+		withTerminalSized(5, 3).enterString("\033[?69h\033[2;4sabcdefg").assertLinesAre("abcd ", " efg ", "     ");
+		withTerminalSized(5, 3).enterString("\033(0lqk").assertLinesAre("┌─┐  ", "     ", "     ");
+		withTerminalSized(5, 3).enterString("a\033[3bb").assertLinesAre("aaaab", "     ", "     ");
+
+		String[] fragments = {"hello", " world ", "abcdefghijklmnopqrstuvwxyz", "\r", "\n", "\r\n", "\t",
+			"\033[4h", "\033[4l", "\033[?7l", "\033[?7h", "\033[?69h\033[3;9s", "\033[?69l", "\033[2;5r", "\033[r",
+			"\033[31m", "\033[0m", "\033[1;44m", "\033[H", "\033[3;7H", "\033[12G", "\033(0", "\033(B", "\033[2b", "\033[2P"};
+		Random random = new Random(1);
+		for (int iteration = 0; iteration < 200; iteration++) {
+			StringBuilder input = new StringBuilder();
+			for (int i = 0; i < 50; i++)
+				input.append(fragments[random.nextInt(fragments.length)]);
+			byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+			TerminalEmulator bulk = new TerminalEmulator(mOutput, 13, 6, 12, null);
+			bulk.append(bytes, bytes.length);
+			TerminalEmulator perCodePoint = new TerminalEmulator(mOutput, 13, 6, 12, null);
+			for (byte b : bytes)
+				perCodePoint.processCodePoint(b);
+
+			String message = "input=" + input;
+			assertEquals(message, perCodePoint.getCursorRow(), bulk.getCursorRow());
+			assertEquals(message, perCodePoint.getCursorCol(), bulk.getCursorCol());
+			TerminalBuffer expected = perCodePoint.getScreen();
+			TerminalBuffer actual = bulk.getScreen();
+			assertEquals(message, expected.getActiveTranscriptRows(), actual.getActiveTranscriptRows());
+			for (int row = -expected.getActiveTranscriptRows(); row < 6; row++) {
+				assertEquals(message, expected.getSelectedText(0, row, 13, row), actual.getSelectedText(0, row, 13, row));
+				assertEquals(message, expected.getLineWrap(row), actual.getLineWrap(row));
+				for (int column = 0; column < 13; column++)
+					assertEquals(message, expected.getStyleAt(row, column), actual.getStyleAt(row, column));
+			}
+		}
+	}
+
+
+	/**
+	 * The escape state table of {@link TerminalEmulator#append(byte[], int, int)} should behave as processing each char
+	 * with {@link TerminalEmulator#processCodePoint(int)}, also when sequences are split between appends.
+	 */
+	public void testEscapeStateTable() {
+		String[] fragments = {"abc", "\r\n", "\b", "\t", "\u0000", "\u0018", "\u001a", "\u0005", "\u007f", "\033", "[", ";", "5", "m", "?",
+			"\033[1;31m", "\033[;4m", "\033[1;;7m", "\033[38;5;123;48;2;1;2;3m", "\033[0m", "\033[99999;3H", "\033[;5H",
+			"\033[1;2;3;4;5;6;7;8;9;10;11;12;13;14;15;16;17;18;19m", "\033[2J", "\033[1K", "\033[3;4r", "\033[2@", "\033[3X",
+			"\033[?25l", "\033[?1049h", "\033[?1049l", "\033[?7$p", "\033[?1;1000h", "\033[6n",
+			"\033[>c", "\033[ q", "\033[5 q", "\033[!p", "\033[1\"q", "\033[2'}", "\033[2*x", "\033#8", "\033(0",
+			"\033(B", "\033)0\u000e", "\u000f", "\033%G", "\033M", "\033D", "\0337", "\0338", "\033]0;title\u0007",
+			"\033]2;a\u0001b\033\\", "\033]2;x\ny\u0007", "\033]0;", "\033Pq\033\\", "\033P$q\"p\033\\"};
+		Random random = new Random(1);
+		for (int iteration = 0; iteration < 500; iteration++) {
+			StringBuilder input = new StringBuilder();
+			for (int i = 0; i < 40; i++) {
+				if (random.nextInt(8) == 0) input.append((char) random.nextInt(128));
+				else input.append(fragments[random.nextInt(fragments.length)]);
+			}
+			byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+			MockTerminalOutput tableOutput = new MockTerminalOutput();
+			TerminalEmulator table = new TerminalEmulator(tableOutput, 11, 5, 10, null);
+			for (int offset = 0; offset < bytes.length; ) {
+				int length = Math.min(bytes.length - offset, 1 + random.nextInt(16));
+				table.append(bytes, offset, length);
+				offset += length;
+			}
+			MockTerminalOutput perCodePointOutput = new MockTerminalOutput();
+			TerminalEmulator perCodePoint = new TerminalEmulator(perCodePointOutput, 11, 5, 10, null);
+			for (byte b : bytes)
+				perCodePoint.processCodePoint(b);
+
+			String message = "input=" + input;
+			assertEquals(message, perCodePoint.getCursorRow(), table.getCursorRow());
+			assertEquals(message, perCodePoint.getCursorCol(), table.getCursorCol());
+			assertEquals(message, perCodePoint.getTitle(), table.getTitle());
+			assertEquals(message, perCodePoint.getCursorStyle(), table.getCursorStyle());
+			assertEquals(message, perCodePoint.isAlternateBufferActive(), table.isAlternateBufferActive());
+			assertEquals(message, perCodePointOutput.getOutputAndClear(), tableOutput.getOutputAndClear());
+			TerminalBuffer expected = perCodePoint.getScreen();
+			TerminalBuffer actual = table.getScreen();
+			assertEquals(message, expected.getActiveTranscriptRows(), actual.getActiveTranscriptRows());
+			for (int row = -expected.getActiveTranscriptRows(); row < 5; row++) {
+				assertEquals(message, expected.getSelectedText(0, row, 11, row), actual.getSelectedText(0, row, 11, row));
+				for (int column = 0; column < 11; column++)
+					assertEquals(message, expected.getStyleAt(row, column), actual.getStyleAt(row, column));
+			}
+		}
+	}
+
 }
@@ -0,0 +1,133 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class TranscriptSpillTest extends TerminalTestCase {
+
+	private File mDirectory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDirectory = new File(Files.createTempDirectory("spill").toFile(), "session");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (mTerminal != null) mTerminal.closeTranscriptSpill();
+		mDirectory.getParentFile().delete();
+		super.tearDown();
+	}
+
+	/** Create a terminal keeping the minimum number of transcript rows in memory and the rest in the spill. */
+	private void withSpillingTerminal(int columns, int rows, long maxBytes) throws IOException {
+		mTerminal = new TerminalEmulator(mOutput, columns, rows, TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN, null);
+		mTerminal.setTranscriptSpill(mDirectory, maxBytes);
+	}
+
+	private void enterLines(int first, int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = first; i < first + count; i++) builder.append("row ").append(i).append("\r\n");
+		enterString(builder.toString());
+	}
+
+	public void testRowsAreKeptBeyondTranscriptRows() throws IOException {
+		withSpillingTerminal(8, 3, Long.MAX_VALUE);
+		enterLines(0, 500);
+		TerminalBuffer screen = mTerminal.getScreen();
+		// The rows of the screen above the cursor and all rows before them are kept:
+		assertEquals(498, screen.getActiveTranscriptRows());
+		assertEquals(501, screen.getActiveRows());
+		assertLineIs(-498, "row 0   ");
+		assertLineIs(-400, "row 98  ");
+		assertLineIs(-1, "row 497 ");
+		assertLinesAre("row 498 ", "row 499 ", "        ");
+		assertTrue(screen.getTranscriptText().startsWith("row 0\nrow 1\nrow 2\n"));
+		assertTrue(mDirectory.isDirectory());
+
+		TerminalSearch search = new TerminalSearch("row 12", false, false);
+		assertTrue(search.find(screen, -1000, 0, true));
+		assertEquals(-486, search.getMatchRow());
+		assertTrue(search.find(screen, 0, 0, false));
+		assertEquals(-369, search.getMatchRow());
+		search = new TerminalSearch("row 1[0-9] ", true, false);
+		assertTrue(search.find(screen, -1000, 0, true));
+		assertEquals(-488, search.getMatchRow());
+		assertFalse(new TerminalSearch("row 500", false, false).find(screen, -1000, 0, true));
+	}
+
+	public void testLineWrapAndStyleAreKept() throws IOException {
+		withSpillingTerminal(5, 2, Long.MAX_VALUE);
+		enterString("\033[31mred\033[0m wrapped\r\n");
+		enterLines(0, 200);
+		TerminalBuffer screen = mTerminal.getScreen();
+		int row = -screen.getActiveTranscriptRows();
+		assertTrue(screen.getSpilledRowIndex(row) != -1);
+		assertLineIs(row, "red w");
+		assertTrue(screen.getLineWrap(row));
+		assertTrue(screen.getLineWrap(row + 1));
+		assertFalse(screen.getLineWrap(row + 2));
+		assertEquals(TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0), screen.getRow(row).getStyle(0));
+		assertEquals(TextStyle.NORMAL, screen.getRow(row).getStyle(3));
+		assertTrue(screen.getTranscriptText().startsWith("red wrapped\nrow 0\n"));
+
+		// The rows kept on disk are searched as a logical line:
+		TerminalSearch search = new TerminalSearch("wrapped", false, false);
+		assertTrue(search.find(screen, -1000, 0, true));
+		assertEquals(row, search.getMatchRow());
+		assertEquals(4, search.getMatchStartColumn());
+		assertEquals(row + 2, search.getMatchEndRow());
+		assertEquals(1, search.getMatchEndColumn());
+	}
+
+	public void testResizedRowsAreCutOffOrPadded() throws IOException {
+		withSpillingTerminal(8, 3, Long.MAX_VALUE);
+		enterLines(0, 200);
+		TerminalBuffer screen = mTerminal.getScreen();
+		resize(5, 3);
+		assertLineIs(-screen.getActiveTranscriptRows(), "row 0");
+		resize(10, 3);
+		assertLineIs(-screen.getActiveTranscriptRows(), "row 0     ");
+	}
+
+	public void testOldestSegmentsAreDropped() throws IOException {
+		withSpillingTerminal(8, 2, 0);
+		// A segment holds 8192 rows, after which the full one is dropped as it is over the maximum size:
+		enterLines(0, 8192 + 100 + 50);
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(51 + TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN - 2, screen.getActiveTranscriptRows());
+		assertLineIs(-screen.getActiveTranscriptRows(), "row 8192");
+	}
+
+	public void testTrimmedRowsAreSpilled() throws IOException {
+		withSpillingTerminal(8, 3, Long.MAX_VALUE);
+		enterLines(0, 50);
+		TerminalBuffer screen = mTerminal.getScreen();
+		String transcript = screen.getTranscriptText();
+		mTerminal.trimTranscript(10);
+		assertEquals(48, screen.getActiveTranscriptRows());
+		assertEquals(37, screen.getSpilledRowIndex(-11));
+		assertEquals(-1, screen.getSpilledRowIndex(-10));
+		assertLineIs(-48, "row 0   ");
+		assertLineIs(-11, "row 37  ");
+		assertEquals(transcript, screen.getTranscriptText());
+	}
+
+	public void testClearAndClose() throws IOException {
+		withSpillingTerminal(8, 3, Long.MAX_VALUE);
+		enterLines(0, 200);
+		TerminalBuffer screen = mTerminal.getScreen();
+		// Erase in display with the scroll-back buffer:
+		enterString("\033[3J");
+		assertEquals(0, screen.getActiveTranscriptRows());
+		enterLines(200, 200);
+		assertLineIs(-screen.getActiveTranscriptRows(), "row 198 ");
+
+		mTerminal.closeTranscriptSpill();
+		assertFalse(mDirectory.exists());
+		assertEquals(TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN - 3, screen.getActiveTranscriptRows());
+	}
+
+}
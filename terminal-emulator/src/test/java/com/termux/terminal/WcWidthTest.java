@@ -78,4 +78,11 @@ public class WcWidthTest extends TestCase {
 		assertWidthIs(2, 0x1F643); // UPSIDE-DOWN FACE (Unicode 8).
 	}
 
+	public void testLookupTablesMatchIntervalTables() {
+		for (int codePoint = -1; codePoint <= Character.MAX_CODE_POINT + 1; codePoint++) {
+			if (WcWidth.width(codePoint) != WcWidth.widthFromTables(codePoint))
+				fail("Width of " + Integer.toHexString(codePoint) + " is " + WcWidth.width(codePoint) + ", expected " + WcWidth.widthFromTables(codePoint));
+		}
+	}
+
 }
@@ -3,11 +3,13 @@ package com.termux.view;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalSearch;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
@@ -33,6 +35,11 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /** The clip bounds of the canvas being rendered to. */
+    private final Rect mClipBounds = new Rect();
+    /** The start and end columns of the search matches in the row being rendered. */
+    private int[] mSearchMatchColumns = new int[0];
+
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
         mTypeface = typeface;
@@ -56,6 +63,15 @@ public final class TerminalRenderer {
     /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
     public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
                              int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        render(mEmulator, canvas, topRow, selectionY1, selectionY2, selectionX1, selectionX2, null);
+    }
+
+    /**
+     * Render the terminal to a canvas with at a specified row scroll, an optional rectangular selection, and the
+     * matches of an optional search highlighted like the selection.
+     */
+    public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2, TerminalSearch search) {
         final boolean reverseVideo = mEmulator.isReverseVideo();
         final int endRow = topRow + mEmulator.mRows;
         final int columns = mEmulator.mColumns;
@@ -69,9 +85,16 @@ public final class TerminalRenderer {
         if (reverseVideo)
             canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
 
+        // Only the damaged rows are inside the clip if the view invalidated just those and is not hardware accelerated:
+        canvas.getClipBounds(mClipBounds);
+
+        // A row has at most one match per column:
+        if (search != null && mSearchMatchColumns.length < 2 * columns) mSearchMatchColumns = new int[2 * columns];
+
         float heightOffset = mFontLineSpacingAndAscent;
         for (int row = topRow; row < endRow; row++) {
             heightOffset += mFontLineSpacing;
+            if (heightOffset <= mClipBounds.top || heightOffset - mFontLineSpacing >= mClipBounds.bottom) continue;
 
             final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
             int selx1 = -1, selx2 = -1;
@@ -80,7 +103,10 @@ public final class TerminalRenderer {
                 selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
             }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            final int searchMatches = (search == null) ? 0 : search.findInRow(screen, row, mSearchMatchColumns);
+            int searchMatch = 0;
+
+            TerminalRow lineObject = screen.getRow(row);
             final char[] line = lineObject.mText;
             final int charsUsedInLine = lineObject.getSpaceUsed();
 
@@ -92,6 +118,8 @@ public final class TerminalRenderer {
             boolean lastRunFontWidthMismatch = false;
             int currentCharIndex = 0;
             float measuredWidthForRun = 0.f;
+            long style = 0;
+            int styleRunEnd = 0;
 
             for (int column = 0; column < columns; ) {
                 final char charAtIndex = line[currentCharIndex];
@@ -100,8 +128,14 @@ public final class TerminalRenderer {
                 final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
                 final int codePointWcWidth = WcWidth.width(codePoint);
                 final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                final long style = lineObject.getStyle(column);
+                while (searchMatch < searchMatches && column >= mSearchMatchColumns[2 * searchMatch + 1]) searchMatch++;
+                final boolean insideSearchMatch = searchMatch < searchMatches && column >= mSearchMatchColumns[2 * searchMatch];
+                final boolean insideSelection = (column >= selx1 && column <= selx2) || insideSearchMatch;
+                if (column >= styleRunEnd) {
+                    // Iterate over the style runs of the row instead of looking up the style of each column.
+                    style = lineObject.getStyle(column);
+                    styleRunEnd = lineObject.getStyleRunEnd(column);
+                }
 
                 // Check if the measured text width for this code point is not the same as that expected by wcwidth().
                 // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
@@ -7,6 +7,7 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Handler;
@@ -17,6 +18,7 @@ import android.text.InputType;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.ActionMode;
+import android.view.Choreographer;
 import android.view.HapticFeedbackConstants;
 import android.view.InputDevice;
 import android.view.KeyCharacterMap;
@@ -37,7 +39,10 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalDamage;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSearch;
 import com.termux.terminal.TerminalSession;
 import com.termux.view.textselection.TextSelectionCursorController;
 
@@ -65,9 +70,28 @@ public final class TerminalView extends View {
     public static final int TERMINAL_CURSOR_BLINK_RATE_MIN = 100;
     public static final int TERMINAL_CURSOR_BLINK_RATE_MAX = 2000;
 
+    /** The callback running a screen update requested by {@link #onScreenUpdated(boolean)} on the next frame. */
+    private final Choreographer.FrameCallback mScreenUpdateFrameCallback = this::onScreenUpdateFrame;
+    private boolean mScreenUpdatePending;
+    /** If all screen updates requested since the last frame should skip scrolling to the bottom. */
+    private boolean mScreenUpdateSkipScrolling;
+    /** The frame time in nanoseconds of the last screen update. */
+    private long mLastScreenUpdateFrameTime;
+    private int mMaxScreenUpdatesPerSecond;
+    public static final int TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN = 0;
+    public static final int TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX = 120;
+
     /** The top row of text to display. Ranges from -activeTranscriptRows to 0. */
     int mTopRow;
     int[] mDefaultSelectors = new int[]{-1,-1,-1,-1};
+    /** The area of a damaged row to invalidate, see {@link #invalidateDamage(boolean)}. */
+    private final Rect mDamageRect = new Rect();
+
+    /** The search whose matches are highlighted, see {@link #setSearch(TerminalSearch)}. */
+    private TerminalSearch mSearch;
+    /** If there is a current match of {@link #mSearch}, whose row is kept up to date as the screen scrolls. */
+    private boolean mSearchMatchValid;
+    private int mSearchMatchRow, mSearchMatchColumn;
 
     float mScaleFactor = 1.f;
     final GestureAndScaleRecognizer mGestureRecognizer;
@@ -256,7 +280,10 @@ public final class TerminalView extends View {
         mTermSession = session;
         mEmulator = null;
         mCombiningAccent = 0;
+        mSearchMatchValid = false;
 
+        // The session is shown, so restore its rows if it has been hibernating while not shown:
+        session.rehydrate();
         updateSize();
 
         // Wait with enabling the scrollbar until we have a terminal to get scroll position from.
@@ -416,48 +443,90 @@ public final class TerminalView extends View {
         onScreenUpdated(false);
     }
 
+    /**
+     * Request the view to be updated after the screen of the {@link #mEmulator} has changed.
+     *
+     * The update is deferred to the next display frame, so that output arriving faster than it
+     * can be shown is only drawn once per frame while the emulator keeps parsing it, and further
+     * throttled to {@link #setMaxScreenUpdatesPerSecond(int)} if set.
+     *
+     * @param skipScrolling If the view should not be scrolled to the bottom.
+     */
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null) return;
 
-        int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
-        if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
+        mScreenUpdateSkipScrolling = mScreenUpdatePending ? mScreenUpdateSkipScrolling && skipScrolling : skipScrolling;
+        if (!mScreenUpdatePending) {
+            mScreenUpdatePending = true;
+            Choreographer.getInstance().postFrameCallback(mScreenUpdateFrameCallback);
+        }
+    }
 
-        if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
+    private void onScreenUpdateFrame(long frameTimeNanos) {
+        if (mMaxScreenUpdatesPerSecond > 0 &&
+            frameTimeNanos - mLastScreenUpdateFrameTime < 1_000_000_000L / mMaxScreenUpdatesPerSecond) {
+            // Too early for another update, check again on the next frame.
+            Choreographer.getInstance().postFrameCallback(mScreenUpdateFrameCallback);
+            return;
+        }
+        if (mEmulator != null && mEmulator.isSynchronizingOutput()) {
+            // The application is writing a frame with synchronized output, draw it once complete or timed out.
+            Choreographer.getInstance().postFrameCallback(mScreenUpdateFrameCallback);
+            return;
+        }
 
-            // Do not scroll when selecting text.
-            int rowShift = mEmulator.getScrollCounter();
-            if (-mTopRow + rowShift > rowsInHistory) {
-                // .. unless we're hitting the end of history transcript, in which
-                // case we abort text selection and scroll to end.
-                if (isSelectingText())
-                    stopTextSelectionMode();
+        mScreenUpdatePending = false;
+        mLastScreenUpdateFrameTime = frameTimeNanos;
+        updateScreen(mScreenUpdateSkipScrolling);
+    }
 
-                if (mEmulator.isAutoScrollDisabled()) {
-                    mTopRow = -rowsInHistory;
+    private void updateScreen(boolean skipScrolling) {
+        if (mEmulator == null) return;
+
+        // The session may be parsing output into the emulator on its emulator thread:
+        synchronized (mEmulator) {
+            final int oldTopRow = mTopRow;
+            int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
+
+            if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
+
+                // Do not scroll when selecting text.
+                int rowShift = mEmulator.getScrollCounter();
+                if (-mTopRow + rowShift > rowsInHistory) {
+                    // .. unless we're hitting the end of history transcript, in which
+                    // case we abort text selection and scroll to end.
+                    if (isSelectingText())
+                        stopTextSelectionMode();
+
+                    if (mEmulator.isAutoScrollDisabled()) {
+                        mTopRow = -rowsInHistory;
+                        skipScrolling = true;
+                    }
+                } else {
                     skipScrolling = true;
+                    mTopRow -= rowShift;
+                    decrementYTextSelectionCursors(rowShift);
                 }
-            } else {
-                skipScrolling = true;
-                mTopRow -= rowShift;
-                decrementYTextSelectionCursors(rowShift);
             }
-        }
 
-        if (!skipScrolling && mTopRow != 0) {
-            // Scroll down if not already there.
-            if (mTopRow < -3) {
-                // Awaken scroll bars only if scrolling a noticeable amount
-                // - we do not want visible scroll bars during normal typing
-                // of one row at a time.
-                awakenScrollBars();
+            if (!skipScrolling && mTopRow != 0) {
+                // Scroll down if not already there.
+                if (mTopRow < -3) {
+                    // Awaken scroll bars only if scrolling a noticeable amount
+                    // - we do not want visible scroll bars during normal typing
+                    // of one row at a time.
+                    awakenScrollBars();
+                }
+                mTopRow = 0;
             }
-            mTopRow = 0;
-        }
 
-        mEmulator.clearScrollCounter();
+            if (mSearchMatchValid) mSearchMatchRow -= mEmulator.getScrollCounter();
+            mEmulator.clearScrollCounter();
 
-        invalidate();
-        if (mAccessibilityEnabled) setContentDescription(getText());
+            invalidateDamage(mTopRow != oldTopRow);
+            if (mAccessibilityEnabled) setContentDescription(getText());
+        }
     }
 
     /** This must be called by the hosting activity in {@link Activity#onContextMenuClosed(Menu)}
@@ -536,15 +605,25 @@ public final class TerminalView extends View {
     void doScroll(MotionEvent event, int rowsDown) {
         boolean up = rowsDown < 0;
         int amount = Math.abs(rowsDown);
+
+        // The session may be parsing output into the emulator on its emulator thread:
+        final boolean mouseTrackingActive, alternateBufferActive;
+        final int rowsInHistory;
+        synchronized (mEmulator) {
+            mouseTrackingActive = mEmulator.isMouseTrackingActive();
+            alternateBufferActive = mEmulator.isAlternateBufferActive();
+            rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+        }
+
         for (int i = 0; i < amount; i++) {
-            if (mEmulator.isMouseTrackingActive()) {
+            if (mouseTrackingActive) {
                 sendMouseEventCode(event, up ? TerminalEmulator.MOUSE_WHEELUP_BUTTON : TerminalEmulator.MOUSE_WHEELDOWN_BUTTON, true);
-            } else if (mEmulator.isAlternateBufferActive()) {
+            } else if (alternateBufferActive) {
                 // Send up and down key events for scrolling, which is what some terminals do to make scroll work in
                 // e.g. less, which shifts to the alt screen without mouse handling.
                 handleKeyCode(up ? KeyEvent.KEYCODE_DPAD_UP : KeyEvent.KEYCODE_DPAD_DOWN, 0);
             } else {
-                mTopRow = Math.min(0, Math.max(-(mEmulator.getScreen().getActiveTranscriptRows()), mTopRow + (up ? -1 : 1)));
+                mTopRow = Math.min(0, Math.max(-rowsInHistory, mTopRow + (up ? -1 : 1)));
                 if (!awakenScrollBars()) invalidate();
             }
         }
@@ -975,17 +1054,105 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            synchronized (mEmulator) {
+                mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3], mSearch);
+            }
 
             // render the text selection handles
             renderTextSelection();
         }
     }
 
+    /**
+     * Invalidate the rows the emulator has damaged since they were last drawn, or all of the view if it shows
+     * different rows than when it was last drawn.
+     */
+    private void invalidateDamage(boolean rowsMoved) {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            final TerminalDamage damage = mEmulator.getDamage();
+            if (rowsMoved || damage.isFullDamage() || (mTopRow != 0 && damage.getScrolledRows() > 0)) {
+                invalidate();
+            } else {
+                final float fontWidth = mRenderer.mFontWidth;
+                final int fontLineSpacing = mRenderer.mFontLineSpacing;
+                for (int row = damage.nextDamagedRow(0); row != -1; row = damage.nextDamagedRow(row + 1)) {
+                    final int viewRow = row - mTopRow;
+                    if (viewRow >= mEmulator.mRows) break;
+                    // The same area as TerminalRenderer.render() draws the row in, with a column of margin for glyphs
+                    // which are wider than their cells:
+                    final int top = viewRow * fontLineSpacing + mRenderer.mFontLineSpacingAndAscent;
+                    mDamageRect.set((int) ((damage.getDamagedStartColumn(row) - 1) * fontWidth), top,
+                        (int) Math.ceil((damage.getDamagedEndColumn(row) + 1) * fontWidth), top + fontLineSpacing);
+                    invalidate(mDamageRect);
+                }
+            }
+            mEmulator.clearDamage();
+        }
+    }
+
     public TerminalSession getCurrentSession() {
         return mTermSession;
     }
 
+    /**
+     * Set the search whose matches are highlighted, and which {@link #findSearchMatch(boolean)} goes to.
+     *
+     * @param search The search, or {@code null} to stop highlighting matches.
+     */
+    public void setSearch(@Nullable TerminalSearch search) {
+        mSearch = search;
+        mSearchMatchValid = false;
+        invalidate();
+    }
+
+    @Nullable
+    public TerminalSearch getSearch() {
+        return mSearch;
+    }
+
+    /**
+     * Go to the next or previous match of the {@link #mSearch} after or before the current match, and scroll the view
+     * to show it. The first match is searched for from the top of the view if going forward, and from the bottom of
+     * the view otherwise. The search wraps around at the top of the transcript and bottom of the screen.
+     *
+     * @param forward If going towards the bottom of the screen instead of towards the top of the transcript.
+     * @return Returns {@code true} if a match was found, otherwise {@code false}.
+     */
+    public boolean findSearchMatch(boolean forward) {
+        if (mSearch == null || mEmulator == null) return false;
+
+        synchronized (mEmulator) {
+            final TerminalBuffer screen = mEmulator.getScreen();
+            boolean found;
+            if (mSearchMatchValid) {
+                found = mSearch.find(screen, mSearchMatchRow, forward ? mSearchMatchColumn + 1 : mSearchMatchColumn, forward);
+            } else if (forward) {
+                found = mSearch.find(screen, mTopRow, 0, true);
+            } else {
+                found = mSearch.find(screen, mTopRow + mEmulator.mRows - 1, Integer.MAX_VALUE, false);
+            }
+            if (!found) {
+                // Wrap around:
+                found = mSearch.find(screen, forward ? Integer.MIN_VALUE : Integer.MAX_VALUE, forward ? 0 : Integer.MAX_VALUE, forward);
+            }
+
+            mSearchMatchValid = found;
+            if (!found) return false;
+
+            mSearchMatchRow = mSearch.getMatchRow();
+            mSearchMatchColumn = mSearch.getMatchStartColumn();
+            if (mSearchMatchRow < mTopRow || mSearchMatchRow >= mTopRow + mEmulator.mRows) {
+                // Center the match in the view:
+                mTopRow = Math.min(0, Math.max(-screen.getActiveTranscriptRows(), mSearchMatchRow - mEmulator.mRows / 2));
+                awakenScrollBars();
+            }
+        }
+
+        invalidate();
+        return true;
+    }
+
     private CharSequence getText() {
         return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
     }
@@ -1044,6 +1211,28 @@ public final class TerminalView extends View {
 
 
 
+    /**
+     * Set the maximum number of times per second the view is updated for changes of the screen of
+     * the {@link #mEmulator}, which may be lowered on slow devices to spend less time drawing. It
+     * must be between {@link #TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN} and
+     * {@link #TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX}, otherwise it will be disabled. If
+     * disabled with 0, the view is updated at most once per display frame.
+     *
+     * @param maxScreenUpdatesPerSecond The value to set.
+     * @return Returns {@code true} if the value was successfully set, otherwise {@code false}.
+     */
+    public boolean setMaxScreenUpdatesPerSecond(int maxScreenUpdatesPerSecond) {
+        if (maxScreenUpdatesPerSecond < TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN || maxScreenUpdatesPerSecond > TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX) {
+            mClient.logError(LOG_TAG, "The max screen updates per second must be in between " + TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN + "-" + TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX + ": " + maxScreenUpdatesPerSecond);
+            mMaxScreenUpdatesPerSecond = 0;
+            return false;
+        }
+
+        mClient.logVerbose(LOG_TAG, "Setting max screen updates per second to " + maxScreenUpdatesPerSecond);
+        mMaxScreenUpdatesPerSecond = maxScreenUpdatesPerSecond;
+        return true;
+    }
+
     /**
      * Set terminal cursor blinker rate. It must be between {@link #TERMINAL_CURSOR_BLINK_RATE_MIN}
      * and {@link #TERMINAL_CURSOR_BLINK_RATE_MAX}, otherwise it will be disabled.
@@ -1193,7 +1382,8 @@ public final class TerminalView extends View {
                     mCursorVisible = !mCursorVisible;
                     //mClient.logVerbose(LOG_TAG, "Toggling cursor blink state to " + mCursorVisible);
                     mEmulator.setCursorBlinkState(mCursorVisible);
-                    invalidate();
+                    // Do not draw a partly written frame, see TerminalEmulator.isSynchronizingOutput().
+                    if (!mEmulator.isSynchronizingOutput()) invalidateDamage(false);
                 }
             } finally {
                 // Recall the Runnable after mBlinkRate milliseconds to toggle the blink state
@@ -1313,6 +1503,11 @@ public final class TerminalView extends View {
             getViewTreeObserver().removeOnTouchModeChangeListener(mTextSelectionCursorController);
             mTextSelectionCursorController.onDetached();
         }
+
+        if (mScreenUpdatePending) {
+            Choreographer.getInstance().removeFrameCallback(mScreenUpdateFrameCallback);
+            mScreenUpdatePending = false;
+        }
     }
 
 
@@ -8,6 +8,8 @@ import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 
 import java.util.ArrayList;
@@ -52,18 +54,21 @@ public class ShellUtils {
     public static String getTerminalSessionTranscriptText(TerminalSession terminalSession, boolean linesJoined, boolean trim) {
         if (terminalSession == null) return null;
 
-        TerminalEmulator terminalEmulator = terminalSession.getEmulator();
+        TerminalEmulator terminalEmulator = terminalSession.getEmulatorRehydrated();
         if (terminalEmulator == null) return null;
 
-        TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
-        if (terminalBuffer == null) return null;
-
         String transcriptText;
 
-        if (linesJoined)
-            transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
-        else
-            transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        // The session may be parsing output into the emulator on its emulator thread:
+        synchronized (terminalEmulator) {
+            TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
+            if (terminalBuffer == null) return null;
+
+            if (linesJoined)
+                transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
+            else
+                transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        }
 
         if (transcriptText == null) return null;
 
@@ -73,4 +78,96 @@ public class ShellUtils {
         return transcriptText;
     }
 
+    /**
+     * Write transcript for {@link TerminalSession} to a {@link Writer} in chunks, without holding all
+     * of it in memory. The transcript is trimmed. The writer is flushed but not closed.
+     *
+     * @return Returns {@code true} if the transcript was written, or {@code false} if the session
+     * does not have a transcript.
+     */
+    public static boolean writeTerminalSessionTranscriptText(TerminalSession terminalSession, boolean linesJoined, @NonNull Writer writer) throws IOException {
+        if (terminalSession == null) return false;
+
+        TerminalEmulator terminalEmulator = terminalSession.getEmulatorRehydrated();
+        if (terminalEmulator == null) return false;
+
+        // The session may be parsing output into the emulator on its emulator thread:
+        synchronized (terminalEmulator) {
+            TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
+            if (terminalBuffer == null) return false;
+
+            terminalBuffer.writeTranscriptText(writer, linesJoined, linesJoined);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the end of the transcript for {@link TerminalSession} of at most maxLength chars. Only
+     * maxLength chars are held in memory while the transcript is written, like for sharing it
+     * where it would have to be truncated anyways.
+     */
+    public static String getTerminalSessionTranscriptTextTail(TerminalSession terminalSession, boolean linesJoined, int maxLength) {
+        TailWriter writer = new TailWriter(maxLength);
+        try {
+            if (!writeTerminalSessionTranscriptText(terminalSession, linesJoined, writer)) return null;
+        } catch (IOException e) {
+            // Not thrown by TailWriter.
+            return null;
+        }
+        return writer.toString();
+    }
+
+    /**
+     * A {@link Writer} which only keeps the last chars written to it in a circular buffer. The text may be one char
+     * shorter than the buffer if it would otherwise start with half of a surrogate pair.
+     */
+    private static final class TailWriter extends Writer {
+
+        private final char[] mBuffer;
+        /** The total number of chars written. */
+        private long mWritten;
+
+        TailWriter(int maxLength) {
+            mBuffer = new char[Math.max(maxLength, 0)];
+        }
+
+        @Override
+        public void write(@NonNull char[] chars, int offset, int length) {
+            final int capacity = mBuffer.length;
+            if (capacity == 0) return;
+            if (length > capacity) {
+                // Only the end of the chars fits:
+                mWritten += length - capacity;
+                offset += length - capacity;
+                length = capacity;
+            }
+            int start = (int) (mWritten % capacity);
+            int firstRun = Math.min(length, capacity - start);
+            System.arraycopy(chars, offset, mBuffer, start, firstRun);
+            System.arraycopy(chars, offset + firstRun, mBuffer, 0, length - firstRun);
+            mWritten += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            final int capacity = mBuffer.length;
+            if (mWritten <= capacity) return new String(mBuffer, 0, (int) mWritten);
+            int start = (int) (mWritten % capacity);
+            // Do not start with the second half of a surrogate pair whose first half was cut off:
+            int first = Character.isLowSurrogate(mBuffer[start]) ? start + 1 : start;
+            return new StringBuilder(capacity).append(mBuffer, first, capacity - first).append(mBuffer, 0, start).toString();
+        }
+
+    }
+
 }
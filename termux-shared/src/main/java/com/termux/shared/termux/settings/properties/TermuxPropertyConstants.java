@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.23.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,21 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-18)
+ *      - Add `KEY_TERMINAL_EMULATOR_THREAD`.
+ *
+ * - 0.20.0 (2026-10-18)
+ *      - Add `KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND`.
+ *
+ * - 0.21.0 (2026-10-18)
+ *      - Add `KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE`.
+ *
+ * - 0.22.0 (2026-10-18)
+ *      - Add `KEY_TERMINAL_MEMORY_BUDGET`.
+ *
+ * - 0.23.0 (2026-10-18)
+ *      - Add `KEY_TERMINAL_HIBERNATION_TIMEOUT`.
  */
 
 /**
@@ -137,6 +152,11 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether the output of terminal sessions is parsed on a dedicated thread instead of the main thread */
+    public static final String KEY_TERMINAL_EMULATOR_THREAD =  "terminal-emulator-thread"; // Default: "terminal-emulator-thread"
+
+
+
     /** Defines the key for whether url links in terminal transcript will automatically open on click or on tap */
     public static final String KEY_TERMINAL_ONCLICK_URL_OPEN =  "terminal-onclick-url-open"; // Default: "terminal-onclick-url-open"
 
@@ -198,6 +218,14 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the max terminal screen updates per second */
+    public static final String KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND =  "terminal-max-screen-updates-per-second"; // Default: "terminal-max-screen-updates-per-second"
+    public static final int IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN = TerminalView.TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN;
+    public static final int IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX = TerminalView.TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX;
+    public static final int DEFAULT_IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND = 0;
+
+
+
     /** Defines the key for the terminal cursor style */
     public static final String KEY_TERMINAL_CURSOR_STYLE =  "terminal-cursor-style"; // Default: "terminal-cursor-style"
 
@@ -255,6 +283,32 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the max size in MiB of the terminal transcript rows kept on disk, 0 to drop them */
+    public static final String KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE =  "terminal-transcript-spill-size"; // Default: "terminal-transcript-spill-size"
+    public static final int IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MIN = 0;
+    public static final int IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MAX = 4096;
+    public static final int DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE = 0;
+
+
+
+    /** Defines the key for the max size in MiB of the memory used by all terminal sessions before the transcripts of
+     * background sessions are trimmed, 0 to never trim them */
+    public static final String KEY_TERMINAL_MEMORY_BUDGET =  "terminal-memory-budget"; // Default: "terminal-memory-budget"
+    public static final int IVALUE_TERMINAL_MEMORY_BUDGET_MIN = 0;
+    public static final int IVALUE_TERMINAL_MEMORY_BUDGET_MAX = 4096;
+    public static final int DEFAULT_IVALUE_TERMINAL_MEMORY_BUDGET = 0;
+
+
+
+    /** Defines the key for the minutes after which terminal sessions which are not shown are hibernated, 0 to never
+     * hibernate them */
+    public static final String KEY_TERMINAL_HIBERNATION_TIMEOUT =  "terminal-hibernation-timeout"; // Default: "terminal-hibernation-timeout"
+    public static final int IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MIN = 0;
+    public static final int IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MAX = 10080;
+    public static final int DEFAULT_IVALUE_TERMINAL_HIBERNATION_TIMEOUT = 0;
+
+
+
 
 
     /* float */
@@ -409,6 +463,7 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_RUN_TERMUX_AM_SOCKET_SERVER,
+        KEY_TERMINAL_EMULATOR_THREAD,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
@@ -420,9 +475,13 @@ public final class TermuxPropertyConstants {
         KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
+        KEY_TERMINAL_HIBERNATION_TIMEOUT,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
+        KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND,
+        KEY_TERMINAL_MEMORY_BUDGET,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
+        KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE,
 
         /* float */
         KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR,
@@ -455,6 +514,7 @@ public final class TermuxPropertyConstants {
         KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST,
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
+        KEY_TERMINAL_EMULATOR_THREAD,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
@@ -267,12 +267,20 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalCursorBlinkRateInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE:
                 return (int) getTerminalCursorStyleInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_HIBERNATION_TIMEOUT:
+                return (int) getTerminalHibernationTimeoutInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL:
                 return (int) getTerminalMarginHorizontalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL:
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND:
+                return (int) getTerminalMaxScreenUpdatesPerSecondInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_MEMORY_BUDGET:
+                return (int) getTerminalMemoryBudgetInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE:
+                return (int) getTerminalTranscriptSpillSizeInternalPropertyValueFromValue(value);
 
             /* float */
             case TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR:
@@ -420,6 +428,24 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalMaxScreenUpdatesPerSecondInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN} and
@@ -438,6 +464,60 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_HIBERNATION_TIMEOUT}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalHibernationTimeoutInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_HIBERNATION_TIMEOUT,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_HIBERNATION_TIMEOUT),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_HIBERNATION_TIMEOUT,
+            TermuxPropertyConstants.IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_HIBERNATION_TIMEOUT_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MEMORY_BUDGET_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MEMORY_BUDGET_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_MEMORY_BUDGET}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalMemoryBudgetInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_MEMORY_BUDGET,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MEMORY_BUDGET),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MEMORY_BUDGET,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MEMORY_BUDGET_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MEMORY_BUDGET_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalTranscriptSpillSizeInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE,
+            TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_SPILL_SIZE_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR_MIN} and
@@ -610,6 +690,10 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_RUN_TERMUX_AM_SOCKET_SERVER, true);
     }
 
+    public boolean isUsingTerminalEmulatorThread() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_EMULATOR_THREAD, true);
+    }
+
     public boolean shouldOpenTerminalTranscriptURLOnClick() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
     }
@@ -650,10 +734,26 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL, true);
     }
 
+    public int getTerminalMaxScreenUpdatesPerSecond() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MAX_SCREEN_UPDATES_PER_SECOND, true);
+    }
+
     public int getTerminalTranscriptRows() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
 
+    public int getTerminalHibernationTimeout() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_HIBERNATION_TIMEOUT, true);
+    }
+
+    public int getTerminalMemoryBudget() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MEMORY_BUDGET, true);
+    }
+
+    public int getTerminalTranscriptSpillSize() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_SIZE, true);
+    }
+
     public float getTerminalToolbarHeightScaleFactor() {
         return (float) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR, true);
     }